@@ -0,0 +1,186 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Измеритель для микробенчмарков проекта.
+
+Каждый бенчмарк состоит из одной или нескольких ролей - групп потоков, которые в цикле выполняют
+одну и ту же операцию (например, одни потоки присоединяют и отключают клиентов, а другой в это время
+делает рассылку). Сначала идут прогревочные итерации, затем измерительные; для каждой роли выводится
+пропускная способность (среднее и разброс по итерациям) и число байт, выделенных на одну операцию.
+
+JMH здесь неприменим: его генератор не принимает классы из пакета по умолчанию, а весь код проекта
+лежит именно там. Поэтому прогрев, итерации и подсчёт выделенной памяти (ThreadMXBean) сделаны вручную.
+*/
+public class Bench {
+    public static final int WARMUP_ITERATIONS = Integer.getInteger("bench.warmupIterations", 3);
+    public static final int MEASUREMENT_ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    public static final long ITERATION_MILLIS = Long.getLong("bench.iterationMillis", 1000);
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Сюда складываются результаты операций, чтобы JIT не выбросил их как неиспользуемые.
+    private static volatile long sink;
+
+    // Операция, которую поток роли выполняет в цикле. Возвращаемое значение нужно только
+    // для защиты от удаления "бесполезного" кода компилятором.
+    public interface Operation {
+        long run() throws Exception;
+    }
+
+    // Группа потоков, выполняющих одну операцию.
+    public static class Role {
+        public final String name;
+        public final int threads;
+        public final Operation operation;
+
+        public Role(String name, int threads, Operation operation) {
+            this.name = name;
+            this.threads = threads;
+            this.operation = operation;
+        }
+    }
+
+    // Результат одной итерации для одной роли.
+    private static class Sample {
+        public long operations;
+        public long allocatedBytes;
+    }
+
+    // Прогоняет бенчмарк и печатает результаты.
+    public static void run(String benchmark, Role... roles) throws InterruptedException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(roles);
+        }
+
+        List<List<Sample>> samples = new ArrayList<>();
+
+        for (Role ignored : roles) {
+            samples.add(new ArrayList<>());
+        }
+
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            Sample[] iterationSamples = iteration(roles);
+
+            for (int r = 0; r < roles.length; r++) {
+                samples.get(r).add(iterationSamples[r]);
+            }
+        }
+
+        for (int r = 0; r < roles.length; r++) {
+            print(benchmark, roles[r], samples.get(r));
+        }
+    }
+
+    private static Sample[] iteration(Role[] roles) throws InterruptedException {
+        Sample[] result = new Sample[roles.length];
+        List<Thread> threads = new ArrayList<>();
+        Worker[][] workers = new Worker[roles.length][];
+
+        for (int r = 0; r < roles.length; r++) {
+            result[r] = new Sample();
+            workers[r] = new Worker[roles[r].threads];
+
+            for (int t = 0; t < roles[r].threads; t++) {
+                workers[r][t] = new Worker(roles[r].operation);
+
+                threads.add(new Thread(workers[r][t], roles[r].name + "-" + t));
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        Thread.sleep(ITERATION_MILLIS);
+
+        for (Worker[] roleWorkers : workers) {
+            for (Worker worker : roleWorkers) {
+                worker.isRunning = false;
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int r = 0; r < roles.length; r++) {
+            for (Worker worker : workers[r]) {
+                if (worker.failure != null) {
+                    throw new IllegalStateException("benchmark operation failed", worker.failure);
+                }
+
+                result[r].operations += worker.operations;
+                result[r].allocatedBytes += worker.allocatedBytes;
+            }
+        }
+
+        return result;
+    }
+
+    private static class Worker implements Runnable {
+        private final Operation operation;
+        public volatile boolean isRunning;
+        public long operations;
+        public long allocatedBytes;
+        public Exception failure;
+
+        public Worker(Operation operation) {
+            this.operation = operation;
+
+            isRunning = true;
+        }
+
+        @Override
+        public void run() {
+            long threadId = Thread.currentThread().threadId();
+            long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+            long accumulator = 0;
+            long count = 0;
+
+            try {
+                while (isRunning) {
+                    accumulator += operation.run();
+                    count++;
+                }
+            } catch (Exception e) {
+                failure = e;
+            }
+
+            allocatedBytes = THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            operations = count;
+            sink += accumulator;
+        }
+    }
+
+    private static void print(String benchmark, Role role, List<Sample> samples) {
+        double seconds = ITERATION_MILLIS / 1000.0;
+        double sum = 0;
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        long operations = 0;
+        long allocated = 0;
+
+        for (Sample sample : samples) {
+            double throughput = sample.operations / seconds;
+
+            sum += throughput;
+            min = Math.min(min, throughput);
+            max = Math.max(max, throughput);
+            operations += sample.operations;
+            allocated += sample.allocatedBytes;
+        }
+
+        System.out.printf(
+                "%-48s %-16s %14.0f ops/s  [%.0f .. %.0f]  %10.1f B/op%n",
+                benchmark,
+                role.name,
+                sum / samples.size(),
+                min,
+                max,
+                operations == 0 ? 0.0 : (double) allocated / operations
+        );
+    }
+}
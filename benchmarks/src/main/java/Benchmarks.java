@@ -0,0 +1,45 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Точка входа бенчмарков: gradle :benchmarks:run [--args="<имя> ..."].
+// Без аргументов запускает все бенчмарки по очереди.
+// Число и длительность итераций задаются свойствами bench.warmupIterations, bench.iterations,
+// bench.iterationMillis (см. Bench).
+public class Benchmarks {
+    // Бенчмарк - это просто main, запускающий Bench.run для своих вариантов.
+    private interface Benchmark {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Benchmark> benchmarks = new LinkedHashMap<>();
+
+        benchmarks.put("registry", () -> RegistryBenchmark.main(args));
+        benchmarks.put("logger", () -> LoggerBenchmark.main(args));
+        benchmarks.put("protocol", () -> ProtocolBenchmark.main(args));
+        benchmarks.put("connection", () -> ConnectionBenchmark.main(args));
+        benchmarks.put("fanout", () -> FanoutBenchmark.main(args));
+        benchmarks.put("metrics", () -> MetricsBenchmark.main(args));
+        benchmarks.put("compression", () -> CompressionBenchmark.main(args));
+
+        if (args.length == 0) {
+            for (Benchmark benchmark : benchmarks.values()) {
+                benchmark.run();
+            }
+
+            return;
+        }
+
+        for (String name : args) {
+            Benchmark benchmark = benchmarks.get(name);
+
+            if (benchmark == null) {
+                System.err.printf("unknown benchmark '%s', available: %s%n", name, benchmarks.keySet());
+
+                continue;
+            }
+
+            benchmark.run();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/*
+Цена и выигрыш сжатия сообщений (см. FrameCompressor) в сравнении с текстовым протоколом и кадрами без сжатия.
+
+Сообщения - строки чата из случайных слов небольшого словаря от сотни пользователей, похожие
+на настоящую переписку. Одна операция - путь одного сообщения от сервера до клиента: кодирование,
+сжатие (если есть) и разбор MessageDecoder вместе с распаковкой, то есть процессорное время
+обеих сторон.
+
+chat[lines]     - строка текстового протокола;
+chat[frames]    - кадр TEXT двоичного протокола;
+chat[deflate]   - кадр TEXT, сжатый общим для соединения потоком deflate (порог - как по умолчанию
+                  на сервере, более короткие кадры идут как есть);
+history[<...>]  - одна операция: история комнаты из HISTORY сообщений с номерами, которую сервер
+                  отправляет вошедшему в комнату клиенту одной записью.
+
+После каждого варианта бенчмарк печатает, сколько байт в среднем ушло в сокет на одно сообщение.
+*/
+public class CompressionBenchmark {
+    private static final int MESSAGES = 1024;
+    private static final int HISTORY = 100;
+    private static final String[] WORDS = {
+            "hello", "everyone", "how", "are", "you", "today", "the", "build", "is", "green", "again",
+            "did", "anyone", "see", "my", "last", "message", "about", "release", "deploy", "server",
+            "room", "meeting", "at", "noon", "lunch", "coffee", "thanks", "yes", "no", "maybe", "later"
+    };
+
+    private static final byte[][] LINES = new byte[MESSAGES][];
+    private static final byte[][] FRAMES = new byte[MESSAGES][];
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(42);
+
+        for (int i = 0; i < MESSAGES; i++) {
+            StringBuilder message = new StringBuilder("user").append(random.nextInt(100)).append(':');
+
+            for (int words = 3 + random.nextInt(12); words > 0; words--) {
+                message.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+
+            LINES[i] = (message + "\n").getBytes(StandardCharsets.UTF_8);
+            FRAMES[i] = Frame.encode(Frame.TEXT, i % 100, message.toString());
+        }
+
+        chat("lines", Protocol.LINES, LINES, null);
+        chat("frames", Protocol.BINARY, FRAMES, null);
+        chat("deflate", Protocol.BINARY, FRAMES, new FrameCompressor(Settings.DEFAULT_COMPRESSION_THRESHOLD));
+
+        history("lines", Protocol.LINES, false);
+        history("frames", Protocol.BINARY, false);
+        history("deflate", Protocol.BINARY, true);
+    }
+
+    private static void chat(String name, Protocol protocol, byte[][] encoded, FrameCompressor compressor)
+            throws InterruptedException {
+        MessageDecoder decoder = new MessageDecoder(LineDecoder.DEFAULT_MAX_LINE_LENGTH);
+        long[] sent = new long[2];
+
+        Bench.run("compression.chat[" + name + "]", new Bench.Role("message", 1, () -> {
+            byte[] message = encoded[(int) (sent[0]++ % MESSAGES)];
+
+            if (compressor != null && compressor.accepts(message.length)) {
+                message = compressor.compress(ByteBuffer.wrap(message));
+            }
+
+            sent[1] += message.length;
+
+            decoder.readFrom(new ByteArrayInputStream(message));
+
+            return decoder.next(protocol).length();
+        }));
+
+        printWireBytes("compression.chat[" + name + "]", sent[1], sent[0]);
+    }
+
+    private static void history(String name, Protocol protocol, boolean compressed) throws InterruptedException {
+        // Как MessageHistory.encode: номер и сообщение для каждого из последних HISTORY сообщений комнаты.
+        ByteBuffer history = ByteBuffer.allocate(64 * 1024);
+        byte[] room = "dev".getBytes(StandardCharsets.UTF_8);
+
+        for (int i = 0; i < HISTORY; i++) {
+            if (protocol == Protocol.BINARY) {
+                Frame.encodeSequence(history, i + 1, room);
+                history.put(FRAMES[i]);
+            } else {
+                history.put(LINES[i]);
+            }
+        }
+
+        history.flip();
+
+        long[] sent = new long[2];
+
+        Bench.run("compression.history[" + name + "]", new Bench.Role("history", 1, () -> {
+            byte[] bytes;
+
+            // У каждого клиента своё соединение, поэтому и свой поток сжатия.
+            if (compressed) {
+                FrameCompressor compressor = new FrameCompressor(Settings.DEFAULT_COMPRESSION_THRESHOLD);
+
+                bytes = compressor.compress(history);
+
+                compressor.end();
+            } else {
+                bytes = new byte[history.remaining()];
+
+                history.get(history.position(), bytes);
+            }
+
+            sent[0] += HISTORY;
+            sent[1] += bytes.length;
+
+            MessageDecoder decoder = new MessageDecoder(LineDecoder.DEFAULT_MAX_LINE_LENGTH);
+            ByteArrayInputStream input = new ByteArrayInputStream(bytes);
+            long length = 0;
+
+            while (decoder.readFrom(input)) {
+            }
+
+            for (int i = 0; i < HISTORY; i++) {
+                length += decoder.next(protocol).length();
+            }
+
+            return length;
+        }));
+
+        printWireBytes("compression.history[" + name + "]", sent[1], sent[0]);
+    }
+
+    private static void printWireBytes(String name, long bytes, long messages) {
+        System.out.printf("%-48s wire %.1f bytes per message%n", name, bytes / (double) Math.max(1, messages));
+    }
+}
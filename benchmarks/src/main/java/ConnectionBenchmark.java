@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+
+/*
+Обмен сообщениями через SocketClientConnection по loopback-соединению - так, как с клиентом
+работают движки THREADS и VIRTUAL_THREADS.
+
+send[<протокол>]      - сервер ставит сообщения в очередь клиента (политика BLOCK, чтобы очередь
+                        не теряла сообщения), писатель отправляет их в сокет, клиент всё вычитывает;
+receive[<протокол>]   - клиент непрерывно шлёт сообщения, сервер разбирает их receive();
+roundtrip[<протокол>] - сервер отправляет сообщение, клиент возвращает те же байты, сервер
+                        дожидается ответа. Одна операция - полный круг.
+*/
+public class ConnectionBenchmark {
+    private static final String MESSAGE = "user42: hello everyone, this is a benchmark message";
+    private static final int QUEUE_CAPACITY = 1024;
+
+    // Два конца loopback-соединения: серверное подключение и сокет клиента.
+    // Закрывается явно, а не try-with-resources: после закрытия бенчмарк ещё дожидается потока клиента.
+    private static class Loopback {
+        final SocketClientConnection server;
+        final Socket client;
+        final Thread writer;
+
+        Loopback(Protocol protocol) throws IOException {
+            try (ServerSocketChannel listener = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0))) {
+                client = new Socket("127.0.0.1", ((InetSocketAddress) listener.getLocalAddress()).getPort());
+
+                server = new SocketClientConnection(
+                        listener.accept().socket(),
+                        QUEUE_CAPACITY,
+                        Settings.OverflowPolicy.BLOCK,
+                        LineDecoder.DEFAULT_MAX_LINE_LENGTH,
+                        ServerMetrics.DISABLED
+                );
+            }
+
+            client.setTcpNoDelay(true);
+            server.protocol = protocol;
+
+            writer = new Thread(server::writeMessages, "connection-writer");
+            writer.start();
+        }
+
+        void close() throws IOException, InterruptedException {
+            server.close();
+            client.close();
+            writer.join();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (Protocol protocol : Protocol.values()) {
+            send(protocol);
+            receive(protocol);
+            roundtrip(protocol);
+        }
+    }
+
+    private static void send(Protocol protocol) throws Exception {
+        EncodedMessage message = EncodedMessage.encode(protocol, 42, MESSAGE, null);
+
+        Loopback loopback = new Loopback(protocol);
+        Thread reader = background(() -> {
+            InputStream input = loopback.client.getInputStream();
+            byte[] buffer = new byte[64 * 1024];
+
+            while (input.read(buffer) != -1) {
+                // Только вычитываем.
+            }
+
+            return 0;
+        });
+
+        try {
+            Bench.run("connection.send[" + protocol + "]", new Bench.Role("send", 1, () -> {
+                loopback.server.send(message);
+
+                return 1;
+            }));
+        } finally {
+            loopback.close();
+            reader.join();
+        }
+    }
+
+    private static void receive(Protocol protocol) throws Exception {
+        EncodedMessage message = EncodedMessage.encode(protocol, 0, MESSAGE, null);
+        byte[] batch = new byte[message.length() * 1000];
+
+        for (int i = 0; i < 1000; i++) {
+            message.content().get(batch, i * message.length(), message.length());
+        }
+
+        Loopback loopback = new Loopback(protocol);
+        Thread writer = background(() -> {
+            OutputStream output = loopback.client.getOutputStream();
+
+            while (true) {
+                output.write(batch);
+            }
+        });
+
+        try {
+            Bench.run("connection.receive[" + protocol + "]", new Bench.Role("receive", 1, () -> loopback.server.receive().length()));
+        } finally {
+            loopback.close();
+            writer.join();
+        }
+    }
+
+    private static void roundtrip(Protocol protocol) throws Exception {
+        EncodedMessage message = EncodedMessage.encode(protocol, 0, MESSAGE, null);
+
+        Loopback loopback = new Loopback(protocol);
+        Thread echo = background(() -> loopback.client.getInputStream().transferTo(loopback.client.getOutputStream()));
+
+        try {
+            Bench.run("connection.roundtrip[" + protocol + "]", new Bench.Role("roundtrip", 1, () -> {
+                loopback.server.send(message);
+
+                return loopback.server.receive().length();
+            }));
+        } finally {
+            loopback.close();
+            echo.join();
+        }
+    }
+
+    // Запускает вспомогательный поток клиента, который работает до закрытия соединения.
+    private static Thread background(Bench.Operation body) {
+        Thread thread = new Thread(() -> {
+            try {
+                body.run();
+            } catch (Exception ignored) {
+                // Соединение закрыто в конце бенчмарка.
+            }
+        }, "loopback-client");
+
+        thread.start();
+
+        return thread;
+    }
+}
@@ -0,0 +1,117 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Рассылка сообщения комнате через поток рассылки BroadcastShard, как её делает ChatServer.
+
+fanout[<получателей>] - одна операция: сообщение отправляется в комнату с заданным числом
+участников, и бенчмарк дожидается, пока оно окажется в очередях всех получателей. Получатели -
+подключения без сокета, сразу отпускающие сообщение, так что измеряется работа самого сервера:
+очередь шарда, кодирование, раскладывание по очередям клиентов и пул буферов.
+Половина получателей пользуется двоичным протоколом, половина - текстовым. Метрики сервера включены,
+как и на работающем сервере (сравнение с выключенными - в MetricsBenchmark).
+
+burst[<пачка>] - одна операция: BURST сообщений подряд в комнату из BURST_RECIPIENTS участников, шард
+разбирает очередь пачками не больше заданной (1 - по одному событию, как без пакетной обработки).
+Здесь пробуждение получателя ничего не стоит, так что время операции показывает только цену самой
+пакетной обработки. Выигрыш виден в строке wake-ups, которую бенчмарк печатает следом: сколько раз
+в среднем будился писатель получателя на одно сообщение. У настоящего подключения каждое
+пробуждение - это отдельная запись в сокет.
+*/
+public class FanoutBenchmark {
+    private static final String ROOM = "general";
+    private static final String MESSAGE = "user42: hello everyone, this is a benchmark message";
+    private static final int BURST = 32;
+    private static final int BURST_RECIPIENTS = 100;
+
+    // Получатель, который считает доставленные ему сообщения и сразу их отпускает.
+    private static class CountingConnection extends ClientConnection {
+        private final AtomicLong delivered;
+        private final AtomicLong wakeUps;
+
+        CountingConnection(AtomicLong delivered, AtomicLong wakeUps, int capacity, Protocol protocol, ServerMetrics metrics) {
+            super(capacity, Settings.OverflowPolicy.DROP_OLDEST, metrics);
+
+            this.delivered = delivered;
+            this.wakeUps = wakeUps;
+            this.protocol = protocol;
+        }
+
+        @Override
+        protected void messageQueued() {
+            wakeUps.incrementAndGet();
+
+            for (EncodedMessage message = pollOutgoing(); message != null; message = pollOutgoing()) {
+                message.release();
+
+                delivered.incrementAndGet();
+            }
+        }
+
+        @Override
+        protected void requestDisconnect() {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int recipients : new int[]{10, 100, 1000}) {
+            fanout("broadcast.fanout[" + recipients + "]", recipients, new ServerMetrics(true));
+        }
+
+        for (int batchSize : new int[]{1, Settings.DEFAULT_BROADCAST_BATCH_SIZE}) {
+            fanout("broadcast.burst[" + batchSize + "]", BURST_RECIPIENTS, BURST, batchSize, new ServerMetrics(true));
+        }
+    }
+
+    static void fanout(String name, int recipients, ServerMetrics metrics) throws Exception {
+        fanout(name, recipients, 1, Settings.DEFAULT_BROADCAST_BATCH_SIZE, metrics);
+    }
+
+    // Каждая операция - burst сообщений подряд; очереди получателей вмещают их все.
+    private static void fanout(String name, int recipients, int burst, int batchSize, ServerMetrics metrics) throws Exception {
+        AtomicLong delivered = new AtomicLong();
+        AtomicLong wakeUps = new AtomicLong();
+        BroadcastShard shard = new BroadcastShard(
+                new ClientRegistry(),
+                new BufferPool(1024, 4096),
+                0,
+                0,
+                0,
+                Integer.MAX_VALUE,
+                batchSize,
+                0,
+                null,
+                new AtomicLong(),
+                metrics,
+                "broadcast"
+        );
+        ClientConnection sender = new IdleConnection();
+
+        shard.start();
+        shard.join(sender, ROOM, 0);
+
+        for (int i = 0; i < recipients; i++) {
+            shard.join(new CountingConnection(delivered, wakeUps, burst, i % 2 == 0 ? Protocol.BINARY : Protocol.LINES, metrics), ROOM, 0);
+        }
+
+        Bench.run(name, new Bench.Role("broadcast", 1, () -> {
+            long expected = delivered.get() + (long) recipients * burst;
+
+            for (int i = 0; i < burst; i++) {
+                shard.send(ROOM, sender, MESSAGE);
+            }
+
+            while (delivered.get() < expected) {
+                Thread.onSpinWait();
+            }
+
+            return recipients * burst;
+        }));
+
+        shard.stop();
+        shard.join();
+
+        if (burst > 1) {
+            System.out.printf("%-48s wake-ups %.2f per message%n", name, wakeUps.get() / (double) Math.max(1, delivered.get()));
+        }
+    }
+}
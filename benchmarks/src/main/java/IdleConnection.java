@@ -0,0 +1,15 @@
+// Подключение-заглушка без сокета: принимает сообщения в очередь и ничего не отправляет.
+// Нужно бенчмаркам, которым важна только работа сервера с коллекцией клиентов.
+public class IdleConnection extends ClientConnection {
+    public IdleConnection() {
+        super(1, Settings.OverflowPolicy.DROP_OLDEST, ServerMetrics.DISABLED);
+    }
+
+    @Override
+    protected void messageQueued() {
+    }
+
+    @Override
+    protected void requestDisconnect() {
+    }
+}
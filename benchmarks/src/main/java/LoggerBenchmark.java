@@ -0,0 +1,89 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/*
+Стоимость одной записи в лог - пропускная способность и выделенная память на запись (B/op).
+
+String.format - прежний логгер: String.format поверх LocalDateTime и PrintWriter с автосбросом;
+sync          - Logger в синхронном режиме, вызов info с двумя аргументами, как у сообщений чата;
+async         - то же в асинхронном режиме (меряется поток, пишущий в лог, а не поток записи в файл);
+segmented     - синхронный режим с записью в файл сегментами (см. SegmentFileAppender);
+disabled      - debug при уровне INFO: запись отбрасывается проверкой уровня.
+Аргументы - заранее созданные строки, чтобы мерить логгер, а не построение сообщения.
+*/
+public class LoggerBenchmark {
+    private static final int THREADS = Integer.getInteger("bench.loggerThreads", 1);
+    private static final String NICKNAME = "alice";
+    private static final String MESSAGE = "hello everyone, how are you doing today?";
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("logger-benchmark");
+
+        try {
+            legacy(directory.resolve("legacy.txt"));
+            logger("sync", directory.resolve("sync.txt"), false, false);
+            logger("async", directory.resolve("async.txt"), true, false);
+            logger("segmented", directory.resolve("segmented.txt"), false, true);
+            disabled(directory.resolve("disabled.txt"));
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+
+            Files.delete(directory);
+        }
+    }
+
+    private static void legacy(Path file) throws IOException, InterruptedException {
+        DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss");
+
+        try (PrintWriter output = new PrintWriter(new FileWriter(file.toString(), true), true)) {
+            Bench.run("logger[String.format]", new Bench.Role("log", THREADS, () -> {
+                String message = String.format(
+                        "[%s] %s",
+                        LocalDateTime.now().format(dateFormat),
+                        String.format("%s: %s", NICKNAME, MESSAGE)
+                );
+
+                synchronized (output) {
+                    output.println(message);
+                }
+
+                return 1;
+            }));
+        }
+    }
+
+    private static void logger(String name, Path file, boolean async, boolean segmented)
+            throws IOException, InterruptedException {
+        LoggerSettings settings = new LoggerSettings(file.toString(), false);
+        settings.async = async;
+        settings.segmented = segmented;
+        settings.compressArchives = false;
+
+        try (Logger logger = new Logger(settings)) {
+            Bench.run("logger[" + name + "]", new Bench.Role("info", THREADS, () -> {
+                logger.info("%s: %s", NICKNAME, MESSAGE);
+
+                return 1;
+            }));
+        }
+    }
+
+    private static void disabled(Path file) throws IOException, InterruptedException {
+        try (Logger logger = new Logger(file.toString(), false)) {
+            Bench.run("logger[disabled]", new Bench.Role("debug", THREADS, () -> {
+                logger.debug("%s: %s", NICKNAME, MESSAGE);
+
+                return 1;
+            }));
+        }
+    }
+}
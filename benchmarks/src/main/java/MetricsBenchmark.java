@@ -0,0 +1,34 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Цена метрик сервера (см. ServerMetrics).
+
+counter[<вид>]   - все потоки увеличивают один общий счётчик: LongAdder, как в метриках, и AtomicLong;
+histogram        - все потоки пишут замеры времени в одну LatencyHistogram;
+fanout[<метрики>] - рассылка комнате из FANOUT_RECIPIENTS участников (как в FanoutBenchmark)
+                   с выключенными и включёнными метриками - накладные расходы на горячем пути сервера.
+*/
+public class MetricsBenchmark {
+    private static final int THREADS = Integer.getInteger("bench.threads", Runtime.getRuntime().availableProcessors());
+    private static final int FANOUT_RECIPIENTS = 100;
+
+    public static void main(String[] args) throws Exception {
+        AtomicLong atomic = new AtomicLong();
+        ServerMetrics metrics = new ServerMetrics(true);
+
+        Bench.run("metrics.counter[AtomicLong]", new Bench.Role("increment", THREADS, atomic::incrementAndGet));
+        Bench.run("metrics.counter[LongAdder]", new Bench.Role("increment", THREADS, () -> {
+            metrics.messageReceived();
+
+            return 1;
+        }));
+        Bench.run("metrics.histogram", new Bench.Role("record", THREADS, () -> {
+            metrics.broadcastFinished(metrics.startTimer());
+
+            return 1;
+        }));
+
+        FanoutBenchmark.fanout("metrics.fanout[disabled]", FANOUT_RECIPIENTS, ServerMetrics.DISABLED);
+        FanoutBenchmark.fanout("metrics.fanout[enabled]", FANOUT_RECIPIENTS, new ServerMetrics(true));
+    }
+}
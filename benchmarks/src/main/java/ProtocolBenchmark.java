@@ -0,0 +1,85 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+/*
+Скорость разбора входящих сообщений в текстовом и двоичном протоколах.
+
+Одна операция - разбор пачки из MESSAGES сообщений чата, заранее закодированных в памяти:
+lines[Scanner]          - строки через Scanner.nextLine, как прежде читали сервер и клиент;
+lines[LineDecoder]      - строки LineDecoder из буфера, как их теперь разбирают сервер и клиент;
+frames[ByteBuffer]      - кадры Frame.decode из буфера, как их разбирает движок NIO;
+frames[DataInputStream] - кадры Frame.read из буферизованного потока, как их читают движки с потоками.
+*/
+public class ProtocolBenchmark {
+    private static final int MESSAGES = 1000;
+
+    public static void main(String[] args) throws Exception {
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+
+        for (int i = 0; i < MESSAGES; i++) {
+            String message = "user" + (i % 100) + ": hello everyone, this is message number " + i;
+
+            lines.write((message + "\n").getBytes(StandardCharsets.UTF_8));
+            frames.write(Frame.encode(Frame.TEXT, i % 100, message));
+        }
+
+        byte[] linesBytes = lines.toByteArray();
+        byte[] framesBytes = frames.toByteArray();
+
+        Bench.run("protocol.parse[lines:Scanner]", new Bench.Role("batch", 1, () -> {
+            Scanner scanner = new Scanner(new ByteArrayInputStream(linesBytes), StandardCharsets.UTF_8);
+            long length = 0;
+
+            for (int i = 0; i < MESSAGES; i++) {
+                length += scanner.nextLine().length();
+            }
+
+            return length;
+        }));
+
+        LineDecoder lineDecoder = new LineDecoder(LineDecoder.DEFAULT_MAX_LINE_LENGTH);
+
+        Bench.run("protocol.parse[lines:LineDecoder]", new Bench.Role("batch", 1, () -> {
+            ByteBuffer buffer = ByteBuffer.wrap(linesBytes);
+            long length = 0;
+
+            for (String line = lineDecoder.decode(buffer); line != null; line = lineDecoder.decode(buffer)) {
+                length += line.length();
+            }
+
+            return length;
+        }));
+
+        Frame frame = new Frame();
+
+        Bench.run("protocol.parse[frames:ByteBuffer]", new Bench.Role("batch", 1, () -> {
+            ByteBuffer buffer = ByteBuffer.wrap(framesBytes);
+            long length = 0;
+
+            while (frame.decode(buffer)) {
+                length += frame.payload.length();
+            }
+
+            return length;
+        }));
+
+        Bench.run("protocol.parse[frames:DataInputStream]", new Bench.Role("batch", 1, () -> {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new ByteArrayInputStream(framesBytes)));
+            long length = 0;
+
+            for (int i = 0; i < MESSAGES; i++) {
+                frame.read(input);
+
+                length += frame.payload.length();
+            }
+
+            return length;
+        }));
+    }
+}
@@ -0,0 +1,174 @@
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+Сравнивает реестр клиентов ClientRegistry с прежней коллекцией - HashSet под synchronized.
+
+churn     - потоки непрерывно добавляют и удаляют каждый своего клиента (присоединение и выход);
+broadcast - поток рассылки перебирает CLIENTS клиентов, пока CHURN_THREADS потоков добавляют
+            и удаляют своих. Для рассылки одна операция - один полный перебор;
+find      - поиск получателя личного сообщения по никнейму среди CLIENTS клиентов: перебором
+            коллекции и по индексу никнеймов ClientRegistry.
+*/
+public class RegistryBenchmark {
+    private static final int CLIENTS = 1000;
+    private static final int CHURN_THREADS = Integer.getInteger("bench.churnThreads", 4);
+
+    // Общий интерфейс сравниваемых коллекций - ровно то, что нужно серверу.
+    private interface Registry {
+        void add(ClientConnection client);
+
+        void remove(ClientConnection client);
+
+        // Перебирает всех клиентов, кроме отправителя, как это делает ChatServer.broadcastMessages.
+        long forEachExcept(ClientConnection sender);
+
+        ClientConnection find(String nickname);
+    }
+
+    private static class SynchronizedSetRegistry implements Registry {
+        private final Set<ClientConnection> clients = new HashSet<>();
+
+        @Override
+        public void add(ClientConnection client) {
+            synchronized (clients) {
+                clients.add(client);
+            }
+        }
+
+        @Override
+        public void remove(ClientConnection client) {
+            synchronized (clients) {
+                clients.remove(client);
+            }
+        }
+
+        @Override
+        public long forEachExcept(ClientConnection sender) {
+            long visited = 0;
+
+            synchronized (clients) {
+                for (ClientConnection client : clients) {
+                    if (!client.equals(sender)) {
+                        visited++;
+                    }
+                }
+            }
+
+            return visited;
+        }
+
+        @Override
+        public ClientConnection find(String nickname) {
+            synchronized (clients) {
+                for (ClientConnection client : clients) {
+                    if (nickname.equals(client.nickname)) {
+                        return client;
+                    }
+                }
+            }
+
+            return null;
+        }
+    }
+
+    private static class ConcurrentRegistry implements Registry {
+        private final ClientRegistry clients = new ClientRegistry();
+
+        @Override
+        public void add(ClientConnection client) {
+            clients.add(client);
+        }
+
+        @Override
+        public void remove(ClientConnection client) {
+            clients.remove(client);
+        }
+
+        @Override
+        public long forEachExcept(ClientConnection sender) {
+            long visited = 0;
+
+            for (ClientConnection client : clients.snapshot()) {
+                if (!client.equals(sender)) {
+                    visited++;
+                }
+            }
+
+            return visited;
+        }
+
+        @Override
+        public ClientConnection find(String nickname) {
+            return clients.find(nickname);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        churn("HashSet+synchronized", new SynchronizedSetRegistry());
+        churn("ClientRegistry", new ConcurrentRegistry());
+
+        broadcast("HashSet+synchronized", new SynchronizedSetRegistry());
+        broadcast("ClientRegistry", new ConcurrentRegistry());
+
+        find("HashSet+synchronized", new SynchronizedSetRegistry());
+        find("ClientRegistry", new ConcurrentRegistry());
+    }
+
+    private static void churn(String name, Registry registry) throws InterruptedException {
+        Bench.run(
+                "registry.churn[" + name + "]",
+                new Bench.Role("join+leave", CHURN_THREADS, joinAndLeave(registry))
+        );
+    }
+
+    private static void broadcast(String name, Registry registry) throws InterruptedException {
+        for (int i = 0; i < CLIENTS; i++) {
+            registry.add(new IdleConnection());
+        }
+
+        ClientConnection sender = new IdleConnection();
+
+        registry.add(sender);
+
+        Bench.run(
+                "registry.broadcast[" + name + "]",
+                new Bench.Role("broadcast", 1, () -> registry.forEachExcept(sender)),
+                new Bench.Role("join+leave", CHURN_THREADS, joinAndLeave(registry))
+        );
+    }
+
+    private static void find(String name, Registry registry) throws InterruptedException {
+        String[] nicknames = new String[CLIENTS];
+
+        for (int i = 0; i < CLIENTS; i++) {
+            ClientConnection client = new IdleConnection();
+
+            client.nickname = nicknames[i] = "user" + i;
+
+            registry.add(client);
+        }
+
+        // Ищет один поток, так что счётчик общий.
+        int[] next = {0};
+
+        Bench.run(
+                "registry.find[" + name + "]",
+                new Bench.Role("find", 1, () -> registry.find(nicknames[next[0]++ % CLIENTS]) != null ? 1 : 0)
+        );
+    }
+
+    // Операция для потоков, имитирующих присоединение и выход клиентов. У каждого потока свой клиент.
+    private static Bench.Operation joinAndLeave(Registry registry) {
+        ThreadLocal<ClientConnection> own = ThreadLocal.withInitial(IdleConnection::new);
+
+        return () -> {
+            ClientConnection client = own.get();
+
+            registry.add(client);
+            registry.remove(client);
+
+            return 1;
+        };
+    }
+}
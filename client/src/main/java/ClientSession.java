@@ -0,0 +1,61 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Что клиенту нужно, чтобы после обрыва соединения продолжить работу в чате, а не входить заново:
+никнейм, сессия, выданная сервером по команде "/session", и номера последних полученных сообщений
+комнат (см. Frame.SEQUENCE). Переподключившись, клиент отправляет resumeRequest() вместо никнейма,
+и сервер присылает только пропущенные сообщения.
+ */
+public class ClientSession {
+    private volatile String nickname;
+    private volatile String token;
+    // Сервер принял никнейм.
+    private volatile boolean joined;
+    private final Map<String, Long> lastSequences = new ConcurrentHashMap<>();
+
+    public String nickname() {
+        return nickname;
+    }
+
+    public void setNickname(String nickname) {
+        this.nickname = nickname;
+    }
+
+    // Никнейм отправлен, но сервер ещё не подтвердил вход.
+    public boolean isJoining() {
+        return nickname != null && !joined;
+    }
+
+    public void setJoined(boolean joined) {
+        this.joined = joined;
+    }
+
+    // Сессия, null - если сервер её ещё не выдал или она истекла.
+    public String token() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    // Запоминает номер полученного сообщения комнаты.
+    public void received(String room, long sequence) {
+        lastSequences.merge(room, sequence, Math::max);
+    }
+
+    // Сессия истекла: комнаты и номера сообщений больше не нужны.
+    public void expire() {
+        token = null;
+        joined = false;
+        lastSequences.clear();
+    }
+
+    // Запрос продолжения сессии: "/resume <сессия> <комната>=<номер> ...".
+    public String resumeRequest() {
+        StringBuilder request = new StringBuilder("/resume ").append(token);
+        lastSequences.forEach((room, sequence) -> request.append(' ').append(room).append('=').append(sequence));
+        return request.toString();
+    }
+}
@@ -0,0 +1,315 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+Генератор нагрузки: вместо консоли подключает к серверу много пользователей по тем же правилам, что и
+Main (ServerConnection), рассылает от их имени сообщения с заданной частотой и меряет, сколько сообщений
+в секунду доходит до остальных участников комнаты и с какой задержкой.
+
+Запуск: gradle :client:loadTest --args="users=2000 rate=500 seconds=30"
+Адрес сервера и протокол берутся из client_settings.json. Параметры (в скобках - по умолчанию):
+users (1000)        - число пользователей, у каждого своё соединение и виртуальный поток чтения;
+rate (100)          - сообщений в секунду от всех пользователей вместе, отправители идут по кругу;
+seconds (30)        - длительность замера;
+warmupSeconds (5)   - разогрев перед замером, его сообщения в статистику не попадают;
+rooms (1)           - пользователи делятся поровну между комнатами load-0 ... load-<rooms-1>,
+                      при 1 все остаются в общей комнате;
+drainSeconds (5)    - сколько после окончания ждать сообщений, ещё не дошедших до получателей.
+
+Сообщение - "ping <номер запуска> <время>", где время - момент по System.nanoTime(), в который сообщение
+должно было уйти по расписанию. Задержка считается от него, а не от фактической отправки: если отправка
+затормозила, это тоже задержка для пользователя, и она не выпадает из статистики (coordinated omission).
+Часы общие, потому что отправители и получатели живут в одном процессе.
+ */
+public class LoadGenerator {
+    public static final int DEFAULT_USERS = 1000;
+    public static final int DEFAULT_RATE = 100;
+    public static final int DEFAULT_SECONDS = 30;
+    public static final int DEFAULT_WARMUP_SECONDS = 5;
+    public static final int DEFAULT_ROOMS = 1;
+    public static final int DEFAULT_DRAIN_SECONDS = 5;
+
+    private static final String PING = "ping ";
+
+    private final Settings settings;
+    private final int users;
+    private final int rate;
+    private final int seconds;
+    private final int warmupSeconds;
+    private final int rooms;
+    private final int drainSeconds;
+
+    private final String runId = Long.toString(ThreadLocalRandom.current().nextLong(1L << 40), 36);
+    private final List<User> connected = new ArrayList<>();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder expected = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    // Сообщения, отправленные по расписанию раньше этого момента, относятся к разогреву.
+    private volatile long measuredFromNanos = Long.MAX_VALUE;
+
+    // Пользователь: соединение и поток, читающий из него.
+    private class User {
+        final int index;
+        final String nickname;
+        final String room;
+        final ServerConnection connection;
+        final CountDownLatch ready = new CountDownLatch(1);
+        Thread reader;
+
+        User(int index) throws IOException {
+            this.index = index;
+            nickname = "load" + runId + "-" + index;
+            room = rooms > 1 ? "load-" + index % rooms : null;
+            connection = new ServerConnection(settings.serverIp, settings.serverPort);
+        }
+
+        void join() throws IOException {
+            connection.hello();
+
+            if (settings.protocol == Protocol.BINARY && connection.requestBinary() != null) {
+                throw new IOException("server does not support binary protocol");
+            }
+
+            connection.send(nickname);
+
+            if (room != null) {
+                connection.send("/join " + room);
+            }
+
+            reader = Thread.ofVirtual().name(nickname).start(this::read);
+        }
+
+        private void read() {
+            // Пользователь готов, когда сервер подтвердил вход в его комнату.
+            String confirmation = room == null ? nickname + " joined chat" : "you are in room " + room;
+
+            try {
+                for (String message = connection.receive(); message != null; message = connection.receive()) {
+                    if (ready.getCount() > 0 && message.equals(confirmation)) {
+                        ready.countDown();
+                    } else {
+                        received(message);
+                    }
+                }
+            } catch (IOException ignored) {
+                // Соединение закрыто в конце замера.
+            }
+        }
+    }
+
+    LoadGenerator(Settings settings, int users, int rate, int seconds, int warmupSeconds, int rooms, int drainSeconds) {
+        this.settings = settings;
+        this.users = users;
+        this.rate = rate;
+        this.seconds = seconds;
+        this.warmupSeconds = warmupSeconds;
+        this.rooms = Math.max(1, Math.min(rooms, users));
+        this.drainSeconds = drainSeconds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings;
+
+        try {
+            settings = Settings.readForm(Main.SETTINGS_FILE_PATH);
+        } catch (IOException ex) {
+            settings = new Settings();
+        }
+
+        int users = DEFAULT_USERS;
+        int rate = DEFAULT_RATE;
+        int seconds = DEFAULT_SECONDS;
+        int warmupSeconds = DEFAULT_WARMUP_SECONDS;
+        int rooms = DEFAULT_ROOMS;
+        int drainSeconds = DEFAULT_DRAIN_SECONDS;
+
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            String name = separator < 0 ? arg : arg.substring(0, separator);
+            int value;
+
+            try {
+                value = Integer.parseInt(arg.substring(separator + 1));
+            } catch (NumberFormatException ex) {
+                System.out.printf("expected <name>=<number>, got '%s'\n", arg);
+                return;
+            }
+
+            switch (name) {
+                case "users" -> users = value;
+                case "rate" -> rate = value;
+                case "seconds" -> seconds = value;
+                case "warmupSeconds" -> warmupSeconds = value;
+                case "rooms" -> rooms = value;
+                case "drainSeconds" -> drainSeconds = value;
+                default -> {
+                    System.out.printf("unknown parameter '%s'\n", name);
+                    return;
+                }
+            }
+        }
+
+        if (users < 2 || rate < 1 || seconds < 1) {
+            System.out.println("need at least 2 users, rate and seconds of at least 1");
+            return;
+        }
+
+        new LoadGenerator(settings, users, rate, seconds, warmupSeconds, rooms, drainSeconds).run();
+    }
+
+    void run() throws Exception {
+        System.out.printf("connecting %d users to %s:%d\n", users, settings.serverIp, settings.serverPort);
+
+        long connectStart = System.nanoTime();
+
+        try {
+            for (int i = 0; i < users; i++) {
+                User user = new User(i);
+
+                connected.add(user);
+
+                user.join();
+            }
+
+            for (User user : connected) {
+                if (!user.ready.await(60, TimeUnit.SECONDS)) {
+                    throw new IOException("user " + user.nickname + " has not joined in 60 seconds");
+                }
+            }
+
+            System.out.printf("%d users joined in %d ms\n", users, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart));
+
+            generate();
+            drain();
+            report();
+        } finally {
+            for (User user : connected) {
+                user.connection.close();
+            }
+
+            for (User user : connected) {
+                if (user.reader != null) {
+                    user.reader.join();
+                }
+            }
+        }
+    }
+
+    // Рассылает сообщения по расписанию: k-е сообщение уходит в момент start + k / rate.
+    private void generate() throws IOException {
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(warmupSeconds + seconds);
+        long lastDelivered = 0;
+
+        measuredFromNanos = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+
+        long nextReport = measuredFromNanos + TimeUnit.SECONDS.toNanos(1);
+
+        for (long k = 0; ; k++) {
+            long scheduled = start + k * interval;
+
+            if (scheduled >= end) {
+                break;
+            }
+
+            for (long now = System.nanoTime(); now < scheduled; now = System.nanoTime()) {
+                LockSupport.parkNanos(scheduled - now);
+            }
+
+            User sender = connected.get((int) (k % users));
+
+            sender.connection.send(PING + runId + " " + scheduled);
+
+            if (scheduled >= measuredFromNanos) {
+                sent.increment();
+                expected.add(roomSize(sender) - 1);
+            }
+
+            if (System.nanoTime() >= nextReport) {
+                long total = delivered.sum();
+
+                System.out.printf(
+                        "%d delivered/s, p99 %.3f ms\n",
+                        total - lastDelivered,
+                        latencies.percentile(99) / 1e6
+                );
+
+                lastDelivered = total;
+                nextReport += TimeUnit.SECONDS.toNanos(1);
+            }
+        }
+    }
+
+    // Ждёт, пока дойдут сообщения, ещё стоящие в очередях, но не дольше drainSeconds.
+    private void drain() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+
+        while (delivered.sum() < expected.sum() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void report() {
+        long deliveredCount = delivered.sum();
+
+        System.out.printf(
+                "%d users, %d rooms, %d messages/s for %d s: sent %d, delivered %d of %d (%d lost), %.0f delivered/s\n",
+                users,
+                rooms,
+                rate,
+                seconds,
+                sent.sum(),
+                deliveredCount,
+                expected.sum(),
+                Math.max(0, expected.sum() - deliveredCount),
+                deliveredCount / (double) seconds
+        );
+        System.out.printf(
+                "latency ms: p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f\n",
+                latencies.percentile(50) / 1e6,
+                latencies.percentile(90) / 1e6,
+                latencies.percentile(99) / 1e6,
+                latencies.percentile(99.9) / 1e6,
+                latencies.max() / 1e6
+        );
+    }
+
+    // Учитывает сообщение замера, дошедшее до получателя. Остальные сообщения (оповещения, история,
+    // сообщения других запусков) пропускаются.
+    private void received(String message) {
+        int at = message.indexOf(PING + runId + " ");
+
+        if (at < 0) {
+            return;
+        }
+
+        long scheduled;
+
+        try {
+            scheduled = Long.parseLong(message.substring(at + PING.length() + runId.length() + 1));
+        } catch (NumberFormatException ex) {
+            return;
+        }
+
+        if (scheduled >= measuredFromNanos) {
+            latencies.record(System.nanoTime() - scheduled);
+            delivered.increment();
+        }
+    }
+
+    private int roomSize(User user) {
+        if (rooms == 1) {
+            return users;
+        }
+
+        return users / rooms + (user.index % rooms < users % rooms ? 1 : 0);
+    }
+}
@@ -1,15 +1,29 @@
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.Socket;
 import java.util.Scanner;
+import java.util.concurrent.ThreadLocalRandom;
 
 /*
 Каждая строка считается отдельным сообщением. После подключения получим приветственное сообщение сервера,
 потом (первым сообщением) отправим никнейм. Далее - общаемся.
+
+Если в настройках выбран двоичный протокол, перед никнеймом запрашиваем его у сервера (см. Protocol)
+и после подтверждения обмениваемся кадрами (см. Frame). Если сервер протокол не подтвердил,
+продолжаем строками. В двоичном протоколе (если compressionEnabled) просим ещё и сжатие.
+
+Никнеймы на сервере уникальны: если никнейм занят или недопустим, сервер отвечает сообщением,
+начинающимся с "nickname ", и следующая строка снова считается никнеймом. Когда сервер подтвердил вход
+(прислал "<никнейм> joined chat"), просим у него сессию. Если соединение оборвалось не по "/exit",
+переподключаемся с растущей паузой (reconnectInitialDelayMillis, вдвое больше после каждой неудачи,
+но не больше reconnectMaxDelayMillis) и продолжаем сессию (см. ClientSession) - сервер пришлёт
+пропущенные сообщения. Если сессия уже истекла, входим в чат заново с тем же никнеймом.
  */
 
 public class Main {
-    private static final String SETTINGS_FILE_PATH = "./client/src/main/resources/client_settings.json";
+    static final String SETTINGS_FILE_PATH = "./client/src/main/resources/client_settings.json";
+
+    // Соединение с сервером; после переподключения заменяется новым.
+    private static volatile ServerConnection current;
+    private static volatile boolean exiting;
 
     public static void main(String[] args) {
         Settings s;
@@ -24,51 +38,187 @@ public class Main {
                 System.out.printf("не найден файл настроек\nне удалось записать дефолтные настройки в файл '%s'\n", SETTINGS_FILE_PATH);
             }
             return;
+        } catch (IllegalArgumentException ex) {
+            System.out.printf("ошибка в файле настроек '%s': %s\n", SETTINGS_FILE_PATH, ex.getMessage());
+            return;
         }
-
+        Settings settings = s;
         try (Logger l = new Logger(s.logFilePath, false)) {
-            try (Socket connection = new Socket(s.serverIp, s.serverPort)) {
-                PrintWriter output = new PrintWriter(connection.getOutputStream(), true);
-                Scanner input = new Scanner(connection.getInputStream());
-                l.log("connected to server %s:%d", s.serverIp, s.serverPort);
-                System.out.println("connected");
-                Thread displayingMessages = new Thread(
-                        () -> printMessagesFromServer(input, l)
-                );
-                displayingMessages.start();
-                try {
-                    Scanner keyboard = new Scanner(System.in);
-                    while (true) {
-                        String typedMessage = keyboard.nextLine();
-                        output.println(typedMessage);
-                        l.log("message '%s' sent", typedMessage);
-                        if (typedMessage.equals("/exit")) {
-                            break;
+            try {
+                current = connect(s, l, true);
+            } catch (IOException ex) {
+                System.out.printf("failed to connect to %s:%d\n", s.serverIp, s.serverPort);
+                return;
+            }
+            ClientSession session = new ClientSession();
+            Thread displayingMessages = new Thread(
+                    () -> printMessagesFromServer(settings, session, l)
+            );
+            displayingMessages.start();
+            try {
+                Scanner keyboard = new Scanner(System.in);
+                while (true) {
+                    String typedMessage = keyboard.nextLine();
+                    if (typedMessage.equals("/exit")) {
+                        exiting = true;
+                    }
+                    try {
+                        current.send(typedMessage);
+                        l.info("message '%s' sent", typedMessage);
+                        if (session.nickname() == null) {
+                            session.setNickname(typedMessage);
                         }
+                    } catch (IOException ex) {
+                        System.out.println("not connected, message is not sent");
+                        l.info("failed to send message '%s': %s", typedMessage, ex.getMessage());
+                    }
+                    if (exiting) {
+                        break;
                     }
-                } finally {
-                    displayingMessages.interrupt(); // Не работает, поток продолжает выполнение.
-                    connection.close(); // Работает, поток останавливается.
-                    displayingMessages.join();
                 }
-                System.out.println("disconnected");
-                l.log("graceful shutdown");
-            } catch (Exception ex) {
-                System.out.printf("failed to connect to %s:%d\n", s.serverIp, s.serverPort);
+            } finally {
+                exiting = true;
+                displayingMessages.interrupt(); // Прерывает паузу перед переподключением, но не чтение из сокета.
+                current.close(); // А это останавливает и чтение.
+                displayingMessages.join();
             }
+            System.out.println("disconnected");
+            l.info("graceful shutdown");
         } catch (IOException ex) {
             System.err.printf("failed to open log file '%s'", s.logFilePath);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    private static void printMessagesFromServer(Scanner input, Logger l) {
+    // Подключается к серверу, получает приветствие и согласует протокол. При первом подключении
+    // (verbose) показывает приветствие пользователю.
+    private static ServerConnection connect(Settings s, Logger l, boolean verbose) throws IOException {
+        ServerConnection connection = new ServerConnection(s.serverIp, s.serverPort);
+        try {
+            l.info("connected to server %s:%d", s.serverIp, s.serverPort);
+            if (verbose) {
+                System.out.println("connected");
+            }
+            String hello = connection.hello();
+            if (verbose) {
+                System.out.println(hello);
+            }
+            negotiate(s, connection, l);
+            return connection;
+        } catch (IOException ex) {
+            connection.close();
+            throw ex;
+        }
+    }
+
+    // Переподключается, пока не получится, и продолжает сессию (или входит заново, если её нет).
+    private static ServerConnection reconnect(Settings s, ClientSession session, Logger l) throws InterruptedException {
+        System.out.println("connection lost, reconnecting");
+        l.info("connection lost, reconnecting");
+        for (int attempt = 0; ; attempt++) {
+            Thread.sleep(reconnectDelay(s, attempt));
+            try {
+                ServerConnection connection = connect(s, l, false);
+                if (session.token() != null) {
+                    connection.send(session.resumeRequest());
+                } else if (session.nickname() != null) {
+                    session.setJoined(false);
+                    connection.send(session.nickname());
+                    System.out.println("reconnected");
+                }
+                return connection;
+            } catch (IOException ex) {
+                l.info("reconnect attempt %d failed: %s", attempt + 1, ex.getMessage());
+            }
+        }
+    }
+
+    // Пауза перед очередной попыткой: растёт вдвое до reconnectMaxDelayMillis, со случайным разбросом
+    // в пределах половины - чтобы клиенты, отключившиеся разом, не переподключались тоже разом.
+    private static long reconnectDelay(Settings s, int attempt) {
+        long delay = Math.min(s.reconnectMaxDelayMillis, s.reconnectInitialDelayMillis << Math.min(attempt, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    // Запрашивает у сервера двоичный протокол, если он выбран, а затем сжатие, если оно включено.
+    private static void negotiate(Settings s, ServerConnection connection, Logger l) throws IOException {
+        if (s.protocol != Protocol.BINARY) {
+            return;
+        }
+        String answer = connection.requestBinary();
+        if (answer != null) {
+            // Старый сервер принял запрос за никнейм - дальше только строками.
+            System.out.println(answer);
+            l.info("server does not support binary protocol, got '%s'", answer);
+            return;
+        }
+        l.info("switched to binary protocol");
+        if (!s.compressionEnabled) {
+            return;
+        }
+        answer = connection.requestCompression();
+        if (answer == null) {
+            l.info("switched to compressed frames");
+        } else {
+            l.info("server does not compress messages: '%s'", answer);
+        }
+    }
+
+    private static void printMessagesFromServer(Settings s, ClientSession session, Logger l) {
         while (true) {
+            ServerConnection connection = current;
+            String messageFromServer;
             try {
-                String lineFromServer = input.nextLine();
-                System.out.println(lineFromServer);
-                l.log("received from server: '%s'", lineFromServer);
-            } catch (Exception ignored) {
-                break;
+                messageFromServer = connection.receive();
+            } catch (Exception ex) {
+                messageFromServer = null;
+            }
+            if (messageFromServer == null) {
+                if (exiting) {
+                    break;
+                }
+                try {
+                    connection.close();
+                    current = reconnect(s, session, l);
+                } catch (InterruptedException | IOException ex) {
+                    break;
+                }
+                continue;
+            }
+            l.info("received from server: '%s'", messageFromServer);
+            if (connection.sequence() > 0) {
+                session.received(connection.sequenceRoom(), connection.sequence());
+            }
+            if (messageFromServer.startsWith("/session ")) {
+                String token = messageFromServer.substring("/session ".length());
+                if (token.equals("expired")) {
+                    System.out.println("session expired, joining chat again");
+                    session.expire();
+                    try {
+                        connection.send(session.nickname());
+                    } catch (IOException ignored) {
+                        // Соединение снова оборвалось - следующее чтение это обнаружит.
+                    }
+                } else {
+                    session.setToken(token);
+                }
+            } else if (messageFromServer.equals("/resumed")) {
+                System.out.println("reconnected");
+            } else if (session.isJoining() && messageFromServer.startsWith("nickname ")) {
+                // Никнейм не принят - следующая введённая строка будет новым никнеймом.
+                System.out.println(messageFromServer);
+                session.setNickname(null);
+            } else {
+                if (session.isJoining() && messageFromServer.equals(session.nickname() + " joined chat")) {
+                    session.setJoined(true);
+                    try {
+                        connection.send("/session");
+                    } catch (IOException ignored) {
+                        // Соединение оборвалось - следующее чтение это обнаружит.
+                    }
+                }
+                System.out.println(messageFromServer);
             }
         }
     }
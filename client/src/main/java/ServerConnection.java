@@ -0,0 +1,132 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/*
+Соединение клиента с сервером: приветствие, согласование протокола (см. Protocol), отправка и чтение
+сообщений. Им пользуются и консольный клиент (Main), и генератор нагрузки (LoadGenerator).
+
+На проверки соединения сервером (Protocol.PING) соединение отвечает само, их не видно в receive().
+
+Отправлять можно из нескольких потоков сразу, читать - из одного.
+ */
+public class ServerConnection implements Closeable {
+    private final Socket socket;
+    private final OutputStream output;
+    private final InputStream input;
+    private final MessageDecoder incoming;
+    private volatile Protocol protocol = Protocol.LINES;
+
+    // Подключается к серверу. Приветствие сервера нужно прочитать hello().
+    public ServerConnection(String ip, int port) throws IOException {
+        socket = new Socket(ip, port);
+
+        try {
+            output = new BufferedOutputStream(socket.getOutputStream());
+            input = socket.getInputStream();
+            incoming = new MessageDecoder(LineDecoder.DEFAULT_MAX_LINE_LENGTH);
+        } catch (IOException ex) {
+            socket.close();
+
+            throw ex;
+        }
+    }
+
+    public Protocol protocol() {
+        return protocol;
+    }
+
+    // Читает приветствие сервера.
+    public String hello() throws IOException {
+        String hello = receive();
+
+        if (hello == null) {
+            throw new IOException("connection closed by server");
+        }
+
+        return hello;
+    }
+
+    // Запрашивает у сервера двоичный протокол. Возвращает null, если сервер его подтвердил, иначе - ответ
+    // сервера: старый сервер принимает запрос за никнейм, и дальше общаемся строками.
+    public String requestBinary() throws IOException {
+        send(Protocol.BINARY_REQUEST);
+
+        String answer = receive();
+
+        if (Protocol.BINARY_REQUEST.equals(answer)) {
+            protocol = Protocol.BINARY;
+
+            return null;
+        }
+
+        return answer;
+    }
+
+    // Просит сервер сжимать сообщения (только после перехода на двоичный протокол). Возвращает null,
+    // если сервер согласился, иначе - его ответ. Сжатые кадры MessageDecoder распаковывает сам.
+    public String requestCompression() throws IOException {
+        send(Protocol.DEFLATE_REQUEST);
+
+        String answer = receive();
+
+        return Protocol.DEFLATE_REQUEST.equals(answer) ? null : answer;
+    }
+
+    public void send(String message) throws IOException {
+        send(Frame.TEXT, message);
+    }
+
+    // Читает следующее сообщение сервера. Возвращает null, если сервер закрыл соединение.
+    public String receive() throws IOException {
+        while (true) {
+            String message = incoming.next(protocol);
+
+            while (message == null) {
+                if (!incoming.readFrom(input)) {
+                    return null;
+                }
+
+                message = incoming.next(protocol);
+            }
+
+            if (message.equals(Protocol.PING)) {
+                send(Frame.PONG, Protocol.PONG);
+            } else if (!message.equals(Protocol.PONG)) {
+                return message;
+            }
+        }
+    }
+
+    // В двоичном протоколе отправляет кадр заданного типа (у PING и PONG он без содержимого),
+    // в текстовом - строку.
+    private void send(byte frameType, String message) throws IOException {
+        synchronized (output) {
+            if (protocol == Protocol.BINARY) {
+                output.write(Frame.encode(frameType, 0, frameType == Frame.TEXT ? message : ""));
+            } else {
+                output.write((message + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+
+            output.flush();
+        }
+    }
+
+    // Номер последнего прочитанного сообщения и его комната (см. MessageDecoder.sequence()).
+    public long sequence() {
+        return incoming.sequence();
+    }
+
+    public String sequenceRoom() {
+        return incoming.sequenceRoom();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
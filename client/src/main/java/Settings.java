@@ -1,51 +1,52 @@
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
 
 public class Settings {
     public static final String DEFAULT_SERVER_IP = "127.0.0.1";
     public static final int DEFAULT_SERVER_PORT = 4444;
     public static final String DEFAULT_LOG_FILE_PATH = "log.txt";
+    public static final Protocol DEFAULT_PROTOCOL = Protocol.BINARY;
+    public static final boolean DEFAULT_COMPRESSION_ENABLED = true;
+    public static final long DEFAULT_RECONNECT_INITIAL_DELAY_MILLIS = 200;
+    public static final long DEFAULT_RECONNECT_MAX_DELAY_MILLIS = 10_000;
 
     public String serverIp;
     public int serverPort;
     public String logFilePath;
+    // Протокол, который клиент запрашивает у сервера (см. Protocol).
+    public Protocol protocol;
+    // Просить ли у сервера сжатие сообщений (только в двоичном протоколе, см. Protocol.DEFLATE_REQUEST).
+    public boolean compressionEnabled;
+    // Пауза перед первой попыткой переподключения после обрыва соединения и предел, до которого она растёт.
+    public long reconnectInitialDelayMillis;
+    public long reconnectMaxDelayMillis;
 
     public Settings() {
         serverIp = DEFAULT_SERVER_IP;
         serverPort = DEFAULT_SERVER_PORT;
         logFilePath = DEFAULT_LOG_FILE_PATH;
+        protocol = DEFAULT_PROTOCOL;
+        compressionEnabled = DEFAULT_COMPRESSION_ENABLED;
+        reconnectInitialDelayMillis = DEFAULT_RECONNECT_INITIAL_DELAY_MILLIS;
+        reconnectMaxDelayMillis = DEFAULT_RECONNECT_MAX_DELAY_MILLIS;
     }
 
+    // Поля в порядке записи в файл (см. SettingsBinder).
+    private static final SettingsBinder<Settings> BINDER = new SettingsBinder<>(Settings::new)
+            .stringField("serverIp", s -> s.serverIp, (s, v) -> s.serverIp = v)
+            .intField("serverPort", s -> s.serverPort, (s, v) -> s.serverPort = v)
+            .stringField("logFilePath", s -> s.logFilePath, (s, v) -> s.logFilePath = v)
+            .enumField("protocol", Protocol.values(), s -> s.protocol, (s, v) -> s.protocol = v)
+            .booleanField("compressionEnabled", s -> s.compressionEnabled, (s, v) -> s.compressionEnabled = v)
+            .longField("reconnectInitialDelayMillis", s -> s.reconnectInitialDelayMillis, (s, v) -> s.reconnectInitialDelayMillis = v)
+            .longField("reconnectMaxDelayMillis", s -> s.reconnectMaxDelayMillis, (s, v) -> s.reconnectMaxDelayMillis = v);
+
+    // Читает настройки из файла (поля, которых в нём нет, - по умолчанию). Ошибка в файле - IllegalArgumentException.
     public static Settings readForm(String path) throws IOException {
-        Gson gson = new Gson();
-        String fileContent;
-
-        try (FileReader input = new FileReader(path)) {
-            StringBuilder builder = new StringBuilder();
-
-            for (int ch = input.read(); ch != -1; ch = input.read()) {
-                builder.append((char) ch);
-            }
-
-            fileContent = builder.toString();
-        }
-
-        return gson.fromJson(fileContent, Settings.class);
+        return BINDER.read(Path.of(path));
     }
 
     public static void writeTo(Settings s, String path) throws IOException {
-        Gson gson = new GsonBuilder()
-                .setPrettyPrinting()
-                .create();
-
-        String fileContent = gson.toJson(s);
-
-        try (FileWriter output = new FileWriter(path)) {
-            output.write(fileContent);
-        }
+        BINDER.write(s, Path.of(path));
     }
 }
@@ -13,6 +13,7 @@ public class SettingsTest {
         written.serverPort = 999;
         written.serverIp = "255.255.255.255";
         written.logFilePath = "example/file/path";
+        written.protocol = Protocol.LINES;
 
         Settings.writeTo(written, SETTINGS_FILE_PATH);
 
@@ -21,6 +22,7 @@ public class SettingsTest {
         Assertions.assertEquals(written.serverPort, read.serverPort);
         Assertions.assertEquals(written.logFilePath, read.logFilePath);
         Assertions.assertEquals(written.serverIp, read.serverIp);
+        Assertions.assertEquals(written.protocol, read.protocol);
 
         File f = new File(SETTINGS_FILE_PATH);
 
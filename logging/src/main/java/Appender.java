@@ -0,0 +1,12 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+// Место, куда логгер пишет готовые строки. Логгер сам гарантирует, что в каждый момент
+// appender-ом пользуется только один поток, поэтому реализациям синхронизация не нужна.
+public interface Appender extends Closeable {
+    // Дописывает строку, перевод строки добавляет сам appender.
+    void append(CharSequence line) throws IOException;
+
+    // Передаёт накопленные данные операционной системе.
+    void flush() throws IOException;
+}
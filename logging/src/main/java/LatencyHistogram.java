@@ -0,0 +1,100 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+Гистограмма задержек по образцу HdrHistogram: значения раскладываются по корзинам, ширина которых растёт
+вместе со значением, так что относительная погрешность любого перцентиля не больше 1/64 (около 1.5%)
+при фиксированном объёме памяти - 3712 счётчиков на весь диапазон long.
+
+Значения меньше 128 хранятся точно. Остальные делятся на степени двойки, и каждая степень - на 64 корзины
+одинаковой ширины. Запись - одно атомарное увеличение счётчика без блокировок, поэтому писать можно
+из любого числа потоков сразу.
+
+Ею пользуются метрики сервера (ServerMetrics) и генератор нагрузки клиента (LoadGenerator).
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 - SUB_BUCKET_BITS - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray((BUCKETS + 1) * SUB_BUCKETS);
+
+    // Записывает значение; отрицательные считаются нулём.
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(Math.max(value, 0)));
+    }
+
+    public long count() {
+        long count = 0;
+
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+
+        return count;
+    }
+
+    // Наименьшее значение, не меньше которого доля percentile (0..100) записанных значений,
+    // с точностью до ширины корзины. 0, если значений нет.
+    public long percentile(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        long count = 0;
+
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+
+            if (seen >= rank) {
+                return highestValueAt(i);
+            }
+        }
+
+        return 0;
+    }
+
+    public long max() {
+        for (int i = counts.length() - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return highestValueAt(i);
+            }
+        }
+
+        return 0;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        // Старший бит значения - на позиции SUB_BUCKET_BITS + bucket, так что value >>> bucket
+        // попадает в [SUB_BUCKETS, 2 * SUB_BUCKETS).
+        int bucket = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+
+        return bucket * SUB_BUCKETS + (int) (value >>> bucket);
+    }
+
+    // Наибольшее значение, попадающее в корзину index.
+    static long highestValueAt(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+
+        int bucket = index / SUB_BUCKETS - 1;
+        long subBucket = index - (long) bucket * SUB_BUCKETS;
+
+        return (subBucket << bucket) + (1L << bucket) - 1;
+    }
+}
@@ -0,0 +1,8 @@
+// Уровень важности записи лога. Записи ниже уровня, заданного логгеру, отбрасываются
+// до какого-либо форматирования.
+public enum Level {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR
+}
@@ -0,0 +1,69 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+
+// Кодирует строку лога вместе с переводом строки в UTF-8. Буферы переиспользуются
+// (и растут под самую длинную встретившуюся строку), поэтому кодирование не создаёт новых объектов -
+// в отличие от PrintWriter, который оборачивает каждую порцию символов в новый CharBuffer.
+class LineEncoder {
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final CharsetEncoder encoder;
+    private ByteBuffer bytes;
+    private char[] chars;
+    private CharBuffer charsView;
+
+    LineEncoder() {
+        encoder = StandardCharsets.UTF_8.newEncoder();
+        bytes = ByteBuffer.allocate(1024);
+        chars = new char[256];
+        charsView = CharBuffer.wrap(chars);
+    }
+
+    // Возвращает буфер с байтами строки, готовый к чтению. Буфер действителен до следующего вызова.
+    ByteBuffer encode(CharSequence line) {
+        int length = line.length();
+
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+            charsView = CharBuffer.wrap(chars);
+        }
+
+        if (line instanceof StringBuilder builder) {
+            builder.getChars(0, length, chars, 0);
+        } else {
+            line.toString().getChars(0, length, chars, 0);
+        }
+
+        charsView.clear().limit(length);
+        bytes.clear();
+
+        encoder.reset();
+
+        while (encoder.encode(charsView, bytes, true).isOverflow()) {
+            grow();
+        }
+
+        while (encoder.flush(bytes).isOverflow()) {
+            grow();
+        }
+
+        if (bytes.remaining() < LINE_SEPARATOR.length) {
+            grow();
+        }
+
+        bytes.put(LINE_SEPARATOR);
+
+        return bytes.flip();
+    }
+
+    private void grow() {
+        ByteBuffer larger = ByteBuffer.allocate(bytes.capacity() * 2);
+
+        bytes.flip();
+        larger.put(bytes);
+
+        bytes = larger;
+    }
+}
@@ -0,0 +1,28 @@
+// Ячейка кольцевого буфера асинхронного логгера. Ячейки создаются один раз и переиспользуются,
+// а аргументы хранятся в отдельных полях, поэтому постановка события в очередь не создаёт новых объектов.
+class LogEvent {
+    // Номер позиции, для которой ячейка свободна или заполнена (см. RingBuffer).
+    volatile long sequence;
+
+    long timestampMillis;
+    Level level;
+    String format;
+    // Аргументы передаются либо по отдельности (arg0..arg2), либо массивом args.
+    Object arg0;
+    Object arg1;
+    Object arg2;
+    Object[] args;
+    int argCount;
+
+    LogEvent(long sequence) {
+        this.sequence = sequence;
+    }
+
+    void clear() {
+        format = null;
+        arg0 = null;
+        arg1 = null;
+        arg2 = null;
+        args = null;
+    }
+}
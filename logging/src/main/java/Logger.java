@@ -1,47 +1,462 @@
 import java.io.Closeable;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
+/*
+Логгер пишет строки вида "[дата время] сообщение" в файл (и, если нужно, в стандартный вывод).
+Записи уровней, отличных от INFO, помечаются уровнем: "[дата время] WARN сообщение".
+Файл либо просто дописывается, либо (LoggerSettings.segmented) пишется сегментами ограниченного размера
+с архивированием старых (см. SegmentFileAppender).
+
+У записи есть уровень (debug/info/warn/error; устаревший log() - это info). Уровень проверяется первым делом,
+и отброшенная запись ничего не стоит, кроме этой проверки. Для вызовов с 0-3 аргументами есть
+отдельные перегрузки, которым не нужен массив аргументов. Сообщение форматируется
+MessageFormatter-ом в переиспользуемый StringBuilder, префикс со временем строится раз в секунду
+(см. TimestampCache), а строка кодируется appender-ом в его собственный буфер - так что запись
+в лог не создаёт мусора (если аргументы - строки или числа в пределах кэша упаковки).
+
+В синхронном режиме строка форматируется и пишется в файл прямо в вызове.
+В асинхронном режиме (LoggerSettings.async) вызов только кладёт уровень, формат, аргументы и время
+в кольцевой буфер (см. RingBuffer), а фоновый поток пачками форматирует события, пишет их
+в файл и сбрасывает его на диск - когда буфер опустел или раз в flushIntervalMillis.
+Поэтому задержки диска не попадают в потоки, которые пишут в лог. close() дожидается,
+пока фоновый поток допишет всё, что было поставлено в буфер до закрытия.
+
+Ошибки записи в файл, как и раньше с PrintWriter, не пробрасываются вызывающему.
+*/
 public class Logger implements Closeable {
-    private final PrintWriter output;
-    private boolean isOpen;
-    private final boolean printToStdout;
+    private final Appender output;
+    private final Appender stdout;
+    // Не synchronized, чтобы запись в файл не закрепляла виртуальные потоки за потоками-носителями.
+    // В синхронном режиме защищает appender-ы, в асинхронном ими пользуется только поток записи.
+    private final ReentrantLock outputLock;
+    private volatile boolean isOpen;
+    private volatile Level level;
+    private final TimestampCache timestamps;
+    // Буфер для форматирования строки в синхронном режиме - свой у каждого потока.
+    private final ThreadLocal<StringBuilder> lineBuilders;
+
+    // Только для асинхронного режима.
+    private final LoggerSettings settings;
+    private final RingBuffer events;
+    private final Thread eventsWriting;
+    private volatile boolean isWriterWaiting;
+    private final AtomicLong droppedEvents;
+    private final StringBuilder writerLineBuilder;
 
     public Logger(String outputFilePath, boolean printToStdout) throws IOException {
+        this(new LoggerSettings(outputFilePath, printToStdout));
+    }
+
+    public Logger(LoggerSettings settings) throws IOException {
         isOpen = true;
 
-        this.printToStdout = printToStdout;
+        this.settings = settings;
+
+        level = settings.level;
+        output = settings.segmented ? new SegmentFileAppender(settings) : StreamAppender.toFile(settings.outputFilePath);
+        stdout = settings.printToStdout ? StreamAppender.toStdout() : null;
+        outputLock = new ReentrantLock();
+        timestamps = new TimestampCache();
+        lineBuilders = ThreadLocal.withInitial(StringBuilder::new);
+
+        if (settings.async) {
+            events = new RingBuffer(settings.bufferSize);
+            droppedEvents = new AtomicLong();
+            writerLineBuilder = new StringBuilder();
+            eventsWriting = new Thread(this::writeEvents, "logger");
 
-        output = new PrintWriter(new FileWriter(outputFilePath, true), true);
+            eventsWriting.setDaemon(true);
+            eventsWriting.start();
+        } else {
+            events = null;
+            droppedEvents = null;
+            writerLineBuilder = null;
+            eventsWriting = null;
+        }
     }
 
+    public Level getLevel() {
+        return level;
+    }
+
+    // Меняет уровень на ходу.
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(this.level) >= 0;
+    }
+
+    // Прежнее имя info. Всегда передаёт аргументы массивом, поэтому вызывать лучше info - ему массив
+    // нужен только при четырёх и более аргументах.
+    @Deprecated
     public void log(String format, Object... args) {
-        String message = String.format(
-                "[%s] %s",
-                LocalDateTime.now().format(
-                        DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss")
-                ),
-                String.format(format, args)
-        );
+        info(format, args);
+    }
+
+    public void debug(String message) {
+        if (isEnabled(Level.DEBUG)) {
+            write(Level.DEBUG, message, null, null, null, null, 0);
+        }
+    }
+
+    public void debug(String format, Object arg0) {
+        if (isEnabled(Level.DEBUG)) {
+            write(Level.DEBUG, format, arg0, null, null, null, 1);
+        }
+    }
+
+    public void debug(String format, Object arg0, Object arg1) {
+        if (isEnabled(Level.DEBUG)) {
+            write(Level.DEBUG, format, arg0, arg1, null, null, 2);
+        }
+    }
+
+    public void debug(String format, Object arg0, Object arg1, Object arg2) {
+        if (isEnabled(Level.DEBUG)) {
+            write(Level.DEBUG, format, arg0, arg1, arg2, null, 3);
+        }
+    }
+
+    public void debug(String format, Object... args) {
+        if (isEnabled(Level.DEBUG)) {
+            write(Level.DEBUG, format, null, null, null, args, args.length);
+        }
+    }
+
+    public void info(String message) {
+        if (isEnabled(Level.INFO)) {
+            write(Level.INFO, message, null, null, null, null, 0);
+        }
+    }
+
+    public void info(String format, Object arg0) {
+        if (isEnabled(Level.INFO)) {
+            write(Level.INFO, format, arg0, null, null, null, 1);
+        }
+    }
+
+    public void info(String format, Object arg0, Object arg1) {
+        if (isEnabled(Level.INFO)) {
+            write(Level.INFO, format, arg0, arg1, null, null, 2);
+        }
+    }
+
+    public void info(String format, Object arg0, Object arg1, Object arg2) {
+        if (isEnabled(Level.INFO)) {
+            write(Level.INFO, format, arg0, arg1, arg2, null, 3);
+        }
+    }
+
+    public void info(String format, Object... args) {
+        if (isEnabled(Level.INFO)) {
+            write(Level.INFO, format, null, null, null, args, args.length);
+        }
+    }
+
+    public void warn(String message) {
+        if (isEnabled(Level.WARN)) {
+            write(Level.WARN, message, null, null, null, null, 0);
+        }
+    }
+
+    public void warn(String format, Object arg0) {
+        if (isEnabled(Level.WARN)) {
+            write(Level.WARN, format, arg0, null, null, null, 1);
+        }
+    }
+
+    public void warn(String format, Object arg0, Object arg1) {
+        if (isEnabled(Level.WARN)) {
+            write(Level.WARN, format, arg0, arg1, null, null, 2);
+        }
+    }
+
+    public void warn(String format, Object arg0, Object arg1, Object arg2) {
+        if (isEnabled(Level.WARN)) {
+            write(Level.WARN, format, arg0, arg1, arg2, null, 3);
+        }
+    }
+
+    public void warn(String format, Object... args) {
+        if (isEnabled(Level.WARN)) {
+            write(Level.WARN, format, null, null, null, args, args.length);
+        }
+    }
+
+    public void error(String message) {
+        if (isEnabled(Level.ERROR)) {
+            write(Level.ERROR, message, null, null, null, null, 0);
+        }
+    }
+
+    public void error(String format, Object arg0) {
+        if (isEnabled(Level.ERROR)) {
+            write(Level.ERROR, format, arg0, null, null, null, 1);
+        }
+    }
+
+    public void error(String format, Object arg0, Object arg1) {
+        if (isEnabled(Level.ERROR)) {
+            write(Level.ERROR, format, arg0, arg1, null, null, 2);
+        }
+    }
+
+    public void error(String format, Object arg0, Object arg1, Object arg2) {
+        if (isEnabled(Level.ERROR)) {
+            write(Level.ERROR, format, arg0, arg1, arg2, null, 3);
+        }
+    }
+
+    public void error(String format, Object... args) {
+        if (isEnabled(Level.ERROR)) {
+            write(Level.ERROR, format, null, null, null, args, args.length);
+        }
+    }
+
+    // Аргументы передаются либо по отдельности (arg0..arg2), либо массивом args.
+    private void write(Level level, String format, Object arg0, Object arg1, Object arg2, Object[] args, int argCount) {
+        long timestampMillis = System.currentTimeMillis();
+
+        if (events != null) {
+            enqueue(timestampMillis, level, format, arg0, arg1, arg2, args, argCount);
+
+            return;
+        }
+
+        StringBuilder line = lineBuilders.get();
+
+        line.setLength(0);
+
+        formatLine(line, timestampMillis, level, format, arg0, arg1, arg2, args, argCount);
+
+        outputLock.lock();
+
+        try {
+            if (isOpen) {
+                append(line);
+                flush();
+            }
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    private void formatLine(StringBuilder line, long timestampMillis, Level level, String format,
+                            Object arg0, Object arg1, Object arg2, Object[] args, int argCount) {
+        timestamps.appendPrefix(line, timestampMillis);
+
+        if (level != Level.INFO) {
+            line.append(level.name()).append(' ');
+        }
+
+        MessageFormatter.format(line, format, arg0, arg1, arg2, args, argCount);
+    }
+
+    private void append(CharSequence line) {
+        try {
+            output.append(line);
+
+            if (stdout != null) {
+                stdout.append(line);
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void flush() {
+        try {
+            output.flush();
+
+            if (stdout != null) {
+                stdout.flush();
+            }
+        } catch (IOException ignored) {
+        }
+    }
 
-        synchronized (this) {
-            output.println(message);
+    private void enqueue(long timestampMillis, Level level, String format,
+                         Object arg0, Object arg1, Object arg2, Object[] args, int argCount) {
+        if (!isOpen) {
+            return;
         }
 
-        if (printToStdout) {
-            System.out.println(message);
+        long position = events.tryClaim();
+
+        while (position < 0) {
+            if (!isOpen || settings.overflowPolicy == LoggerSettings.OverflowPolicy.DROP) {
+                droppedEvents.incrementAndGet();
+
+                return;
+            }
+
+            // Буфер заполнен - даём потоку записи освободить место.
+            wakeUpWriter();
+            LockSupport.parkNanos(1000);
+
+            position = events.tryClaim();
+        }
+
+        LogEvent event = events.get(position);
+
+        event.timestampMillis = timestampMillis;
+        event.level = level;
+        event.format = format;
+        event.arg0 = arg0;
+        event.arg1 = arg1;
+        event.arg2 = arg2;
+        event.args = args;
+        event.argCount = argCount;
+
+        events.publish(position);
+
+        if (isWriterWaiting) {
+            wakeUpWriter();
         }
     }
 
+    private void wakeUpWriter() {
+        LockSupport.unpark(eventsWriting);
+    }
+
+    // Поток записи асинхронного режима.
+    private void writeEvents() {
+        long lastFlushMillis = System.currentTimeMillis();
+        boolean hasUnflushed = false;
+
+        while (true) {
+            int written = writeBatch();
+
+            hasUnflushed |= written > 0;
+
+            hasUnflushed |= reportDroppedEvents();
+
+            long now = System.currentTimeMillis();
+
+            if (hasUnflushed && (written == 0 || now - lastFlushMillis >= settings.flushIntervalMillis)) {
+                flush();
+
+                hasUnflushed = false;
+                lastFlushMillis = now;
+            }
+
+            if (written > 0) {
+                continue;
+            }
+
+            if (!isOpen) {
+                if (events.isDrained()) {
+                    break;
+                }
+
+                // Кто-то занял ячейку до закрытия, но ещё не опубликовал её.
+                Thread.onSpinWait();
+
+                continue;
+            }
+
+            // Буфер пуст - засыпаем до прихода нового события. Флаг выставляется до повторной
+            // проверки, поэтому событие, опубликованное в этот момент, либо будет замечено здесь,
+            // либо его писатель увидит флаг и разбудит поток.
+            isWriterWaiting = true;
+
+            if (events.isEmpty() && isOpen) {
+                LockSupport.parkNanos(settings.flushIntervalMillis * 1_000_000);
+            }
+
+            isWriterWaiting = false;
+        }
+
+        flush();
+    }
+
+    // Форматирует и пишет не больше batchSize событий. Возвращает число записанных.
+    private int writeBatch() {
+        int written = 0;
+
+        for (LogEvent event = events.peek(); event != null && written < settings.batchSize; event = events.peek()) {
+            writerLineBuilder.setLength(0);
+
+            try {
+                formatLine(
+                        writerLineBuilder,
+                        event.timestampMillis,
+                        event.level,
+                        event.format,
+                        event.arg0,
+                        event.arg1,
+                        event.arg2,
+                        event.args,
+                        event.argCount
+                );
+            } catch (RuntimeException e) {
+                // В синхронном режиме исключение получил бы вызывающий, здесь - просто отмечаем его в логе.
+                writerLineBuilder.setLength(0);
+                formatLine(writerLineBuilder, event.timestampMillis, Level.ERROR, "failed to format log message '%s': %s",
+                        event.format, e, null, null, 2);
+            }
+
+            events.advance();
+
+            append(writerLineBuilder);
+
+            written++;
+        }
+
+        return written;
+    }
+
+    // Пишет в лог, сколько событий было выброшено из-за заполненного буфера. Возвращает true, если писал.
+    private boolean reportDroppedEvents() {
+        long dropped = droppedEvents.getAndSet(0);
+
+        if (dropped == 0) {
+            return false;
+        }
+
+        writerLineBuilder.setLength(0);
+
+        formatLine(writerLineBuilder, System.currentTimeMillis(), Level.WARN, "%d log events were dropped: buffer is full",
+                dropped, null, null, null, 1);
+
+        append(writerLineBuilder);
+
+        return true;
+    }
+
     @Override
-    public synchronized void close() {
-        if (isOpen) {
-            output.close();
+    public void close() {
+        outputLock.lock();
+
+        try {
+            if (!isOpen) {
+                return;
+            }
 
             isOpen = false;
+
+            if (eventsWriting != null) {
+                wakeUpWriter();
+
+                eventsWriting.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                output.close();
+
+                if (stdout != null) {
+                    stdout.close();
+                }
+            } catch (IOException ignored) {
+            }
+
+            outputLock.unlock();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,61 @@
+// Настройки логгера. Поля, не заданные явно, принимают значения по умолчанию.
+public class LoggerSettings {
+    // Что делать с событием, если кольцевой буфер асинхронного логгера заполнен.
+    public enum OverflowPolicy {
+        // Ждать, пока поток записи освободит место.
+        BLOCK,
+        // Выбросить событие. Число выброшенных событий периодически пишется в лог.
+        DROP
+    }
+
+    public static final Level DEFAULT_LEVEL = Level.INFO;
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.BLOCK;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 200;
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    // 0 - сегменты сменяются только по размеру.
+    public static final long DEFAULT_ROTATION_INTERVAL_MILLIS = 0;
+    public static final boolean DEFAULT_COMPRESS_ARCHIVES = true;
+    public static final int DEFAULT_MAX_ARCHIVES = 10;
+
+    public String outputFilePath;
+    public boolean printToStdout;
+    // Записи ниже этого уровня не пишутся.
+    public Level level;
+    // Писать ли лог в фоновом потоке. Иначе строка пишется в файл прямо в вызове log().
+    public boolean async;
+    // Ёмкость кольцевого буфера событий (округляется вверх до степени двойки).
+    public int bufferSize;
+    public OverflowPolicy overflowPolicy;
+    // Сколько событий поток записи форматирует и пишет за один проход.
+    public int batchSize;
+    // Как часто поток записи сбрасывает файл на диск, даже если события продолжают поступать.
+    public long flushIntervalMillis;
+    // Писать в файл сегментами, сменяя их и архивируя старые (см. SegmentFileAppender).
+    // Иначе строки дописываются в конец одного файла.
+    public boolean segmented;
+    // Размер сегмента в байтах и максимальное время записи в один сегмент.
+    public long segmentSize;
+    public long rotationIntervalMillis;
+    // Сжимать ли закрытые сегменты и сколько архивов хранить.
+    public boolean compressArchives;
+    public int maxArchives;
+
+    public LoggerSettings(String outputFilePath, boolean printToStdout) {
+        this.outputFilePath = outputFilePath;
+        this.printToStdout = printToStdout;
+
+        level = DEFAULT_LEVEL;
+        async = false;
+        bufferSize = DEFAULT_BUFFER_SIZE;
+        overflowPolicy = DEFAULT_OVERFLOW_POLICY;
+        batchSize = DEFAULT_BATCH_SIZE;
+        flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+        segmented = false;
+        segmentSize = DEFAULT_SEGMENT_SIZE;
+        rotationIntervalMillis = DEFAULT_ROTATION_INTERVAL_MILLIS;
+        compressArchives = DEFAULT_COMPRESS_ARCHIVES;
+        maxArchives = DEFAULT_MAX_ARCHIVES;
+    }
+}
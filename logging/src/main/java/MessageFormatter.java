@@ -0,0 +1,91 @@
+import java.util.MissingFormatArgumentException;
+
+// Форматирует сообщение лога прямо в StringBuilder, не создавая промежуточных строк.
+// Понимает подстановки %s и %d, а также %% и %n - этого хватает всем сообщениям проекта.
+// Если в формате встретится что-то другое, сообщение целиком форматируется через String.format.
+class MessageFormatter {
+    private MessageFormatter() {
+    }
+
+    // Аргументы передаются либо по отдельности (arg0..arg2), либо массивом args.
+    static void format(StringBuilder out, String format, Object arg0, Object arg1, Object arg2, Object[] args, int argCount) {
+        int start = out.length();
+        int nextArg = 0;
+        int length = format.length();
+
+        for (int i = 0; i < length; i++) {
+            char ch = format.charAt(i);
+
+            if (ch != '%' || i + 1 == length) {
+                out.append(ch);
+
+                continue;
+            }
+
+            char specifier = format.charAt(++i);
+
+            switch (specifier) {
+                case 's' -> appendString(out, argument(nextArg++, arg0, arg1, arg2, args, argCount));
+                case 'd' -> appendNumber(out, argument(nextArg++, arg0, arg1, arg2, args, argCount));
+                case '%' -> out.append('%');
+                case 'n' -> out.append(System.lineSeparator());
+                default -> {
+                    out.setLength(start);
+                    out.append(String.format(format, collect(arg0, arg1, arg2, args, argCount)));
+
+                    return;
+                }
+            }
+        }
+    }
+
+    private static Object argument(int index, Object arg0, Object arg1, Object arg2, Object[] args, int argCount) {
+        if (index >= argCount) {
+            // Как и String.format, не даём молча потерять подстановку.
+            throw new MissingFormatArgumentException("argument " + index);
+        }
+
+        if (args != null) {
+            return args[index];
+        }
+
+        return switch (index) {
+            case 0 -> arg0;
+            case 1 -> arg1;
+            default -> arg2;
+        };
+    }
+
+    private static void appendString(StringBuilder out, Object value) {
+        if (value instanceof CharSequence text) {
+            out.append(text);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            out.append(((Number) value).longValue());
+        } else {
+            out.append(value);
+        }
+    }
+
+    private static void appendNumber(StringBuilder out, Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            out.append(((Number) value).longValue());
+        } else {
+            // %d для прочих типов (BigInteger и т.п.) - как в String.format.
+            out.append(String.format("%d", value));
+        }
+    }
+
+    private static Object[] collect(Object arg0, Object arg1, Object arg2, Object[] args, int argCount) {
+        if (args != null) {
+            return args;
+        }
+
+        Object[] collected = new Object[argCount];
+
+        for (int i = 0; i < argCount; i++) {
+            collected[i] = i == 0 ? arg0 : i == 1 ? arg1 : arg2;
+        }
+
+        return collected;
+    }
+}
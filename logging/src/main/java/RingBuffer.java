@@ -0,0 +1,86 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Ограниченная очередь событий лога без блокировок: много писателей, один читатель.
+
+Ячейки лежат в массиве, каждая хранит номер позиции (sequence):
+- sequence == позиция - ячейка свободна, писатель, занявший эту позицию, может её заполнить;
+- sequence == позиция + 1 - ячейка заполнена и опубликована, читатель может её забрать;
+- после чтения sequence становится позиция + ёмкость - ячейка свободна для следующего круга.
+Писатели занимают позиции CAS-ом на tail, читатель двигает head без синхронизации.
+*/
+class RingBuffer {
+    private final LogEvent[] events;
+    private final int mask;
+    private final AtomicLong tail;
+    private long head;
+
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+
+        events = new LogEvent[size];
+        mask = size - 1;
+        tail = new AtomicLong();
+
+        for (int i = 0; i < size; i++) {
+            events[i] = new LogEvent(i);
+        }
+    }
+
+    // Занимает следующую позицию. Возвращает -1, если буфер заполнен.
+    long tryClaim() {
+        long position = tail.get();
+
+        while (true) {
+            long difference = events[(int) position & mask].sequence - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+
+                position = tail.get();
+            } else if (difference < 0) {
+                return -1;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    LogEvent get(long position) {
+        return events[(int) position & mask];
+    }
+
+    // Делает заполненную ячейку видимой читателю.
+    void publish(long position) {
+        events[(int) position & mask].sequence = position + 1;
+    }
+
+    // Только для читателя: следующее опубликованное событие или null, если его ещё нет.
+    LogEvent peek() {
+        LogEvent event = events[(int) head & mask];
+
+        return event.sequence == head + 1 ? event : null;
+    }
+
+    // Только для читателя: освобождает ячейку, полученную из peek().
+    void advance() {
+        LogEvent event = events[(int) head & mask];
+
+        event.clear();
+        event.sequence = head + events.length;
+
+        head++;
+    }
+
+    // Только для читателя: нет опубликованных событий.
+    boolean isEmpty() {
+        return peek() == null;
+    }
+
+    // Только для читателя: прочитаны все занятые позиции, в том числе ещё не опубликованные.
+    boolean isDrained() {
+        return head == tail.get();
+    }
+}
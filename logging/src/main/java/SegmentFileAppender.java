@@ -0,0 +1,310 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/*
+Appender, пишущий лог сегментами ограниченного размера.
+
+Файл лога (сегмент) заранее растягивается до segmentSize байт, чтобы запись не меняла размер файла.
+Строки копятся в собственном буфере appender-а и пишутся в сегмент по смещению через FileChannel -
+при заполнении буфера и при flush(), то есть в асинхронном режиме логгера одним вызовом на пачку строк.
+Отображение файла в память не используется: до Java 22 его нельзя освободить явно, а обрезать
+и переименовывать отображённый файл получается не на всех системах (например, не в Windows).
+
+Когда очередная строка не помещается в сегмент или с его начала прошло rotationIntervalMillis,
+сегмент обрезается до записанной длины, закрывается и переименовывается в архив "<файл>.<дата-время>",
+а запись продолжается в новый сегмент. Архивы в фоновом потоке сжимаются в gzip (если включено)
+и удаляются самые старые, чтобы их оставалось не больше maxArchives.
+
+Если при открытии файл уже есть (например, остался после падения с незаполненным хвостом из нулей),
+запись продолжается после последнего ненулевого байта.
+*/
+public class SegmentFileAppender implements Appender {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final DateTimeFormatter ARCHIVE_SUFFIX =
+            DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneId.systemDefault());
+    private static final String COMPRESSED_SUFFIX = ".gz";
+
+    private final Path path;
+    private final long segmentSize;
+    private final long rotationIntervalMillis;
+    private final boolean compressArchives;
+    private final int maxArchives;
+    private final LineEncoder encoder;
+    private final ByteBuffer bytes;
+    // Сжатие и удаление архивов - в отдельном потоке, чтобы не задерживать запись.
+    private final ExecutorService archiving;
+
+    private FileChannel channel;
+    // Длина сегмента вместе с ещё не записанными байтами буфера.
+    private long written;
+    private long segmentStartMillis;
+
+    public SegmentFileAppender(LoggerSettings settings) throws IOException {
+        if (settings.segmentSize <= 0) {
+            throw new IllegalArgumentException("segment size must be positive");
+        }
+
+        path = Path.of(settings.outputFilePath).toAbsolutePath();
+        segmentSize = settings.segmentSize;
+        rotationIntervalMillis = settings.rotationIntervalMillis;
+        compressArchives = settings.compressArchives;
+        maxArchives = settings.maxArchives;
+        encoder = new LineEncoder();
+        bytes = ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, segmentSize));
+        archiving = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "log-archiving");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        openSegment();
+    }
+
+    @Override
+    public void append(CharSequence line) throws IOException {
+        ByteBuffer encoded = encoder.encode(line);
+
+        // Предыдущая смена сегмента не удалась - пробуем открыть файл заново.
+        if (channel == null) {
+            openSegment();
+        }
+
+        if (rotationIntervalMillis > 0 && written > 0
+                && System.currentTimeMillis() - segmentStartMillis >= rotationIntervalMillis) {
+            rotate();
+        }
+
+        if (segmentSize - written < encoded.remaining() && written > 0) {
+            rotate();
+        }
+
+        // Строка длиннее целого сегмента разрезается по сегментам.
+        while (encoded.remaining() > segmentSize - written) {
+            put(encoded, (int) (segmentSize - written));
+
+            rotate();
+        }
+
+        put(encoded, encoded.remaining());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (channel != null) {
+            writeBytes();
+        }
+    }
+
+    // Копирует length байт строки в буфер, записывая его в сегмент по мере заполнения.
+    private void put(ByteBuffer encoded, int length) throws IOException {
+        while (length > 0) {
+            if (!bytes.hasRemaining()) {
+                writeBytes();
+            }
+
+            int chunk = Math.min(length, bytes.remaining());
+
+            bytes.put(bytes.position(), encoded, encoded.position(), chunk);
+            bytes.position(bytes.position() + chunk);
+            encoded.position(encoded.position() + chunk);
+
+            written += chunk;
+            length -= chunk;
+        }
+    }
+
+    // Пишет накопленные байты в сегмент сразу за уже записанными.
+    private void writeBytes() throws IOException {
+        bytes.flip();
+
+        long offset = written - bytes.remaining();
+
+        while (bytes.hasRemaining()) {
+            offset += channel.write(bytes, offset);
+        }
+
+        bytes.clear();
+    }
+
+    // Открывает (или создаёт) файл лога и растягивает его до размера сегмента.
+    private void openSegment() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        written = writtenLength();
+
+        if (written >= segmentSize) {
+            closeSegment();
+            archive();
+
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            written = 0;
+        }
+
+        if (channel.size() < segmentSize) {
+            channel.write(ByteBuffer.allocate(1), segmentSize - 1);
+        }
+
+        segmentStartMillis = System.currentTimeMillis();
+    }
+
+    // Длина данных в уже существующем файле: всё до последнего ненулевого байта.
+    private long writtenLength() throws IOException {
+        long size = channel.size();
+        ByteBuffer chunk = ByteBuffer.allocate(8192);
+
+        for (long end = size; end > 0; ) {
+            long start = Math.max(0, end - chunk.capacity());
+
+            chunk.clear().limit((int) (end - start));
+            channel.read(chunk, start);
+
+            for (int i = (int) (end - start) - 1; i >= 0; i--) {
+                if (chunk.get(i) != 0) {
+                    return start + i + 1;
+                }
+            }
+
+            end = start;
+        }
+
+        return 0;
+    }
+
+    private void rotate() throws IOException {
+        closeSegment();
+        archive();
+        openSegment();
+    }
+
+    // Дописывает буфер, сбрасывает сегмент на диск, обрезает файл до записанных данных и закрывает его.
+    private void closeSegment() throws IOException {
+        try (FileChannel closing = channel) {
+            writeBytes();
+
+            closing.force(false);
+            closing.truncate(written);
+        } finally {
+            channel = null;
+
+            bytes.clear();
+        }
+    }
+
+    // Переименовывает закрытый сегмент в архив и отдаёт его фоновому потоку.
+    private void archive() throws IOException {
+        String suffix = ARCHIVE_SUFFIX.format(Instant.now());
+        Path archive = path.resolveSibling(path.getFileName() + "." + suffix);
+
+        for (int i = 1; Files.exists(archive) || Files.exists(compressed(archive)); i++) {
+            archive = path.resolveSibling(path.getFileName() + "." + suffix + "-" + i);
+        }
+
+        Files.move(path, archive);
+
+        Path closed = archive;
+
+        archiving.execute(() -> {
+            if (compressArchives) {
+                compress(closed);
+            }
+
+            removeOldArchives();
+        });
+    }
+
+    private static Path compressed(Path archive) {
+        return archive.resolveSibling(archive.getFileName() + COMPRESSED_SUFFIX);
+    }
+
+    private void compress(Path archive) {
+        Path target = compressed(archive);
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try {
+            try (InputStream input = Files.newInputStream(archive);
+                 OutputStream output = new GZIPOutputStream(Files.newOutputStream(temporary))) {
+                input.transferTo(output);
+            }
+
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(archive);
+        } catch (IOException e) {
+            // Архив остаётся несжатым - это лучше, чем потерять его.
+            System.err.printf("failed to compress log archive %s: %s%n", archive, e.getMessage());
+
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // Удаляет самые старые архивы сверх maxArchives. Имена архивов упорядочены по времени.
+    private void removeOldArchives() {
+        String prefix = path.getFileName() + ".";
+        List<Path> archives = new ArrayList<>();
+
+        try (var files = Files.list(path.getParent())) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+
+                if (name.startsWith(prefix) && !name.endsWith(".tmp")) {
+                    archives.add(file);
+                }
+            }
+        } catch (IOException e) {
+            System.err.printf("failed to list log archives: %s%n", e.getMessage());
+
+            return;
+        }
+
+        // Сжатый архив стоит на месте исходного.
+        archives.sort(Comparator.comparing(file -> {
+            String name = file.getFileName().toString();
+
+            return name.endsWith(COMPRESSED_SUFFIX) ? name.substring(0, name.length() - COMPRESSED_SUFFIX.length()) : name;
+        }));
+
+        for (int i = 0; i < archives.size() - maxArchives; i++) {
+            try {
+                Files.deleteIfExists(archives.get(i));
+            } catch (IOException e) {
+                System.err.printf("failed to remove log archive %s: %s%n", archives.get(i), e.getMessage());
+            }
+        }
+    }
+
+    // Дописывает текущий сегмент и дожидается сжатия уже закрытых.
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            closeSegment();
+        }
+
+        archiving.shutdown();
+
+        try {
+            archiving.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
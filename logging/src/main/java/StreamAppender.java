@@ -0,0 +1,74 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// Appender, который кодирует строки в UTF-8 (см. LineEncoder), копит их в собственном буфере
+// и пишет в поток вывода при заполнении буфера и при flush().
+public class StreamAppender implements Appender {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream output;
+    private final boolean closeOutput;
+    private final LineEncoder encoder;
+    private final ByteBuffer bytes;
+
+    // closeOutput - закрывать ли поток вместе с appender-ом (стандартный вывод закрывать не нужно).
+    public StreamAppender(OutputStream output, boolean closeOutput) {
+        this.output = output;
+        this.closeOutput = closeOutput;
+
+        encoder = new LineEncoder();
+        bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    // Appender, дописывающий в конец файла.
+    public static StreamAppender toFile(String path) throws IOException {
+        return new StreamAppender(new FileOutputStream(path, true), true);
+    }
+
+    // Appender для стандартного вывода.
+    public static StreamAppender toStdout() {
+        return new StreamAppender(System.out, false);
+    }
+
+    @Override
+    public void append(CharSequence line) throws IOException {
+        ByteBuffer encoded = encoder.encode(line);
+
+        if (bytes.remaining() < encoded.remaining()) {
+            writeBytes();
+        }
+
+        if (bytes.remaining() < encoded.remaining()) {
+            // Строка длиннее буфера - пишем её напрямую.
+            output.write(encoded.array(), 0, encoded.limit());
+        } else {
+            bytes.put(encoded);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBytes();
+
+        output.flush();
+    }
+
+    private void writeBytes() throws IOException {
+        if (bytes.position() > 0) {
+            output.write(bytes.array(), 0, bytes.position());
+
+            bytes.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+
+        if (closeOutput) {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+// Префикс строки лога "[дата время] ". Время в логе с точностью до секунды, поэтому префикс
+// форматируется заново не чаще раза в секунду, а в остальное время берётся готовый.
+class TimestampCache {
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss");
+
+    // Префикс и секунда, для которой он построен. Заменяется целиком, поэтому читать его можно без блокировок.
+    private static class Prefix {
+        public final long epochSecond;
+        public final String text;
+
+        public Prefix(long epochSecond, String text) {
+            this.epochSecond = epochSecond;
+            this.text = text;
+        }
+    }
+
+    private volatile Prefix prefix;
+
+    TimestampCache() {
+        prefix = new Prefix(Long.MIN_VALUE, "");
+    }
+
+    void appendPrefix(StringBuilder out, long timestampMillis) {
+        long epochSecond = Math.floorDiv(timestampMillis, 1000);
+        Prefix current = prefix;
+
+        if (current.epochSecond != epochSecond) {
+            String timestamp = LocalDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneId.systemDefault())
+                    .format(TIMESTAMP_FORMAT);
+
+            current = new Prefix(epochSecond, "[" + timestamp + "] ");
+            prefix = current;
+        }
+
+        out.append(current.text);
+    }
+}
@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.Reader;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class AsyncLoggingCheck {
+    private final String LOG_FILE_PATH = "./src/test/resources/async_log.txt";
+    private final int THREADS_COUNT = 4;
+    private final int LINES_PER_THREAD = 5000;
+
+    @Test
+    public void checkEverythingIsWrittenOnClose() throws Exception {
+        LoggerSettings settings = new LoggerSettings(LOG_FILE_PATH, false);
+        settings.async = true;
+        // Буфер заметно меньше числа строк, чтобы писатели упирались в его заполнение.
+        settings.bufferSize = 64;
+
+        try (Logger l = new Logger(settings)) {
+            Thread[] threads = new Thread[THREADS_COUNT];
+
+            for (int t = 0; t < THREADS_COUNT; t++) {
+                int threadIndex = t;
+
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < LINES_PER_THREAD; i++) {
+                        l.info("thread %d line %d", threadIndex, i);
+                    }
+                });
+
+                threads[t].start();
+            }
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        try (Reader r = new FileReader(LOG_FILE_PATH)) {
+            Scanner sc = new Scanner(r);
+            Pattern pattern = Pattern.compile("\\[\\d\\d\\.\\d\\d.\\d\\d\\d\\d \\d\\d\\:\\d\\d\\:\\d\\d\\] thread (\\d) line (\\d+)");
+            int[] nextLine = new int[THREADS_COUNT];
+
+            while (sc.hasNext()) {
+                Matcher matcher = pattern.matcher(sc.nextLine());
+
+                Assertions.assertTrue(matcher.find());
+
+                int threadIndex = Integer.parseInt(matcher.group(1));
+
+                // Строки одного потока идут в том порядке, в котором были залогированы.
+                Assertions.assertEquals(nextLine[threadIndex], Integer.parseInt(matcher.group(2)));
+
+                nextLine[threadIndex]++;
+            }
+
+            for (int count : nextLine) {
+                Assertions.assertEquals(LINES_PER_THREAD, count);
+            }
+        } finally {
+            File f = new File(LOG_FILE_PATH);
+
+            Assertions.assertTrue(f.delete());
+        }
+    }
+}
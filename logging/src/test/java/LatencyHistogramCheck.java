@@ -0,0 +1,43 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramCheck {
+    @Test
+    public void percentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        Assertions.assertEquals(100_000, histogram.count());
+
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            long exact = (long) (percentile * 1000) * 1000;
+            long reported = histogram.percentile(percentile);
+
+            Assertions.assertTrue(reported >= exact, percentile + ": " + reported);
+            Assertions.assertTrue(reported <= exact + exact / 64, percentile + ": " + reported);
+        }
+
+        Assertions.assertTrue(histogram.max() >= 100_000_000);
+
+        histogram.reset();
+
+        Assertions.assertEquals(0, histogram.count());
+        Assertions.assertEquals(0, histogram.percentile(99));
+    }
+
+    @Test
+    public void bucketsCoverWholeRange() {
+        Assertions.assertEquals(127, LatencyHistogram.indexOf(127));
+        Assertions.assertEquals(127, LatencyHistogram.highestValueAt(127));
+
+        for (long value : new long[]{128, 1000, 123_456_789, Long.MAX_VALUE}) {
+            long highest = LatencyHistogram.highestValueAt(LatencyHistogram.indexOf(value));
+
+            Assertions.assertTrue(highest >= value);
+            Assertions.assertTrue(highest - value <= value / 64);
+        }
+    }
+}
@@ -14,10 +14,10 @@ public class LoggingFormatCheck {
     @Test
     public void checkLoggingFormat() throws Exception {
         try (Logger l = new Logger(LOG_FILE_PATH, false)) {
-            l.log("line %d", 0);
-            l.log("line %d", 1);
-            l.log("line %d", 2);
-            l.log("line %d", 3);
+            l.info("line %d", 0);
+            l.info("line %d", 1);
+            l.info("line %d", 2);
+            l.info("line %d", 3);
         }
 
         try (Reader r = new FileReader(LOG_FILE_PATH)) {
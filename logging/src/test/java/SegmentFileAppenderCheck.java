@@ -0,0 +1,140 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+public class SegmentFileAppenderCheck {
+    private final Path DIRECTORY = Path.of("./src/test/resources/segment_log");
+    private final Path LOG_FILE = DIRECTORY.resolve("log.txt");
+    private final int LINES_COUNT = 2000;
+    private final int MAX_ARCHIVES = 3;
+
+    @Test
+    public void checkRotationKeepsLastArchives() throws Exception {
+        Files.createDirectories(DIRECTORY);
+
+        LoggerSettings settings = new LoggerSettings(LOG_FILE.toString(), false);
+        settings.segmented = true;
+        settings.segmentSize = 4096;
+        settings.maxArchives = MAX_ARCHIVES;
+
+        try {
+            try (SegmentFileAppender appender = new SegmentFileAppender(settings)) {
+                for (int i = 0; i < LINES_COUNT; i++) {
+                    appender.append("line " + i);
+                }
+            }
+
+            List<Path> archives = new ArrayList<>();
+
+            try (var files = Files.list(DIRECTORY)) {
+                for (Path file : files.sorted().toList()) {
+                    if (!file.equals(LOG_FILE)) {
+                        archives.add(file);
+                    }
+                }
+            }
+
+            Assertions.assertEquals(MAX_ARCHIVES, archives.size());
+
+            // Архивы и текущий сегмент вместе - это непрерывный хвост лога.
+            StringBuilder content = new StringBuilder();
+
+            for (Path archive : archives) {
+                Assertions.assertTrue(archive.toString().endsWith(".gz"));
+
+                try (InputStream input = new GZIPInputStream(Files.newInputStream(archive))) {
+                    content.append(new String(input.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            }
+
+            Assertions.assertTrue(Files.size(LOG_FILE) <= settings.segmentSize);
+
+            content.append(Files.readString(LOG_FILE));
+
+            String[] lines = content.toString().split(System.lineSeparator());
+            int first = LINES_COUNT - lines.length;
+
+            Assertions.assertTrue(first > 0);
+
+            for (int i = 0; i < lines.length; i++) {
+                Assertions.assertEquals("line " + (first + i), lines[i]);
+            }
+        } finally {
+            deleteDirectory();
+        }
+    }
+
+    @Test
+    public void checkWritingContinuesAfterUnfinishedSegment() throws Exception {
+        Files.createDirectories(DIRECTORY);
+
+        // Так выглядит сегмент после падения процесса: данные и незаполненный хвост из нулей.
+        byte[] written = ("first" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        byte[] segment = new byte[1024];
+
+        System.arraycopy(written, 0, segment, 0, written.length);
+        Files.write(LOG_FILE, segment);
+
+        LoggerSettings settings = new LoggerSettings(LOG_FILE.toString(), false);
+        settings.segmented = true;
+        settings.segmentSize = 4096;
+
+        try {
+            try (SegmentFileAppender appender = new SegmentFileAppender(settings)) {
+                appender.append("second");
+            }
+
+            Assertions.assertEquals(
+                    "first" + System.lineSeparator() + "second" + System.lineSeparator(),
+                    Files.readString(LOG_FILE)
+            );
+        } finally {
+            deleteDirectory();
+        }
+    }
+
+    @Test
+    public void checkFlushWritesBufferedLines() throws Exception {
+        Files.createDirectories(DIRECTORY);
+
+        LoggerSettings settings = new LoggerSettings(LOG_FILE.toString(), false);
+        settings.segmented = true;
+        settings.segmentSize = 4096;
+
+        try {
+            try (SegmentFileAppender appender = new SegmentFileAppender(settings)) {
+                appender.append("first");
+
+                // До закрытия сегмент растянут до полного размера, строки - в его начале.
+                Assertions.assertEquals(settings.segmentSize, Files.size(LOG_FILE));
+                Assertions.assertEquals(0, Files.readAllBytes(LOG_FILE)[0]);
+
+                appender.flush();
+
+                Assertions.assertTrue(Files.readString(LOG_FILE).startsWith("first" + System.lineSeparator()));
+            }
+
+            Assertions.assertEquals("first" + System.lineSeparator(), Files.readString(LOG_FILE));
+        } finally {
+            deleteDirectory();
+        }
+    }
+
+    private void deleteDirectory() throws IOException {
+        try (var files = Files.list(DIRECTORY)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+
+        Files.delete(DIRECTORY);
+    }
+}
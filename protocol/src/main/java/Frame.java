@@ -0,0 +1,176 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+Кадр двоичного протокола:
+
+    длина (int32) | тип (int8) | отправитель (int32) | содержимое (UTF-8)
+
+Длина считается без самого поля длины, числа - в сетевом порядке байт (big-endian).
+Отправитель - номер подключения автора сообщения, присвоенный сервером (0 - сам сервер).
+Кадры неизвестных типов получатель должен пропускать - так протокол можно расширять.
+
+Перед кадром TEXT с сообщением комнаты сервер может прислать кадр SEQUENCE с номером этого сообщения:
+
+    ... | номер (int64) | имя комнаты (UTF-8)
+
+Номера сообщений комнаты растут; по последнему полученному номеру клиент после переподключения
+просит прислать пропущенные сообщения комнаты.
+
+Кадры PING и PONG - без содержимого: сервер проверяет ими, жив ли замолчавший клиент, и клиент
+отвечает на PING кадром PONG (см. Protocol.PING).
+
+Кадр DEFLATE несёт сжатые целые кадры других типов (см. FrameCompressor). Кадры одного соединения
+сжимаются одним потоком deflate, поэтому распаковывать их нужно по порядку одним FrameDecompressor.
+
+Объект кадра переиспользуется для чтения: decode/read заполняют его поля очередным кадром.
+*/
+public class Frame {
+    // Сообщение чата или сервера.
+    public static final byte TEXT = 1;
+    // Номер следующего за ним сообщения комнаты.
+    public static final byte SEQUENCE = 2;
+    // Проверка соединения и ответ на неё.
+    public static final byte PING = 3;
+    public static final byte PONG = 4;
+    // Сжатые кадры.
+    public static final byte DEFLATE = 5;
+
+    // Размер полей перед содержимым, включая длину.
+    public static final int HEADER_LENGTH = 9;
+    // Кадры длиннее считаются ошибкой протокола.
+    public static final int MAX_LENGTH = 1 << 20;
+
+    private static final int LENGTH_FIELD = 4;
+
+    public byte type;
+    public int senderId;
+    // Для SEQUENCE - имя комнаты.
+    public String payload;
+    // Номер сообщения из кадра SEQUENCE.
+    public long sequence;
+    // Содержимое кадра DEFLATE - представление буфера, из которого кадр разобран (payload у него null).
+    public ByteBuffer data;
+
+    // Размер закодированного кадра с содержимым заданной длины.
+    public static int encodedLength(int payloadLength) {
+        return HEADER_LENGTH + payloadLength;
+    }
+
+    // Кладёт кадр в буфер, места в нём должно хватать (см. encodedLength).
+    public static void encode(ByteBuffer out, byte type, int senderId, byte[] payload) {
+        encodeHeader(out, type, senderId, payload.length);
+
+        out.put(payload);
+    }
+
+    // Кладёт в буфер заголовок кадра, содержимое вызывающий дописывает сам.
+    public static void encodeHeader(ByteBuffer out, byte type, int senderId, int payloadLength) {
+        out.putInt(HEADER_LENGTH - LENGTH_FIELD + payloadLength)
+                .put(type)
+                .putInt(senderId);
+    }
+
+    // Размер закодированного кадра SEQUENCE для комнаты с именем заданной длины.
+    public static int encodedSequenceLength(int roomLength) {
+        return HEADER_LENGTH + Long.BYTES + roomLength;
+    }
+
+    // Кладёт в буфер кадр SEQUENCE, места в нём должно хватать (см. encodedSequenceLength).
+    public static void encodeSequence(ByteBuffer out, long sequence, byte[] room) {
+        encodeHeader(out, SEQUENCE, 0, Long.BYTES + room.length);
+
+        out.putLong(sequence).put(room);
+    }
+
+    // Возвращает закодированный кадр целиком.
+    public static byte[] encode(byte type, int senderId, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer out = ByteBuffer.allocate(encodedLength(bytes.length));
+
+        encode(out, type, senderId, bytes);
+
+        return out.array();
+    }
+
+    // Разбирает кадр из начала данных буфера. Если кадр пришёл целиком, заполняет поля,
+    // сдвигает позицию буфера за кадр и возвращает true; иначе буфер не меняется.
+    public boolean decode(ByteBuffer in) throws ProtocolException {
+        if (in.remaining() < LENGTH_FIELD) {
+            return false;
+        }
+
+        int length = checkLength(in.getInt(in.position()));
+
+        if (in.remaining() < LENGTH_FIELD + length) {
+            return false;
+        }
+
+        int start = in.position() + LENGTH_FIELD;
+        int payloadLength = length - (HEADER_LENGTH - LENGTH_FIELD);
+
+        type = in.get(start);
+        senderId = in.getInt(start + 1);
+
+        int payloadStart = start + HEADER_LENGTH - LENGTH_FIELD;
+
+        decodePayload(in, payloadStart, payloadLength);
+
+        in.position(payloadStart + payloadLength);
+
+        return true;
+    }
+
+    // Читает кадр из потока, блокируясь до его получения целиком.
+    public void read(DataInputStream in) throws IOException {
+        int length = checkLength(in.readInt());
+        byte[] bytes = new byte[length - (HEADER_LENGTH - LENGTH_FIELD)];
+
+        type = in.readByte();
+        senderId = in.readInt();
+
+        in.readFully(bytes);
+
+        decodePayload(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    private void decodePayload(ByteBuffer in, int start, int length) throws ProtocolException {
+        if (type == DEFLATE) {
+            data = in.slice(start, length);
+            payload = null;
+
+            return;
+        }
+
+        if (type == SEQUENCE) {
+            if (length < Long.BYTES) {
+                throw new ProtocolException(String.format("invalid sequence frame length %d", length));
+            }
+
+            sequence = in.getLong(start);
+            start += Long.BYTES;
+            length -= Long.BYTES;
+        }
+
+        if (in.hasArray()) {
+            payload = new String(in.array(), in.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+
+            in.get(start, bytes);
+
+            payload = new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static int checkLength(int length) throws ProtocolException {
+        if (length < HEADER_LENGTH - LENGTH_FIELD || length > MAX_LENGTH) {
+            throw new ProtocolException(String.format("invalid frame length %d", length));
+        }
+
+        return length;
+    }
+}
@@ -0,0 +1,81 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/*
+Сжатие исходящих кадров одного соединения в кадры Frame.DEFLATE.
+
+Все кадры соединения сжимаются одним потоком deflate, который не сбрасывается между ними: каждый
+следующий кадр может ссылаться на уже переданные, поэтому хорошо сжимаются и короткие сообщения
+чата, похожие на предыдущие. Каждый кадр DEFLATE заканчивается SYNC_FLUSH - получатель может
+распаковать его сразу, не дожидаясь следующих. Завершающие байты SYNC_FLUSH (00 00 ff ff) одинаковы
+у всех кадров и не передаются, FrameDecompressor дописывает их сам.
+
+Кадры короче threshold байт сжимать невыгодно, они передаются как есть и в поток deflate не попадают.
+Сжатый кадр передать нужно обязательно: без него получатель не распакует следующие.
+*/
+public class FrameCompressor {
+    static final byte[] SYNC_FLUSH_TAIL = {0, 0, (byte) 0xff, (byte) 0xff};
+    // Сжатые данные могут оказаться чуть длиннее исходных, а кадр DEFLATE не может быть длиннее Frame.MAX_LENGTH.
+    public static final int MAX_INPUT_LENGTH = Frame.MAX_LENGTH / 2;
+
+    private static final int INITIAL_OUTPUT_CAPACITY = 4096;
+
+    private final Deflater deflater;
+    private final int threshold;
+    private byte[] output;
+    private boolean isEnded;
+
+    public FrameCompressor(int threshold) {
+        this.threshold = threshold;
+
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        output = new byte[INITIAL_OUTPUT_CAPACITY];
+    }
+
+    // Сжимать ли кадры такой общей длины.
+    public boolean accepts(int length) {
+        return length >= threshold && length <= MAX_INPUT_LENGTH;
+    }
+
+    // Сжимает целые кадры из данных буфера (его позиция не меняется) и возвращает закодированный кадр
+    // DEFLATE или null, если компрессор уже освобождён.
+    public synchronized byte[] compress(ByteBuffer frames) {
+        if (isEnded) {
+            return null;
+        }
+
+        deflater.setInput(frames.duplicate());
+
+        int length = Frame.HEADER_LENGTH;
+
+        // Пока deflate заполняет весь свободный буфер, часть данных ещё не выдана.
+        while (true) {
+            int space = output.length - length;
+            int written = deflater.deflate(output, length, space, Deflater.SYNC_FLUSH);
+
+            length += written;
+
+            if (written < space) {
+                break;
+            }
+
+            output = Arrays.copyOf(output, output.length * 2);
+        }
+
+        length -= SYNC_FLUSH_TAIL.length;
+
+        byte[] frame = Arrays.copyOf(output, length);
+
+        Frame.encodeHeader(ByteBuffer.wrap(frame), Frame.DEFLATE, 0, length - Frame.HEADER_LENGTH);
+
+        return frame;
+    }
+
+    // Освобождает память deflate. Вызывать можно из любого потока, после этого compress возвращает null.
+    public synchronized void end() {
+        isEnded = true;
+
+        deflater.end();
+    }
+}
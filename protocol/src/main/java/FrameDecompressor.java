@@ -0,0 +1,64 @@
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Распаковка кадров Frame.DEFLATE одного соединения, по порядку их получения (см. FrameCompressor).
+// Распакованные кадры не могут быть в сумме длиннее Frame.MAX_LENGTH. Память inflate освобождается
+// вместе с объектом.
+public class FrameDecompressor {
+    private static final int INITIAL_OUTPUT_CAPACITY = 4096;
+
+    private final Inflater inflater;
+    private byte[] output;
+
+    public FrameDecompressor() {
+        inflater = new Inflater(true);
+        output = new byte[INITIAL_OUTPUT_CAPACITY];
+    }
+
+    // Распаковывает содержимое кадра DEFLATE и возвращает буфер с целыми кадрами, готовый к чтению.
+    // Буфер действителен до следующего вызова.
+    public ByteBuffer decompress(ByteBuffer data) throws ProtocolException {
+        int length = 0;
+
+        try {
+            length = inflate(data, length);
+            length = inflate(ByteBuffer.wrap(FrameCompressor.SYNC_FLUSH_TAIL), length);
+        } catch (DataFormatException e) {
+            throw new ProtocolException(String.format("invalid compressed frame: %s", e.getMessage()));
+        }
+
+        return ByteBuffer.wrap(output, 0, length);
+    }
+
+    // Распаковывает input целиком в output начиная с length. Возвращает новую длину данных в output.
+    private int inflate(ByteBuffer input, int length) throws DataFormatException, ProtocolException {
+        inflater.setInput(input);
+
+        // Вход может закончиться раньше, чем выдан весь результат: пока буфер заполняется целиком,
+        // распаковываем дальше.
+        while (true) {
+            if (length == output.length) {
+                if (length >= Frame.MAX_LENGTH) {
+                    throw new ProtocolException("decompressed frames are too long");
+                }
+
+                output = Arrays.copyOf(output, Math.min(output.length * 2, Frame.MAX_LENGTH));
+            }
+
+            length += inflater.inflate(output, length, output.length - length);
+
+            if (inflater.finished()) {
+                throw new ProtocolException("compressed stream is finished");
+            }
+
+            if (inflater.needsInput() && length < output.length) {
+                break;
+            }
+        }
+
+        return length;
+    }
+}
@@ -0,0 +1,259 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Разбор и запись JSON для файлов настроек (см. SettingsBinder) - без рефлексии и сторонних библиотек.
+
+Разобранный документ состоит из LinkedHashMap (объект, ключи в порядке файла), ArrayList (массив), String,
+Long (целое число, если помещается), Double (остальные числа), Boolean и null. Ошибка в документе -
+IllegalArgumentException с позицией, на которой разбор остановился.
+*/
+public class Json {
+    private final String text;
+    private int position;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    public static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.value();
+
+        json.skipWhitespace();
+
+        if (json.position < text.length()) {
+            throw json.error("unexpected data after the end of document");
+        }
+
+        return value;
+    }
+
+    // Дописывает в builder строку JSON в кавычках.
+    public static void writeString(StringBuilder builder, String value) {
+        builder.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+                }
+            }
+        }
+
+        builder.append('"');
+    }
+
+    private Object value() {
+        skipWhitespace();
+
+        if (position == text.length()) {
+            throw error("unexpected end of document");
+        }
+
+        char c = text.charAt(position);
+
+        return switch (c) {
+            case '{' -> object();
+            case '[' -> array();
+            case '"' -> string();
+            case 't' -> literal("true", Boolean.TRUE);
+            case 'f' -> literal("false", Boolean.FALSE);
+            case 'n' -> literal("null", null);
+            default -> {
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    yield number();
+                }
+
+                throw error("unexpected character '" + c + "'");
+            }
+        };
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> object = new LinkedHashMap<>();
+
+        position++;
+
+        if (consume('}')) {
+            return object;
+        }
+
+        do {
+            skipWhitespace();
+
+            if (position == text.length() || text.charAt(position) != '"') {
+                throw error("expected a property name");
+            }
+
+            String name = string();
+
+            expect(':');
+
+            object.put(name, value());
+        } while (consume(','));
+
+        expect('}');
+
+        return object;
+    }
+
+    private List<Object> array() {
+        List<Object> array = new ArrayList<>();
+
+        position++;
+
+        if (consume(']')) {
+            return array;
+        }
+
+        do {
+            array.add(value());
+        } while (consume(','));
+
+        expect(']');
+
+        return array;
+    }
+
+    private String string() {
+        StringBuilder builder = new StringBuilder();
+
+        position++;
+
+        while (true) {
+            if (position == text.length()) {
+                throw error("unterminated string");
+            }
+
+            char c = text.charAt(position++);
+
+            if (c == '"') {
+                return builder.toString();
+            }
+
+            if (c != '\\') {
+                builder.append(c);
+
+                continue;
+            }
+
+            if (position == text.length()) {
+                throw error("unterminated string");
+            }
+
+            char escaped = text.charAt(position++);
+
+            switch (escaped) {
+                case '"', '\\', '/' -> builder.append(escaped);
+                case 'b' -> builder.append('\b');
+                case 'f' -> builder.append('\f');
+                case 'n' -> builder.append('\n');
+                case 'r' -> builder.append('\r');
+                case 't' -> builder.append('\t');
+                case 'u' -> {
+                    if (position + 4 > text.length()) {
+                        throw error("invalid unicode escape");
+                    }
+
+                    try {
+                        builder.append((char) Integer.parseInt(text, position, position + 4, 16));
+                    } catch (NumberFormatException e) {
+                        throw error("invalid unicode escape");
+                    }
+
+                    position += 4;
+                }
+                default -> throw error("invalid escape '\\" + escaped + "'");
+            }
+        }
+    }
+
+    private Number number() {
+        int start = position;
+        boolean isInteger = true;
+
+        consume('-');
+
+        while (position < text.length()) {
+            char c = text.charAt(position);
+
+            if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                isInteger = false;
+            } else if (c < '0' || c > '9') {
+                break;
+            }
+
+            position++;
+        }
+
+        String number = text.substring(start, position);
+
+        try {
+            if (isInteger) {
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    // Не помещается в long - ниже разберём как дробное.
+                }
+            }
+
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            position = start;
+
+            throw error("invalid number '" + number + "'");
+        }
+    }
+
+    private Object literal(String literal, Object value) {
+        if (!text.startsWith(literal, position)) {
+            throw error("unexpected character '" + text.charAt(position) + "'");
+        }
+
+        position += literal.length();
+
+        return value;
+    }
+
+    private boolean consume(char c) {
+        skipWhitespace();
+
+        if (position < text.length() && text.charAt(position) == c) {
+            position++;
+
+            return true;
+        }
+
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!consume(c)) {
+            throw error("expected '" + c + "'");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(String.format("invalid JSON at position %d: %s", position, message));
+    }
+}
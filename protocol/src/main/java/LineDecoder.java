@@ -0,0 +1,122 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/*
+Разбирает строки текстового протокола прямо из буфера с принятыми байтами.
+
+Строка декодируется из UTF-8 один раз - когда пришла целиком, прямо из массива буфера, без
+промежуточных копий. Перевод строки ищется по 8 байт за раз (SWAR: один long сравнивается
+со всеми байтами '\n' сразу), а уже просмотренная часть незаконченной строки запоминается
+и при следующем поступлении данных не просматривается заново.
+
+Строка длиннее maxLineLength байт - ошибка протокола: иначе клиент, не присылающий перевод строки,
+заставил бы держать в памяти сколько угодно данных.
+*/
+public class LineDecoder {
+    public static final int DEFAULT_MAX_LINE_LENGTH = 64 * 1024;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private final int maxLineLength;
+    // Сколько байт с начала данных буфера уже просмотрено без нахождения перевода строки.
+    private int scanned;
+
+    public LineDecoder(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+    }
+
+    // Возвращает следующую строку (без '\n' и '\r' перед ним) из данных буфера и сдвигает его позицию
+    // за неё. Если строка ещё не пришла целиком, возвращает null и буфер не меняет.
+    public String decode(ByteBuffer in) throws ProtocolException {
+        int start = in.position();
+        int newline = indexOfNewline(in, start + scanned, in.limit());
+
+        if (newline < 0) {
+            scanned = in.limit() - start;
+
+            checkLength(scanned);
+
+            return null;
+        }
+
+        int end = newline;
+
+        if (end > start && in.get(end - 1) == '\r') {
+            end--;
+        }
+
+        checkLength(end - start);
+
+        String line;
+
+        if (in.hasArray()) {
+            line = new String(in.array(), in.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[end - start];
+
+            in.get(start, bytes);
+
+            line = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        in.position(newline + 1);
+
+        scanned = 0;
+
+        return line;
+    }
+
+    // Забывает о просмотренной части строки - если данные буфера были отброшены.
+    public void reset() {
+        scanned = 0;
+    }
+
+    private void checkLength(int length) throws ProtocolException {
+        if (length > maxLineLength) {
+            throw new ProtocolException(String.format("line is longer than %d bytes", maxLineLength));
+        }
+    }
+
+    // Индекс первого '\n' в [from, to) или -1.
+    private static int indexOfNewline(ByteBuffer in, int from, int to) {
+        if (!in.hasArray()) {
+            for (int i = from; i < to; i++) {
+                if (in.get(i) == '\n') {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        byte[] array = in.array();
+        int offset = in.arrayOffset();
+        int i = offset + from;
+        int end = offset + to;
+
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            long word = (long) LONGS.get(array, i) ^ NEWLINES;
+            // Старший бит каждого байта, равного нулю (то есть '\n' до xor), - без ложных срабатываний
+            // из-за переносов между байтами.
+            long found = ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+
+            if (found != 0) {
+                return i - offset + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+
+        for (; i < end; i++) {
+            if (array[i] == '\n') {
+                return i - offset;
+            }
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/*
+Буфер входящих данных соединения и разбор сообщений из него - строк (LineDecoder) или кадров (Frame).
+
+Данные дочитываются из канала или потока в конец буфера, а сообщения забираются из начала по одному,
+поэтому протокол можно сменить между сообщениями, не потеряв уже принятые байты. Буфер растёт,
+только если в него не помещается одно сообщение, а размер сообщений ограничен (maxLineLength и
+Frame.MAX_LENGTH), так что и буфер не растёт без предела.
+
+Кадры Frame.DEFLATE распаковываются здесь же (FrameDecompressor создаётся при первом таком кадре),
+и сообщения из них возвращаются раньше следующих кадров буфера.
+*/
+public class MessageDecoder {
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final LineDecoder lines;
+    private final Frame frame;
+    // Между чтениями буфер хранит ещё не разобранные данные в режиме чтения.
+    private ByteBuffer buffer;
+    // Распакованные, но ещё не разобранные кадры последнего кадра DEFLATE.
+    private FrameDecompressor decompressor;
+    private ByteBuffer inflated;
+    // Номер из кадра SEQUENCE, относящийся к ещё не полученному кадру TEXT, и номер последнего сообщения.
+    private long pendingSequence;
+    private String pendingSequenceRoom;
+    private long sequence;
+    private String sequenceRoom;
+
+    public MessageDecoder(int maxLineLength) {
+        lines = new LineDecoder(maxLineLength);
+        frame = new Frame();
+        buffer = ByteBuffer.allocate(INITIAL_CAPACITY).flip();
+    }
+
+    // Читает из канала всё, что доступно. Возвращает false, если соединение закрыто другой стороной.
+    public boolean readFrom(ReadableByteChannel channel) throws IOException {
+        prepareForWriting();
+
+        int read = channel.read(buffer);
+
+        buffer.flip();
+
+        return read != -1;
+    }
+
+    // Читает из потока очередную порцию данных (блокируясь, если их нет).
+    // Возвращает false, если соединение закрыто другой стороной.
+    public boolean readFrom(InputStream input) throws IOException {
+        prepareForWriting();
+
+        int read = input.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+
+        if (read > 0) {
+            buffer.position(buffer.position() + read);
+        }
+
+        buffer.flip();
+
+        return read != -1;
+    }
+
+    // Возвращает следующее полученное целиком сообщение в заданном протоколе или null, если такого нет.
+    // Кадры PING и PONG возвращаются как Protocol.PING и Protocol.PONG.
+    public String next(Protocol protocol) throws ProtocolException {
+        if (protocol == Protocol.LINES) {
+            return lines.decode(buffer);
+        }
+
+        lines.reset();
+
+        while (true) {
+            boolean isInflated = inflated != null && inflated.hasRemaining();
+
+            if (!frame.decode(isInflated ? inflated : buffer)) {
+                if (isInflated) {
+                    throw new ProtocolException("compressed frame ends with incomplete frame");
+                }
+
+                return null;
+            }
+
+            if (frame.type == Frame.DEFLATE) {
+                if (isInflated) {
+                    throw new ProtocolException("compressed frame inside compressed frame");
+                }
+
+                if (decompressor == null) {
+                    decompressor = new FrameDecompressor();
+                }
+
+                inflated = decompressor.decompress(frame.data);
+            } else if (frame.type == Frame.SEQUENCE) {
+                pendingSequence = frame.sequence;
+                pendingSequenceRoom = frame.payload;
+            } else if (frame.type == Frame.TEXT) {
+                sequence = pendingSequence;
+                sequenceRoom = pendingSequenceRoom;
+                pendingSequence = 0;
+                pendingSequenceRoom = null;
+
+                return frame.payload;
+            } else if (frame.type == Frame.PING) {
+                return Protocol.PING;
+            } else if (frame.type == Frame.PONG) {
+                return Protocol.PONG;
+            }
+        }
+    }
+
+    // Отправитель последнего кадра, возвращённого next().
+    public int senderId() {
+        return frame.senderId;
+    }
+
+    // Номер сообщения, возвращённого next(), в его комнате (см. Frame.SEQUENCE), 0 - если номера нет.
+    public long sequence() {
+        return sequence;
+    }
+
+    // Комната сообщения с номером, null - если номера нет.
+    public String sequenceRoom() {
+        return sequenceRoom;
+    }
+
+    // Сдвигает неразобранные данные в начало буфера и, если места не осталось, увеличивает его.
+    private void prepareForWriting() {
+        buffer.compact();
+
+        if (!buffer.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+
+            buffer.flip();
+            larger.put(buffer);
+
+            buffer = larger;
+        }
+    }
+}
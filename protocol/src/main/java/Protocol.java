@@ -0,0 +1,26 @@
+// Способ передачи сообщений между клиентом и сервером.
+//
+// После подключения сервер присылает приветствие строкой, и соединение работает в текстовом протоколе.
+// Клиент, умеющий двоичный протокол, первой строкой (вместо никнейма) присылает BINARY_REQUEST,
+// сервер подтверждает его той же строкой, и дальше обе стороны обмениваются кадрами Frame.
+// Прежние клиенты ничего не присылают и продолжают работать строками.
+//
+// Замолчавшему клиенту сервер время от времени присылает PING (в текстовом протоколе - строкой,
+// в двоичном - кадром Frame.PING), и клиент отвечает PONG тем же способом. Так сервер отличает
+// молчащего клиента от пропавшего: соединение, по которому долго ничего не приходит, закрывается.
+//
+// Клиент двоичного протокола может до никнейма попросить сжатие, прислав DEFLATE_REQUEST. Сервер,
+// согласившись, отвечает той же строкой и дальше может присылать вместо длинных кадров кадры
+// Frame.DEFLATE (см. FrameCompressor); MessageDecoder распаковывает их сам.
+public enum Protocol {
+    // Каждая строка (до '\n') - отдельное сообщение.
+    LINES,
+    // Кадры с длиной, типом и отправителем (см. Frame), сообщение может быть многострочным.
+    BINARY;
+
+    public static final String BINARY_REQUEST = "/protocol binary";
+    public static final String DEFLATE_REQUEST = "/compress deflate";
+    // MessageDecoder возвращает их и для кадров PING и PONG.
+    public static final String PING = "/ping";
+    public static final String PONG = "/pong";
+}
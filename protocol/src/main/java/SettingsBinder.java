@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/*
+Чтение и запись класса настроек в JSON без рефлексии.
+
+Каждое поле настроек описывается явно - именем в файле, чтением и записью поля (лямбдами) и типом, -
+в том же порядке, в каком оно пишется в файл. Файл читается целиком одним вызовом и разбирается Json,
+значения присваиваются полям объекта, созданного конструктором по умолчанию: поля, которых нет в файле,
+сохраняют значения по умолчанию, а неизвестные имена пропускаются. Значение не того типа - ошибка
+(IllegalArgumentException с именем поля), а не молча пропущенная настройка. null - тоже ошибка:
+настройки без значения не бывает (выключенное пишется пустой строкой или массивом), а применённый
+на ходу null сломал бы работающий сервер.
+
+Описания полей позволяют и сравнивать, и копировать настройки по отдельным полям (differences, copy) -
+так сервер применяет изменённые на ходу настройки (см. SettingsWatcher).
+*/
+public class SettingsBinder<T> {
+    private static class Field<T, V> {
+        final String name;
+        final Function<T, V> getter;
+        final BiConsumer<T, V> setter;
+        // Преобразует разобранное значение JSON в значение поля.
+        final Function<Object, V> converter;
+
+        Field(String name, Function<T, V> getter, BiConsumer<T, V> setter, Function<Object, V> converter) {
+            this.name = name;
+            this.getter = getter;
+            this.setter = setter;
+            this.converter = converter;
+        }
+
+        void read(T settings, Object json) {
+            setter.accept(settings, converter.apply(json));
+        }
+
+        void copy(T from, T to) {
+            setter.accept(to, getter.apply(from));
+        }
+    }
+
+    private final Supplier<T> defaults;
+    private final Map<String, Field<T, ?>> fields;
+
+    public SettingsBinder(Supplier<T> defaults) {
+        this.defaults = defaults;
+
+        fields = new LinkedHashMap<>();
+    }
+
+    public SettingsBinder<T> intField(String name, Function<T, Integer> getter, BiConsumer<T, Integer> setter) {
+        return add(new Field<>(name, getter, setter, json -> Math.toIntExact(integer(name, json, Integer.MIN_VALUE, Integer.MAX_VALUE))));
+    }
+
+    public SettingsBinder<T> longField(String name, Function<T, Long> getter, BiConsumer<T, Long> setter) {
+        return add(new Field<>(name, getter, setter, json -> integer(name, json, Long.MIN_VALUE, Long.MAX_VALUE)));
+    }
+
+    public SettingsBinder<T> doubleField(String name, Function<T, Double> getter, BiConsumer<T, Double> setter) {
+        return add(new Field<>(name, getter, setter, json -> {
+            if (!(json instanceof Number number)) {
+                throw invalid(name, "a number", json);
+            }
+
+            return number.doubleValue();
+        }));
+    }
+
+    public SettingsBinder<T> booleanField(String name, Function<T, Boolean> getter, BiConsumer<T, Boolean> setter) {
+        return add(new Field<>(name, getter, setter, json -> {
+            if (!(json instanceof Boolean value)) {
+                throw invalid(name, "true or false", json);
+            }
+
+            return value;
+        }));
+    }
+
+    public SettingsBinder<T> stringField(String name, Function<T, String> getter, BiConsumer<T, String> setter) {
+        return add(new Field<>(name, getter, setter, json -> string(name, json)));
+    }
+
+    public SettingsBinder<T> stringArrayField(String name, Function<T, String[]> getter, BiConsumer<T, String[]> setter) {
+        return add(new Field<>(name, getter, setter, json -> {
+            if (!(json instanceof List<?> list)) {
+                throw invalid(name, "an array of strings", json);
+            }
+
+            String[] array = new String[list.size()];
+
+            for (int i = 0; i < array.length; i++) {
+                array[i] = string(name, list.get(i));
+            }
+
+            return array;
+        }));
+    }
+
+    // values - все значения перечисления (E.values()), в файле пишется имя значения.
+    public <E extends Enum<E>> SettingsBinder<T> enumField(String name, E[] values, Function<T, E> getter, BiConsumer<T, E> setter) {
+        return add(new Field<>(name, getter, setter, json -> {
+            if (!(json instanceof String value)) {
+                throw invalid(name, "one of " + List.of(values), json);
+            }
+
+            for (E candidate : values) {
+                if (candidate.name().equals(value)) {
+                    return candidate;
+                }
+            }
+
+            throw invalid(name, "one of " + List.of(values), json);
+        }));
+    }
+
+    private SettingsBinder<T> add(Field<T, ?> field) {
+        if (fields.putIfAbsent(field.name, field) != null) {
+            throw new IllegalStateException("duplicate setting " + field.name);
+        }
+
+        return this;
+    }
+
+    // Читает настройки из файла. Ошибка в содержимом файла - IllegalArgumentException.
+    public T read(Path path) throws IOException {
+        return parse(Files.readString(path));
+    }
+
+    public T parse(String text) {
+        if (!(Json.parse(text) instanceof Map<?, ?> json)) {
+            throw new IllegalArgumentException("settings must be a JSON object");
+        }
+
+        T settings = defaults.get();
+
+        for (Map.Entry<?, ?> entry : json.entrySet()) {
+            Field<T, ?> field = fields.get((String) entry.getKey());
+
+            if (field != null) {
+                field.read(settings, entry.getValue());
+            }
+        }
+
+        return settings;
+    }
+
+    public void write(T settings, Path path) throws IOException {
+        Files.writeString(path, toJson(settings));
+    }
+
+    // Настройки в виде JSON с отступами, поля - в порядке описания. Поля со значением null не пишутся.
+    public String toJson(T settings) {
+        StringBuilder builder = new StringBuilder("{");
+        boolean first = true;
+
+        for (Field<T, ?> field : fields.values()) {
+            Object value = field.getter.apply(settings);
+
+            if (value == null) {
+                continue;
+            }
+
+            builder.append(first ? "\n  " : ",\n  ");
+
+            first = false;
+
+            Json.writeString(builder, field.name);
+
+            builder.append(": ");
+
+            writeValue(builder, value);
+        }
+
+        return builder.append(first ? "}" : "\n}").toString();
+    }
+
+    // Копия настроек: новый объект с теми же значениями всех описанных полей.
+    public T copy(T settings) {
+        T copy = defaults.get();
+
+        for (Field<T, ?> field : fields.values()) {
+            field.copy(settings, copy);
+        }
+
+        return copy;
+    }
+
+    // Копирует значение одного поля.
+    public void copy(String name, T from, T to) {
+        Field<T, ?> field = fields.get(name);
+
+        if (field == null) {
+            throw new IllegalArgumentException("unknown setting " + name);
+        }
+
+        field.copy(from, to);
+    }
+
+    // Имена полей, значения которых различаются, в порядке описания.
+    public List<String> differences(T a, T b) {
+        List<String> names = new ArrayList<>();
+
+        for (Field<T, ?> field : fields.values()) {
+            if (!Objects.deepEquals(field.getter.apply(a), field.getter.apply(b))) {
+                names.add(field.name);
+            }
+        }
+
+        return names;
+    }
+
+    private static void writeValue(StringBuilder builder, Object value) {
+        if (value instanceof String string) {
+            Json.writeString(builder, string);
+        } else if (value instanceof Enum<?> constant) {
+            Json.writeString(builder, constant.name());
+        } else if (value instanceof String[] array) {
+            if (array.length == 0) {
+                builder.append("[]");
+
+                return;
+            }
+
+            builder.append('[');
+
+            for (int i = 0; i < array.length; i++) {
+                builder.append(i == 0 ? "\n    " : ",\n    ");
+
+                Json.writeString(builder, array[i]);
+            }
+
+            builder.append("\n  ]");
+        } else {
+            builder.append(value);
+        }
+    }
+
+    private static long integer(String name, Object json, long min, long max) {
+        long value;
+
+        if (json instanceof Long number) {
+            value = number;
+        } else if (json instanceof Double number && number == Math.rint(number) && Math.abs(number) < 0x1p63) {
+            // 1e6 или 100.0 - тоже целые.
+            value = number.longValue();
+        } else {
+            throw invalid(name, "an integer", json);
+        }
+
+        if (value < min || value > max) {
+            throw invalid(name, "an integer from " + min + " to " + max, json);
+        }
+
+        return value;
+    }
+
+    private static String string(String name, Object json) {
+        if (!(json instanceof String value)) {
+            throw invalid(name, "a string", json);
+        }
+
+        return value;
+    }
+
+    private static IllegalArgumentException invalid(String name, String expected, Object json) {
+        return new IllegalArgumentException(String.format("setting '%s' must be %s, got %s", name, expected, json));
+    }
+}
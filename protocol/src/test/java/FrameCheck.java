@@ -0,0 +1,86 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class FrameCheck {
+    @Test
+    public void checkFrameIsDecodedOnlyWhenComplete() throws Exception {
+        byte[] encoded = Frame.encode(Frame.TEXT, 7, "первая строка\nвторая строка");
+        ByteBuffer buffer = ByteBuffer.allocate(encoded.length);
+        Frame frame = new Frame();
+
+        // Кадр приходит по частям: пока он не получен целиком, буфер не трогается.
+        for (int i = 0; i < encoded.length - 1; i++) {
+            buffer.put(encoded[i]);
+            buffer.flip();
+
+            Assertions.assertFalse(frame.decode(buffer));
+            Assertions.assertEquals(0, buffer.position());
+
+            buffer.position(buffer.limit()).limit(buffer.capacity());
+        }
+
+        buffer.put(encoded[encoded.length - 1]);
+        buffer.flip();
+
+        Assertions.assertTrue(frame.decode(buffer));
+        Assertions.assertFalse(buffer.hasRemaining());
+        Assertions.assertEquals(Frame.TEXT, frame.type);
+        Assertions.assertEquals(7, frame.senderId);
+        Assertions.assertEquals("первая строка\nвторая строка", frame.payload);
+
+        Frame read = new Frame();
+
+        read.read(new DataInputStream(new ByteArrayInputStream(encoded)));
+
+        Assertions.assertEquals(frame.payload, read.payload);
+        Assertions.assertEquals(frame.senderId, read.senderId);
+    }
+
+    @Test
+    public void checkTooLongFrameIsRejected() {
+        ByteBuffer buffer = ByteBuffer.allocate(4).putInt(Frame.MAX_LENGTH + 1).flip();
+
+        Assertions.assertThrows(ProtocolException.class, () -> new Frame().decode(buffer));
+    }
+
+    @Test
+    public void checkSequenceIsAttachedToFollowingText() throws Exception {
+        byte[] room = "dev".getBytes(StandardCharsets.UTF_8);
+        byte[] text = Frame.encode(Frame.TEXT, 3, "[dev] a: hi");
+        ByteBuffer encoded = ByteBuffer.allocate(Frame.encodedSequenceLength(room.length) + text.length + Frame.HEADER_LENGTH + 1);
+
+        Frame.encodeSequence(encoded, 42, room);
+        encoded.put(text);
+        Frame.encodeHeader(encoded, Frame.TEXT, 0, 1);
+        encoded.put((byte) 'x');
+
+        MessageDecoder decoder = new MessageDecoder(LineDecoder.DEFAULT_MAX_LINE_LENGTH);
+        InputStream input = new ByteArrayInputStream(encoded.array());
+
+        // Кадры приходят по одному байту: номер должен дождаться своего сообщения.
+        String message = null;
+
+        while (message == null) {
+            Assertions.assertTrue(decoder.readFrom(new ByteArrayInputStream(new byte[]{(byte) input.read()})));
+
+            message = decoder.next(Protocol.BINARY);
+        }
+
+        Assertions.assertEquals("[dev] a: hi", message);
+        Assertions.assertEquals(42, decoder.sequence());
+        Assertions.assertEquals("dev", decoder.sequenceRoom());
+
+        decoder.readFrom(input);
+
+        Assertions.assertEquals("x", decoder.next(Protocol.BINARY));
+        Assertions.assertEquals(0, decoder.sequence());
+        Assertions.assertNull(decoder.sequenceRoom());
+    }
+}
@@ -0,0 +1,86 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+public class FrameCompressorCheck {
+    @Test
+    public void checkCompressedFramesAreDecodedInOrder() throws Exception {
+        FrameCompressor compressor = new FrameCompressor(32);
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        int[] compressedLengths = new int[3];
+
+        for (int i = 0; i < 3; i++) {
+            byte[] frame = Frame.encode(Frame.TEXT, 5, "alice: the quick brown fox jumps over the lazy dog " + i);
+            byte[] compressed = compressor.compress(ByteBuffer.wrap(frame));
+
+            compressedLengths[i] = compressed.length;
+            wire.writeBytes(compressed);
+        }
+
+        // Короткий кадр идёт как есть.
+        Assertions.assertFalse(compressor.accepts(Frame.encode(Frame.TEXT, 0, "hi").length));
+        wire.writeBytes(Frame.encode(Frame.TEXT, 0, "hi"));
+
+        // Следующие сообщения ссылаются на первое и сжимаются намного лучше.
+        Assertions.assertTrue(compressedLengths[1] < compressedLengths[0] / 2, compressedLengths[1] + " bytes");
+
+        MessageDecoder decoder = new MessageDecoder(LineDecoder.DEFAULT_MAX_LINE_LENGTH);
+
+        decoder.readFrom(new ByteArrayInputStream(wire.toByteArray()));
+
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals("alice: the quick brown fox jumps over the lazy dog " + i, decoder.next(Protocol.BINARY));
+            Assertions.assertEquals(5, decoder.senderId());
+        }
+
+        Assertions.assertEquals("hi", decoder.next(Protocol.BINARY));
+        Assertions.assertNull(decoder.next(Protocol.BINARY));
+
+        compressor.end();
+
+        Assertions.assertNull(compressor.compress(ByteBuffer.wrap(Frame.encode(Frame.TEXT, 0, "after end"))));
+    }
+
+    @Test
+    public void checkLargeBatchOfFramesIsDecompressed() throws Exception {
+        ByteBuffer frames = ByteBuffer.allocate(1 << 18);
+        int count = 0;
+
+        while (frames.remaining() > 100) {
+            frames.put(Frame.encode(Frame.TEXT, 0, "message number " + count++));
+        }
+
+        byte[] compressed = new FrameCompressor(0).compress(frames.flip());
+        MessageDecoder decoder = new MessageDecoder(LineDecoder.DEFAULT_MAX_LINE_LENGTH);
+
+        ByteArrayInputStream input = new ByteArrayInputStream(compressed);
+
+        // Сжатый кадр длиннее начального буфера декодера.
+        while (decoder.readFrom(input)) {
+        }
+
+        for (int i = 0; i < count; i++) {
+            Assertions.assertEquals("message number " + i, decoder.next(Protocol.BINARY));
+        }
+
+        Assertions.assertNull(decoder.next(Protocol.BINARY));
+    }
+
+    @Test
+    public void checkCorruptedFrameIsRejected() throws Exception {
+        byte[] garbage = {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff};
+        ByteBuffer frame = ByteBuffer.allocate(Frame.encodedLength(garbage.length));
+
+        Frame.encode(frame, Frame.DEFLATE, 0, garbage);
+
+        MessageDecoder decoder = new MessageDecoder(LineDecoder.DEFAULT_MAX_LINE_LENGTH);
+
+        decoder.readFrom(new ByteArrayInputStream(frame.array()));
+
+        Assertions.assertThrows(ProtocolException.class, () -> decoder.next(Protocol.BINARY));
+    }
+}
@@ -0,0 +1,42 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class LineDecoderCheck {
+    @Test
+    public void checkLinesAreSplitAcrossReads() throws Exception {
+        // Строки разной длины, чтобы перевод строки попадал в разные байты 8-байтовых слов.
+        String text = "a\r\nпривет, мир\n\nsixteen chars ok\nlast line without newline";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length).flip();
+        LineDecoder decoder = new LineDecoder(100);
+        StringBuilder decoded = new StringBuilder();
+
+        // Данные приходят по 3 байта, в том числе посреди многобайтовых символов.
+        for (int i = 0; i < bytes.length; i += 3) {
+            buffer.compact().put(bytes, i, Math.min(3, bytes.length - i)).flip();
+
+            for (String line = decoder.decode(buffer); line != null; line = decoder.decode(buffer)) {
+                decoded.append(line).append('|');
+            }
+        }
+
+        Assertions.assertEquals("a|привет, мир||sixteen chars ok|", decoded.toString());
+        Assertions.assertEquals("last line without newline", StandardCharsets.UTF_8.decode(buffer).toString());
+    }
+
+    @Test
+    public void checkTooLongLineIsRejected() throws Exception {
+        LineDecoder decoder = new LineDecoder(10);
+        ByteBuffer buffer = ByteBuffer.wrap("0123456789".getBytes(StandardCharsets.UTF_8));
+
+        Assertions.assertNull(decoder.decode(buffer));
+
+        ByteBuffer longer = ByteBuffer.wrap("0123456789x".getBytes(StandardCharsets.UTF_8));
+
+        Assertions.assertThrows(ProtocolException.class, () -> decoder.decode(longer));
+    }
+}
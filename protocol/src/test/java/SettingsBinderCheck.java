@@ -0,0 +1,56 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class SettingsBinderCheck {
+    private static class Sample {
+        public int port = 4444;
+        public double rate = 50;
+        public String path = "log.txt";
+        public String[] peers = {};
+        public Protocol protocol = Protocol.LINES;
+        public boolean enabled = true;
+    }
+
+    private static final SettingsBinder<Sample> BINDER = new SettingsBinder<>(Sample::new)
+            .intField("port", s -> s.port, (s, v) -> s.port = v)
+            .doubleField("rate", s -> s.rate, (s, v) -> s.rate = v)
+            .stringField("path", s -> s.path, (s, v) -> s.path = v)
+            .stringArrayField("peers", s -> s.peers, (s, v) -> s.peers = v)
+            .enumField("protocol", Protocol.values(), s -> s.protocol, (s, v) -> s.protocol = v)
+            .booleanField("enabled", s -> s.enabled, (s, v) -> s.enabled = v);
+
+    @Test
+    public void checkWrittenSettingsAreReadBack() {
+        Sample written = new Sample();
+
+        written.port = 999;
+        written.rate = 0.5;
+        written.path = "dir/\"quoted\" \\ file";
+        written.peers = new String[]{"host1:5555", "host2:5555"};
+        written.protocol = Protocol.BINARY;
+        written.enabled = false;
+
+        Sample read = BINDER.parse(BINDER.toJson(written));
+
+        Assertions.assertEquals(List.of(), BINDER.differences(written, read));
+        Assertions.assertEquals(List.of("port", "protocol"), BINDER.differences(new Sample(), BINDER.parse("""
+                {"port": 1e3, "protocol": "BINARY", "unknown": [1, {"a": null}]}
+                """)));
+    }
+
+    @Test
+    public void checkInvalidValuesAreRejected() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BINDER.parse("{\"port\": 1.5}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BINDER.parse("{\"port\": 3000000000}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BINDER.parse("{\"enabled\": \"yes\"}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BINDER.parse("{\"protocol\": \"XML\"}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BINDER.parse("{\"protocol\": null}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BINDER.parse("{\"path\": null}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BINDER.parse("{\"peers\": null}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BINDER.parse("{\"peers\": [\"host1:5555\", null]}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BINDER.parse("{\"port\": 1,}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BINDER.parse("[]"));
+    }
+}
@@ -0,0 +1,507 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Поток рассылки, обслуживающий часть комнат чата.
+
+Комнаты распределяются между шардами по хэшу имени. У каждого шарда своя очередь событий и свои комнаты
+с составом участников, поэтому рассылка в разные комнаты идёт параллельно, и оживлённая комната
+не задерживает остальные. Вход в комнату и выход из неё тоже проходят через очередь шарда - так
+его поток единственный, кто меняет состав комнат, а сообщения и изменения состава комнаты
+упорядочены между собой.
+
+Каждому сообщению комнаты шард присваивает номер (общий для всех комнат счётчик или номер в журнале):
+в двоичном протоколе номер уходит клиентам вместе с сообщением, и переподключившийся клиент может
+попросить только сообщения после последнего полученного (см. join).
+
+Шард хранит историю своих комнат (см. MessageHistory) и отправляет её клиенту, вошедшему в комнату.
+Хранение истории не зависит от того, есть ли кто-нибудь в комнате: комната без участников (и без
+незакончившихся сессий вышедших участников, см. suspend и release) остаётся вместе с историей и принимает
+новые сообщения в неё. Истории таких комнат ограничены общим бюджетом idleHistoryBytes: при превышении
+удаляются комнаты, дольше всех не получавшие ни участников, ни сообщений. Комната без истории удаляется,
+как только опустеет, а комната по умолчанию (ChatServer.DEFAULT_ROOM) не удаляется никогда - её история
+ограничена только собственным кольцом. Если включён журнал (см. MessageJournal), шард ставит в него
+каждое разосланное сообщение, а при запуске сервера истории комнат восстанавливаются из журнала (restore).
+
+Сообщения клиентов ставятся в очередь через trySend: их в очереди шарда не больше ingressCapacity,
+и если клиенты присылают сообщения быстрее, чем шард их рассылает, новые не принимаются (что делать
+с ними, решает ChatServer - см. Settings.backpressurePolicy). Вход, выход и сообщения самого сервера
+не ограничиваются: их число определяется числом подключений, которое ограничено отдельно.
+
+События шард забирает из очереди пачками - до batchSize уже пришедших, подождав недостающие не дольше
+lingerNanos (по умолчанию не ждёт). Сообщения пачки раскладываются по очередям получателей без пробуждения
+их писателей, а писатели будятся один раз в конце пачки, так что под нагрузкой каждый получатель
+получает всю пачку одной собирающей записью, а не отдельным системным вызовом (и пакетом) на сообщение.
+Ожидание добавляет задержку, но ещё сильнее сокращает число записей.
+
+Сообщения для всех клиентов чата (не для комнаты) перебирают общий реестр ChatServer; их рассылает
+шард комнаты по умолчанию, чтобы они шли в том же порядке, что и сообщения этой комнаты.
+
+При остановке сервера шард сначала рассылает всё, что уже стоит в его очереди (drainAndStop), и только
+если не успевает к сроку, останавливается принудительно (stop).
+*/
+class BroadcastShard {
+    private enum Kind {
+        JOIN,
+        LEAVE,
+        // Выход участника, сессия которого сохранена (см. suspend).
+        SUSPEND,
+        // Сессия вышедшего участника закончилась (см. release).
+        RELEASE,
+        // Сообщение участникам комнаты.
+        MESSAGE,
+        // Сообщение всем клиентам чата.
+        EVERYONE,
+        // Остановка после рассылки всего, что было в очереди раньше (см. drainAndStop).
+        STOP
+    }
+
+    // Событие очереди шарда. Сообщение кодируется потоком шарда один раз для каждого протокола,
+    // пока идёт рассылка, удерживается одна ссылка на каждую кодировку.
+    private static class Event {
+        public final Kind kind;
+        public final String room;
+        // Входящий или выходящий клиент, для сообщений - отправитель, которому сообщение не отсылается.
+        public final ClientConnection client;
+        public final String message;
+        // Сообщение клиента, учтённое в ingressCapacity.
+        public boolean fromClient;
+        // Для сообщений комнаты - номер сообщения, для входа в комнату - номер последнего сообщения
+        // комнаты, полученного клиентом раньше.
+        public long sequence;
+        public EncodedMessage asLine;
+        public EncodedMessage asFrame;
+
+        public Event(Kind kind, String room, ClientConnection client, String message) {
+            this.kind = kind;
+            this.room = room;
+            this.client = client;
+            this.message = message;
+        }
+
+        public EncodedMessage encodedFor(Protocol protocol, BufferPool pool) {
+            if (protocol == Protocol.BINARY) {
+                if (asFrame == null) {
+                    int senderId = client == null ? 0 : client.id;
+
+                    asFrame = sequence > 0
+                            ? EncodedMessage.encodeSequencedFrame(sequence, room, senderId, message, pool)
+                            : EncodedMessage.encodeFrame(senderId, message, pool);
+                }
+
+                return asFrame;
+            }
+
+            if (asLine == null) {
+                asLine = EncodedMessage.encode(message, pool);
+            }
+
+            return asLine;
+        }
+
+        public void release() {
+            if (asLine != null) {
+                asLine.release();
+            }
+
+            if (asFrame != null) {
+                asFrame.release();
+            }
+        }
+    }
+
+    private final ClientRegistry everyone;
+    private final BufferPool bufferPool;
+    private final int historySize;
+    private final int historyBytes;
+    // Бюджет историй комнат без участников (кроме комнаты по умолчанию) и сколько из него занято.
+    private final int idleHistoryBytes;
+    private int idleBytes;
+    // Меняется на ходу вместе с настройками сервера (см. ChatServer.reconfigure).
+    private volatile int ingressCapacity;
+    private final int batchSize;
+    private final long lingerNanos;
+    // Сообщения клиентов, поставленные в очередь и ещё не разосланные.
+    private final AtomicInteger pendingClientMessages;
+    // null - журнал выключен, тогда номера сообщений берутся из общего счётчика.
+    private final MessageJournal journal;
+    private final AtomicLong sequences;
+    private final ServerMetrics metrics;
+    private final LinkedBlockingQueue<Event> events;
+    private final Map<String, Room> rooms;
+    // Комнаты без участников, которые хранятся ради истории, - в порядке последнего обращения,
+    // первой вытесняется самая давняя.
+    private final LinkedHashMap<String, Room> idleRooms;
+    // Получатели сообщений текущей пачки, писателей которых надо разбудить.
+    private final Set<ClientConnection> recipients;
+    // В пачке больше одного события - писателей будим в конце пачки, иначе сразу.
+    private boolean coalescing;
+    private final Thread thread;
+
+    BroadcastShard(
+            ClientRegistry everyone,
+            BufferPool bufferPool,
+            int historySize,
+            int historyBytes,
+            int idleHistoryBytes,
+            int ingressCapacity,
+            int batchSize,
+            long lingerNanos,
+            MessageJournal journal,
+            AtomicLong sequences,
+            ServerMetrics metrics,
+            String threadName
+    ) {
+        this.everyone = everyone;
+        this.bufferPool = bufferPool;
+        this.historySize = historySize;
+        this.historyBytes = historyBytes;
+        this.idleHistoryBytes = idleHistoryBytes;
+        this.ingressCapacity = ingressCapacity;
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerNanos = lingerNanos;
+        this.journal = journal;
+        this.sequences = sequences;
+        this.metrics = metrics;
+
+        pendingClientMessages = new AtomicInteger();
+        events = new LinkedBlockingQueue<>();
+        rooms = new HashMap<>();
+        idleRooms = new LinkedHashMap<>();
+        recipients = new HashSet<>();
+        thread = new Thread(this::run, threadName);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    // Останавливает поток, не дожидаясь рассылки оставшихся в очереди сообщений.
+    void stop() {
+        thread.interrupt();
+    }
+
+    // Останавливает поток, когда он разошлёт всё, что уже стоит в очереди.
+    void drainAndStop() {
+        events.add(new Event(Kind.STOP, null, null, null));
+    }
+
+    void join() throws InterruptedException {
+        thread.join();
+    }
+
+    // Ждёт остановки потока не дольше timeoutMillis. Возвращает false, если поток ещё работает.
+    boolean join(long timeoutMillis) throws InterruptedException {
+        thread.join(Math.max(1, timeoutMillis));
+
+        return !thread.isAlive();
+    }
+
+    // Число сообщений, оставшихся в очереди неразосланными. Имеет смысл после остановки потока.
+    int undeliveredMessages() {
+        int count = 0;
+
+        for (Event event : events) {
+            if (event.kind == Kind.MESSAGE || event.kind == Kind.EVERYONE) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    // Число событий, ждущих в очереди шарда.
+    int queueDepth() {
+        return events.size();
+    }
+
+    // Добавляет сообщение из журнала в историю комнаты. Вызывается только до start().
+    void restore(String room, long sequence, int senderId, String message) {
+        Room restored = rooms.computeIfAbsent(room, this::newRoom);
+
+        if (restored.history != null) {
+            restored.history.add(sequence, senderId, message);
+        }
+
+        retainIfIdle(restored);
+    }
+
+    // Добавляет клиента в комнату. Клиенту отправляются сообщения из истории комнаты с номерами
+    // больше afterSequence (0 - вся история).
+    void join(ClientConnection client, String room, long afterSequence) throws InterruptedException {
+        Event event = new Event(Kind.JOIN, room, client, null);
+
+        event.sequence = afterSequence;
+
+        events.put(event);
+    }
+
+    void leave(ClientConnection client, String room) throws InterruptedException {
+        events.put(new Event(Kind.LEAVE, room, client, null));
+    }
+
+    // Убирает из комнаты клиента с сохранённой сессией: комната и её история остаются,
+    // пока для каждого такого клиента не будет вызван release.
+    void suspend(ClientConnection client, String room) throws InterruptedException {
+        events.put(new Event(Kind.SUSPEND, room, client, null));
+    }
+
+    // Сессия клиента, убранного из комнаты через suspend, продолжена или истекла.
+    void release(String room) throws InterruptedException {
+        events.put(new Event(Kind.RELEASE, room, null, null));
+    }
+
+    // Рассылает сообщение клиента участникам комнаты, кроме него самого. Возвращает false, если в очереди
+    // уже ingressCapacity сообщений клиентов, и сообщение не принято.
+    boolean trySend(String room, ClientConnection sender, String message) throws InterruptedException {
+        if (pendingClientMessages.incrementAndGet() > ingressCapacity) {
+            pendingClientMessages.decrementAndGet();
+
+            return false;
+        }
+
+        Event event = new Event(Kind.MESSAGE, room, sender, message);
+
+        event.fromClient = true;
+
+        events.put(event);
+
+        return true;
+    }
+
+    void setIngressCapacity(int ingressCapacity) {
+        this.ingressCapacity = ingressCapacity;
+    }
+
+    // Заполнена ли очередь сообщений клиентов.
+    boolean isFull() {
+        return pendingClientMessages.get() >= ingressCapacity;
+    }
+
+    // Рассылает сообщение участникам комнаты, кроме отправителя (можно указать null).
+    void send(String room, ClientConnection sender, String message) throws InterruptedException {
+        events.put(new Event(Kind.MESSAGE, room, sender, message));
+    }
+
+    // Рассылает сообщение всем клиентам чата, кроме отправителя (можно указать null).
+    void sendToEveryone(ClientConnection sender, String message) throws InterruptedException {
+        events.put(new Event(Kind.EVERYONE, null, sender, message));
+    }
+
+    private void run() {
+        List<Event> batch = new ArrayList<>(batchSize);
+        boolean isStopping = false;
+
+        while (!isStopping) {
+            try {
+                takeBatch(batch);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            coalescing = batch.size() > 1;
+
+            for (Event event : batch) {
+                if (event.kind == Kind.STOP) {
+                    isStopping = true;
+                } else {
+                    process(event);
+                }
+            }
+
+            batch.clear();
+
+            // Писатели получателей просыпаются один раз на пачку и отправляют всё одной записью.
+            for (ClientConnection client : recipients) {
+                client.messageQueued();
+            }
+
+            recipients.clear();
+        }
+    }
+
+    // Забирает из очереди пачку событий: ждёт первое, добирает уже пришедшие, и если их меньше batchSize,
+    // ждёт остальные ещё не дольше lingerNanos.
+    private void takeBatch(List<Event> batch) throws InterruptedException {
+        batch.add(events.take());
+
+        events.drainTo(batch, batchSize - batch.size());
+
+        long deadline = System.nanoTime() + lingerNanos;
+
+        try {
+            for (long left = lingerNanos; left > 0 && batch.size() < batchSize; left = deadline - System.nanoTime()) {
+                Event next = events.poll(left, TimeUnit.NANOSECONDS);
+
+                if (next == null) {
+                    break;
+                }
+
+                batch.add(next);
+
+                events.drainTo(batch, batchSize - batch.size());
+            }
+        } catch (InterruptedException e) {
+            // Уже взятые события обработаем, а остановимся на следующем take().
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void process(Event event) {
+        switch (event.kind) {
+            case JOIN -> addMember(event.client, event.room, event.sequence);
+            case LEAVE -> removeMember(event.client, event.room, false);
+            case SUSPEND -> removeMember(event.client, event.room, true);
+            case RELEASE -> {
+                Room room = rooms.get(event.room);
+
+                if (room != null && room.suspendedMembers > 0) {
+                    room.suspendedMembers--;
+
+                    retainIfIdle(room);
+                }
+            }
+            case MESSAGE -> {
+                long start = metrics.startTimer();
+
+                // Сообщение в комнату без участников тоже остаётся в её истории.
+                Room room = rooms.computeIfAbsent(event.room, this::newRoom);
+
+                event.sequence = record(event.room, event);
+
+                for (ClientConnection client : room.members) {
+                    deliver(event, client);
+                }
+
+                if (room.history != null) {
+                    room.history.add(event.sequence, event.client == null ? 0 : event.client.id, event.message);
+                }
+
+                retainIfIdle(room);
+
+                metrics.broadcastFinished(start);
+            }
+            case EVERYONE -> {
+                long start = metrics.startTimer();
+
+                record("", event);
+
+                for (ClientConnection client : everyone.snapshot()) {
+                    deliver(event, client);
+                }
+
+                metrics.broadcastFinished(start);
+            }
+        }
+
+        event.release();
+
+        if (event.fromClient) {
+            pendingClientMessages.decrementAndGet();
+        }
+    }
+
+    // Добавляет клиента в комнату и отправляет ему историю комнаты после afterSequence - одним сообщением,
+    // раньше любых новых сообщений комнаты.
+    private void addMember(ClientConnection client, String name, long afterSequence) {
+        Room room = rooms.computeIfAbsent(name, this::newRoom);
+
+        forgetIdle(room);
+
+        if (room.members.add(client) && room.history != null) {
+            EncodedMessage history = room.history.encode(client.protocol, name, afterSequence);
+
+            if (history != null) {
+                client.send(history);
+
+                history.release();
+            }
+        }
+    }
+
+    private void removeMember(ClientConnection client, String name, boolean isSuspended) {
+        Room room = rooms.get(name);
+
+        if (room == null || !room.members.remove(client)) {
+            return;
+        }
+
+        if (isSuspended) {
+            room.suspendedMembers++;
+        }
+
+        retainIfIdle(room);
+    }
+
+    // Решает судьбу комнаты без участников: комната по умолчанию остаётся всегда, комната без истории
+    // удаляется, остальные хранятся, пока их истории помещаются в idleHistoryBytes. Повторный вызов
+    // для той же комнаты (новое сообщение в неё) пересчитывает её объём и делает её самой свежей.
+    private void retainIfIdle(Room room) {
+        if (!room.isIdle() || room.name.equals(ChatServer.DEFAULT_ROOM)) {
+            return;
+        }
+
+        forgetIdle(room);
+
+        if (!room.hasHistory()) {
+            rooms.remove(room.name);
+
+            return;
+        }
+
+        room.idleBytes = room.history.bytes();
+        idleBytes += room.idleBytes;
+        idleRooms.put(room.name, room);
+
+        for (Iterator<Room> oldest = idleRooms.values().iterator(); idleBytes > idleHistoryBytes && oldest.hasNext(); ) {
+            Room evicted = oldest.next();
+
+            oldest.remove();
+            idleBytes -= evicted.idleBytes;
+            rooms.remove(evicted.name);
+        }
+    }
+
+    private void forgetIdle(Room room) {
+        if (idleRooms.remove(room.name) != null) {
+            idleBytes -= room.idleBytes;
+        }
+    }
+
+    private Room newRoom(String name) {
+        return new Room(name, historySize, historyBytes);
+    }
+
+    // Пишет сообщение в журнал, если он включён, и возвращает номер сообщения.
+    private long record(String room, Event event) {
+        if (journal != null) {
+            return journal.append(room, event.client == null ? 0 : event.client.id, event.message);
+        }
+
+        return sequences.incrementAndGet();
+    }
+
+    private void deliver(Event event, ClientConnection client) {
+        if (client.equals(event.client)) {
+            return;
+        }
+
+        EncodedMessage message = event.encodedFor(client.protocol, bufferPool);
+
+        if (!coalescing) {
+            client.send(message);
+        } else if (client.queue(message)) {
+            recipients.add(client);
+        }
+    }
+}
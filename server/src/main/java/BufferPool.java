@@ -0,0 +1,47 @@
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Пул прямых буферов одного размера для закодированных сообщений (см. EncodedMessage).
+// Буферы берутся и возвращаются из разных потоков. Если свободных буферов нет, выделяется новый;
+// сверх maxPooled возвращённые буферы не хранятся и остаются сборщику мусора.
+public class BufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> free;
+    private final AtomicInteger freeCount;
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+
+        free = new ConcurrentLinkedQueue<>();
+        freeCount = new AtomicInteger();
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    // Возвращает пустой буфер, готовый к записи.
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        freeCount.decrementAndGet();
+
+        return buffer.clear();
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (freeCount.incrementAndGet() <= maxPooled) {
+            free.add(buffer);
+        } else {
+            freeCount.decrementAndGet();
+        }
+    }
+}
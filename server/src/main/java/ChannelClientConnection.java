@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Подключение клиента для движка NIO. Канал неблокирующий, читает и пишет в него только
+// поток SelectorLoop, к которому подключение привязано - он же и писатель, разбирающий
+// очередь исходящих. Остальные потоки (например, рассылка) лишь складывают сообщения
+// в очередь и просят поток селектора их дописать. Накопившиеся сообщения пишутся одной
+// собирающей записью прямо из их буферов.
+public class ChannelClientConnection extends ClientConnection {
+    private static final int MAX_GATHERED_MESSAGES = 64;
+
+    private final SocketChannel channel;
+    private final SelectorLoop loop;
+    private final AtomicBoolean flushRequested;
+    private final MessageDecoder incoming;
+    // Сообщения, взятые из очереди, но ещё не записанные в канал целиком, и их буферы.
+    private final EncodedMessage[] writing;
+    private final ByteBuffer[] writingBuffers;
+    private int writingCount;
+    private boolean isOutputShutdown;
+    private SelectionKey key;
+    // Пока чтение приостановлено (см. ChatServer.admit), канал не читается, а сообщение,
+    // которое не удалось принять, ждёт здесь.
+    private boolean readingPaused;
+    private String pausedMessage;
+    private long resumeAtNanos;
+
+    ChannelClientConnection(
+            SocketChannel channel,
+            SelectorLoop loop,
+            int outgoingQueueCapacity,
+            Settings.OverflowPolicy overflowPolicy,
+            int maxLineLength,
+            ServerMetrics metrics
+    ) {
+        super(outgoingQueueCapacity, overflowPolicy, metrics);
+
+        this.channel = channel;
+        this.loop = loop;
+
+        flushRequested = new AtomicBoolean();
+        incoming = new MessageDecoder(maxLineLength);
+        writing = new EncodedMessage[MAX_GATHERED_MESSAGES];
+        writingBuffers = new ByteBuffer[MAX_GATHERED_MESSAGES];
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    @Override
+    protected void messageQueued() {
+        if (flushRequested.compareAndSet(false, true)) {
+            loop.requestFlush(this);
+        }
+    }
+
+    @Override
+    protected void requestDisconnect() {
+        // Закрыть канал должен поток селектора: он увидит причину (isSlowConsumer() и т.п.) при дописывании.
+        loop.requestFlush(this);
+    }
+
+    // Читает из канала всё, что доступно. Возвращает false, если клиент закрыл соединение.
+    // Полученные сообщения затем забираются через nextMessage().
+    boolean readAvailable() throws IOException {
+        dataReceived();
+
+        return incoming.readFrom(channel);
+    }
+
+    // Возвращает следующее полученное целиком сообщение или null, если такого нет.
+    // Сообщения разбираются по одному, чтобы смена протокола действовала уже на следующее.
+    String nextMessage() throws ProtocolException {
+        return incoming.next(protocol);
+    }
+
+    // Приостанавливает чтение канала до resumeAtNanos; message будет обработано первым после возобновления.
+    void pauseReading(String message, long resumeAtNanos) {
+        this.resumeAtNanos = resumeAtNanos;
+
+        readingPaused = true;
+        pausedMessage = message;
+
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+    }
+
+    long resumeAtNanos() {
+        return resumeAtNanos;
+    }
+
+    // Возобновляет чтение и возвращает отложенное сообщение.
+    String resumeReading() {
+        String message = pausedMessage;
+
+        readingPaused = false;
+        pausedMessage = null;
+
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+
+        return message;
+    }
+
+    // Дописывает в канал сообщения из очереди исходящих. Если канал принял не всё,
+    // подписывается на готовность к записи, чтобы продолжить позже. Дописав очередь после
+    // sendAndClose, закрывает передачу.
+    void flush() throws IOException {
+        flushRequested.set(false);
+
+        // Флаг читается до очереди: если он уже стоит, в очереди и последнее сообщение.
+        boolean closing = isClosing();
+
+        while (true) {
+            while (writingCount < MAX_GATHERED_MESSAGES) {
+                EncodedMessage next = pollOutgoing();
+
+                if (next == null) {
+                    break;
+                }
+
+                writing[writingCount] = next;
+                writingBuffers[writingCount] = next.content();
+                writingCount++;
+            }
+
+            if (writingCount == 0) {
+                key.interestOps(readOps());
+
+                if (closing && !isOutputShutdown) {
+                    isOutputShutdown = true;
+
+                    channel.shutdownOutput();
+                }
+
+                return;
+            }
+
+            channel.write(writingBuffers, 0, writingCount);
+
+            releaseWritten();
+
+            if (writingCount > 0) {
+                key.interestOps(readOps() | SelectionKey.OP_WRITE);
+
+                return;
+            }
+        }
+    }
+
+    private int readOps() {
+        return readingPaused ? 0 : SelectionKey.OP_READ;
+    }
+
+    // Отпускает полностью записанные сообщения и сдвигает оставшиеся в начало массива.
+    private void releaseWritten() {
+        int written = 0;
+        long bytes = 0;
+
+        while (written < writingCount && !writingBuffers[written].hasRemaining()) {
+            bytes += writing[written].length();
+
+            writing[written].release();
+
+            written++;
+        }
+
+        if (written > 0) {
+            metrics.messagesSent(written, bytes);
+        }
+
+        System.arraycopy(writing, written, writing, 0, writingCount - written);
+        System.arraycopy(writingBuffers, written, writingBuffers, 0, writingCount - written);
+
+        for (int i = writingCount - written; i < writingCount; i++) {
+            writing[i] = null;
+            writingBuffers[i] = null;
+        }
+
+        writingCount -= written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+
+        for (int i = 0; i < writingCount; i++) {
+            writing[i].release();
+
+            writing[i] = null;
+            writingBuffers[i] = null;
+        }
+
+        writingCount = 0;
+
+        if (key != null) {
+            key.cancel();
+        }
+
+        channel.close();
+    }
+}
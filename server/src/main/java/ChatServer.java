@@ -1,105 +1,418 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.channels.ClosedByInterruptException;
-import java.util.HashSet;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /*
 Сервер работает следующим образом:
 
-Создаются два потока: для принятия новых подключений и для отправки сообщений.
+Создаются поток для принятия новых подключений и потоки для отправки сообщений.
 Также для каждого нового клиента создаётся по потоку для чтения сообщений.
 Каждое отправляемое сообщение попадает в очередь, которую разбирает поток для их отправки.
 После подключения сокет попадает в коллекцию, которая перебирается при рассылке сообщений,
-после отключения он от туда удаляется.
+после отключения он от туда удаляется. Поток рассылки не пишет в сокеты сам, а раскладывает
+сообщения по ограниченным очередям клиентов, которые разбирают их собственные писатели
+(см. ClientConnection), поэтому один медленный клиент не задерживает остальных.
+
+Коллекция клиентов (см. ClientRegistry) не требует блокировок: присоединение и выход клиентов
+идут параллельно, а рассылка перебирает неизменяемый снимок.
+
+Так работает движок THREADS (движок выбирается в Settings.engine). Движок VIRTUAL_THREADS устроен
+так же, но клиентов обслуживают виртуальные потоки, поэтому простаивающий клиент не занимает поток ОС
+со своим стеком.
+
+В движке NIO вместо потока на клиента используется фиксированный набор потоков SelectorLoop
+(по умолчанию - по одному на ядро), каждый из которых обслуживает неблокирующие каналы своей части
+клиентов. Потоки рассылки и протокол общения у всех движков общие.
+
+Чат разделён на комнаты. Каждый клиент сначала попадает в комнату DEFAULT_ROOM, командами
+"/join <комната>", "/switch <комната>", "/leave [комната]" входит в другие комнаты, переключается
+между ними и выходит из них. Сообщение клиента получают участники его текущей комнаты.
+Комнаты распределены по хэшу имени между несколькими потоками рассылки (см. BroadcastShard)
+со своими очередями, поэтому рассылка в разные комнаты идёт параллельно.
+
+Никнеймы уникальны. Команда "/msg <никнейм> <текст>" отправляет личное сообщение одному клиенту:
+его находит индекс никнеймов реестра клиентов, и сообщение сразу ставится в очередь получателя.
+
+Каждое сообщение кодируется в байты один раз (см. EncodedMessage) - в прямой буфер из пула,
+и эти же байты пишутся в сокеты всех получателей, без перекодирования для каждого из них.
+
+Если задан каталог журнала (Settings.journalDirectory), разосланные сообщения пишутся на диск
+(см. MessageJournal), а при запуске сервера последние из них возвращаются в истории комнат.
+
+Клиент может попросить сессию командой "/session". Если его соединение потом оборвётся, сессия
+сохраняется на Settings.sessionTimeoutMillis (см. SuspendedSession): переподключившись, клиент
+вместо никнейма присылает "/resume <сессия> <комната>=<номер> ..." с номерами последних полученных
+сообщений комнат, возвращается в свои комнаты и получает из их историй только пропущенное.
+
+Сервер считает метрики (см. ServerMetrics): они видны через JMX под именем ChatServer:type=Metrics,port=<порт>
+и раз в Settings.metricsLogIntervalMillis пишутся в лог отдельным потоком.
+
+Сервер защищается от перегрузки: соединений не больше Settings.maxConnections, сообщения одного клиента
+ограничены по частоте (см. TokenBucket), а сообщений, ждущих рассылки, у каждого потока рассылки
+не больше Settings.ingressQueueCapacity. Сообщение, которое сейчас принять нельзя, сервер придерживает,
+перестав читать из сокета клиента, отклоняет или отключает клиента - см. Settings.backpressurePolicy и admit.
+
+Несколько серверов можно объединить в кластер (Settings.clusterPort, см. ClusterNode): всё, что сервер
+рассылает своим клиентам, он пересылает остальным серверам кластера, а полученное от них рассылает
+своим клиентам (deliverFromCluster).
+
+Все соединения присматривает один общий таймер (см. TimerWheel), а не отдельная задача или таймаут сокета
+на каждое: клиенту, молчащему дольше Settings.heartbeatIntervalMillis, уходит PING (см. Protocol.PING),
+а соединение, по которому ничего не приходит дольше Settings.idleTimeoutMillis, закрывается - так пропавший
+без разрыва соединения клиент не держит поток и не остаётся в рассылке. На этом же таймере истекают
+сохранённые сессии.
+
+Клиенты общаются с сервером строками или двоичными кадрами (см. Protocol, Frame); протокол
+согласуется первым сообщением клиента. Поэтому рассылаемое сообщение кодируется потоком рассылки
+отдельно для каждого протокола, но только если среди получателей есть его клиенты.
+
+Остановка сервера (stop, waitForStop) ограничена по времени Settings.shutdownTimeoutMillis: сервер перестаёт
+принимать соединения и сообщения клиентов, дожидается рассылки того, что уже стоит в очередях, оповещает
+клиентов и ждёт, пока они получат всё и закроют соединения. Оставшиеся к сроку соединения закрываются
+принудительно, а сколько сообщений при этом пропало, пишется в лог.
 */
 public class ChatServer {
 
-    // Класс, необходимый для того, чтобы, разбирая очередь отправляемых сообщений,
-    // не отослать сообщение его же отправителю.
-    private static class MessageWithSender {
-        public String message;
-        public ClientConnection sender;
+    // Размер буферов пула для закодированных сообщений и сколько свободных буферов в нём держать.
+    // Сообщения длиннее буфера кодируются в обычные буферы мимо пула.
+    private static final int MESSAGE_BUFFER_SIZE = 1024;
+    private static final int MAX_POOLED_BUFFERS = 4096;
 
-        public MessageWithSender(String message, ClientConnection sender) {
-            this.message = message;
-            this.sender = sender;
-        }
-    }
+    // Комната, в которую попадает каждый присоединившийся клиент. Выйти из неё нельзя.
+    public static final String DEFAULT_ROOM = "general";
+    private static final int MAX_ROOM_NAME_LENGTH = 32;
+    private static final int MAX_NICKNAME_LENGTH = 32;
 
-    private final Set<ClientConnection> clients;
-    private final LinkedBlockingQueue<MessageWithSender> messagesToSend;
-    private Thread messagesBroadcasting;
+    // Результаты admit(), кроме положительных - через сколько наносекунд повторить попытку.
+    static final long ADMITTED = 0;
+    static final long REJECTED = -1;
+    static final long DISCONNECT = -2;
+    // Через сколько повторить попытку, если заполнена очередь рассылки.
+    private static final long INGRESS_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final byte[] SERVER_FULL_MESSAGE = "server is full, try again later\n".getBytes(StandardCharsets.UTF_8);
+    private static final String SHUTDOWN_NOTICE = "server is shutting down";
+    // Тик и число ячеек колеса таймера: оборот колеса - около минуты.
+    private static final long TIMER_TICK_MILLIS = 100;
+    private static final int TIMER_WHEEL_SIZE = 512;
+
+    private final ClientRegistry clients;
+    private BroadcastShard[] broadcastShards;
+    private MessageJournal journal;
     private Thread connectionsAccepting;
     private ExecutorService connectionsServing;
+    private SelectorLoop[] selectorLoops;
     private final ServerSocket listener;
     private final Logger logger;
     private boolean isRunning;
-    private final String helloMessage;
+    private final EncodedMessage encodedHelloMessage;
+    private final EncodedMessage encodedBinaryAccepted;
+    // PING и PONG в текстовом и двоичном протоколах.
+    private final EncodedMessage encodedPing;
+    private final EncodedMessage encodedPingFrame;
+    private final EncodedMessage encodedPong;
+    private final EncodedMessage encodedPongFrame;
+    private final EncodedMessage encodedShutdownNotice;
+    private final EncodedMessage encodedShutdownNoticeFrame;
+    private final TimerWheel timer;
+    // null - сервер работает без кластера.
+    private ClusterNode cluster;
+    private final AtomicInteger nextClientId;
+    private final AtomicInteger openConnections;
+    // Соединения, получившие приветствие и ещё не закрытые, - их при остановке нужно закрыть.
+    private final Set<ClientConnection> connections;
+    private volatile boolean isStopping;
+    // Когда вызван stop() (по System.nanoTime()): от этого момента отсчитывается срок остановки.
+    private volatile long stopStartNanos;
+    private volatile boolean isDisconnectingAll;
+    // Сообщения клиентов, полученные во время остановки и не разосланные.
+    private final AtomicLong messagesRejectedOnStop;
+    // Номера сообщений комнат, когда журнал выключен.
+    private final AtomicLong sequences;
+    private final Map<String, SuspendedSession> suspendedSessions;
+    private final SecureRandom sessionTokens;
+    // Заменяется целиком, когда настройки меняются на ходу (см. reconfigure), поэтому
+    // читающий несколько полей сначала берёт ссылку на текущие настройки.
+    private volatile Settings settings;
+    private final BufferPool bufferPool;
+    private final ServerMetrics metrics;
+    private Thread metricsLogging;
+    private ObjectName metricsName;
 
     public ChatServer(ServerSocket listener, String helloMessage, Logger logger) {
+        this(listener, helloMessage, logger, new Settings());
+    }
+
+    // Для движка NIO сокет должен быть получен из ServerSocketChannel (ServerSocketChannel.socket()).
+    public ChatServer(ServerSocket listener, String helloMessage, Logger logger, Settings settings) {
+        if (settings.engine == Settings.Engine.NIO && listener.getChannel() == null) {
+            throw new IllegalArgumentException("NIO engine requires a listener created by ServerSocketChannel");
+        }
+
         this.logger = logger;
-        this.helloMessage = helloMessage;
         this.listener = listener;
+        this.settings = settings;
 
-        clients = new HashSet<>();
-        messagesToSend = new LinkedBlockingQueue<>();
+        encodedHelloMessage = EncodedMessage.encode(helloMessage, null);
+        encodedBinaryAccepted = EncodedMessage.encode(Protocol.BINARY_REQUEST, null);
+        encodedPing = EncodedMessage.encode(Protocol.PING, null);
+        encodedPingFrame = EncodedMessage.wrap(ByteBuffer.wrap(Frame.encode(Frame.PING, 0, "")));
+        encodedPong = EncodedMessage.encode(Protocol.PONG, null);
+        encodedPongFrame = EncodedMessage.wrap(ByteBuffer.wrap(Frame.encode(Frame.PONG, 0, "")));
+        encodedShutdownNotice = EncodedMessage.encode(SHUTDOWN_NOTICE, null);
+        encodedShutdownNoticeFrame = EncodedMessage.wrap(ByteBuffer.wrap(Frame.encode(Frame.TEXT, 0, SHUTDOWN_NOTICE)));
+        timer = new TimerWheel(TIMER_TICK_MILLIS, TIMER_WHEEL_SIZE, "timer");
+        nextClientId = new AtomicInteger();
+        openConnections = new AtomicInteger();
+        connections = ConcurrentHashMap.newKeySet();
+        messagesRejectedOnStop = new AtomicLong();
+        sequences = new AtomicLong();
+        suspendedSessions = new ConcurrentHashMap<>();
+        sessionTokens = new SecureRandom();
+        bufferPool = new BufferPool(MESSAGE_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+        clients = new ClientRegistry();
+        metrics = new ServerMetrics(settings.metricsEnabled);
     }
 
-    // Отправляет сообщения всем подключённым клиентам.
+    // Отправляет сообщения всем подключённым клиентам (и клиентам остальных серверов кластера).
     public void sendBroadcast(String message) {
-        sendBroadcast(message, null);
+        try {
+            shardFor(DEFAULT_ROOM).sendToEveryone(null, message);
+        } catch (InterruptedException e) {
+            logger.info("got exception on putting a message '%s' in output queue: %s", message, e.getMessage());
+        }
+
+        forward(null, message);
+    }
+
+    // Отправляет сообщение участникам комнаты, кроме отправителя.
+    private void sendToRoom(String room, ClientConnection sender, String message) {
+        try {
+            shardFor(room).send(room, sender, message);
+        } catch (InterruptedException e) {
+            logger.info("got exception on putting a message '%s' in output queue: %s", message, e.getMessage());
+        }
+
+        forward(room, message);
     }
 
-    // Отправляет сообщения всем подключённым клиентам, кроме заданного (можно указать null).
-    private void sendBroadcast(String message, ClientConnection exceptOne) {
+    // Отправляет сообщение клиента участникам комнаты, кроме него самого.
+    // Возвращает false, если очередь рассылки комнаты заполнена.
+    private boolean trySendToRoom(String room, ClientConnection sender, String message) {
+        boolean accepted;
+
         try {
-            messagesToSend.put(new MessageWithSender(message, exceptOne));
+            accepted = shardFor(room).trySend(room, sender, message);
         } catch (InterruptedException e) {
-            logger.log("got exception on putting a message '%s' in output queue: %s", message, e.getMessage());
+            logger.info("got exception on putting a message '%s' in output queue: %s", message, e.getMessage());
+
+            return false;
+        }
+
+        if (accepted) {
+            forward(room, message);
+        }
+
+        return accepted;
+    }
+
+    // Пересылает разосланное сообщение остальным серверам кластера. room == null - сообщение для всех.
+    private void forward(String room, String message) {
+        if (cluster != null) {
+            cluster.forward(room, message);
+        }
+    }
+
+    // Рассылает своим клиентам сообщение, пересланное другим сервером кластера. room == null - сообщение
+    // для всех. Дальше сообщение не пересылается.
+    void deliverFromCluster(String room, String message) throws InterruptedException {
+        if (room == null) {
+            shardFor(DEFAULT_ROOM).sendToEveryone(null, message);
+        } else {
+            shardFor(room).send(room, null, message);
         }
     }
 
+    private BroadcastShard shardFor(String room) {
+        return broadcastShards[Math.floorMod(room.hashCode(), broadcastShards.length)];
+    }
+
     public boolean isRunning() {
         return isRunning;
     }
 
+    Logger logger() {
+        return logger;
+    }
+
+    Settings settings() {
+        return settings;
+    }
+
+    public ServerMetrics metrics() {
+        return metrics;
+    }
+
+    // Применяет к работающему серверу новые значения настроек из Settings.RELOADABLE (см. SettingsWatcher):
+    // лимиты действуют на следующие же сообщения клиентов, размер очереди исходящих и политика её
+    // переполнения - на новые соединения. Соединения при этом не разрываются. Изменения остальных
+    // настроек вступят в силу только после перезапуска, о них пишется в лог. Если хоть одно новое значение
+    // недопустимо, не применяется ничего: сервер остаётся с прежними настройками.
+    public synchronized void reconfigure(Settings updated) {
+        Settings next = settings.copy();
+        List<String> applied = new ArrayList<>();
+        List<String> ignored = new ArrayList<>();
+
+        for (String name : Settings.BINDER.differences(next, updated)) {
+            if (Settings.RELOADABLE.contains(name)) {
+                Settings.BINDER.copy(name, updated, next);
+
+                applied.add(name);
+            } else {
+                ignored.add(name);
+            }
+        }
+
+        String invalid = invalidReloadable(next);
+
+        if (invalid != null) {
+            logger.info("settings not changed: %s", invalid);
+
+            return;
+        }
+
+        if (!applied.isEmpty()) {
+            settings = next;
+
+            // До start() потоков рассылки ещё нет - они возьмут ёмкость из новых настроек.
+            if (broadcastShards != null) {
+                for (BroadcastShard shard : broadcastShards) {
+                    shard.setIngressCapacity(next.ingressQueueCapacity);
+                }
+            }
+
+            if (applied.contains("logLevel")) {
+                logger.setLevel(next.logLevel);
+            }
+
+            logger.info("settings changed: %s", String.join(", ", applied));
+        }
+
+        if (!ignored.isEmpty()) {
+            logger.info("settings changes require restart: %s", String.join(", ", ignored));
+        }
+    }
+
+    // Проверяет значения, меняющиеся на ходу: ошибка в них всплыла бы только позже, например при создании
+    // очереди для нового соединения, и остановила бы поток, принимающий соединения. Возвращает описание
+    // первого недопустимого значения или null.
+    private static String invalidReloadable(Settings s) {
+        if (s.maxConnections < 0) {
+            return String.format("maxConnections must not be negative, got %d", s.maxConnections);
+        }
+
+        if (s.ingressQueueCapacity < 1) {
+            return String.format("ingressQueueCapacity must be at least 1, got %d", s.ingressQueueCapacity);
+        }
+
+        if (s.clientMessageBurst < 1) {
+            return String.format("clientMessageBurst must be at least 1, got %d", s.clientMessageBurst);
+        }
+
+        if (s.outgoingQueueCapacity < 1) {
+            return String.format("outgoingQueueCapacity must be at least 1, got %d", s.outgoingQueueCapacity);
+        }
+
+        return null;
+    }
+
+    // Возвращает число клиентов, присоединившихся к чату.
+    public int clientsCount() {
+        return clients.size();
+    }
+
+    // Возвращает число серверов кластера, с которыми сейчас есть соединение.
+    public int clusterNodesCount() {
+        return cluster == null ? 0 : cluster.linkedNodes();
+    }
+
     // Запускает обслуживание входящих соединений.
     public void start() {
         isRunning = true;
 
-        messagesToSend.clear();
+        timer.start();
+        openJournal();
+        startBroadcastShards();
+        startMetrics();
+        startCluster();
 
-        connectionsServing = Executors.newCachedThreadPool();
+        if (settings.engine == Settings.Engine.NIO) {
+            startSelectorLoops();
 
-        messagesBroadcasting = new Thread(this::broadcastMessages);
-        connectionsAccepting = new Thread(this::acceptConnections);
+            connectionsAccepting = new Thread(this::acceptChannels);
+        } else {
+            connectionsServing = settings.engine == Settings.Engine.VIRTUAL_THREADS
+                    ? Executors.newVirtualThreadPerTaskExecutor()
+                    : Executors.newCachedThreadPool();
+
+            connectionsAccepting = new Thread(this::acceptConnections);
+        }
 
-        messagesBroadcasting.start();
         connectionsAccepting.start();
 
-        logger.log("server started");
+        logger.info("server started");
     }
 
     // Останавливает обслуживание входящих соединений, не дожидаясь завершения потоков.
     // Также закрывает сокет, переданный в конструктор (по-другому не удалось прервать вызов accept()).
+    // Сообщения, уже стоящие в очередях рассылки, ещё будут разосланы, новые сообщения клиентов не принимаются.
+    // Отсюда отсчитывается Settings.shutdownTimeoutMillis (см. waitForStop).
     public void stop() {
+        stopStartNanos = System.nanoTime();
+        isStopping = true;
+
         connectionsAccepting.interrupt();
-        messagesBroadcasting.interrupt();
+
+        if (cluster != null) {
+            cluster.stop();
+        }
+
+        if (metricsLogging != null) {
+            metricsLogging.interrupt();
+        }
+
+        for (BroadcastShard shard : broadcastShards) {
+            shard.drainAndStop();
+        }
 
         try {
             listener.close();
         } catch (IOException e) {
-            logger.log("exception on listener closing: %s", e.getMessage());
+            logger.info("exception on listener closing: %s", e.getMessage());
         }
 
-        sendBroadcast("");
-
-        logger.log("server began to stop (not accepting new connections)");
+        logger.info("server began to stop (not accepting new connections)");
     }
 
     // Запускает сервер и дожидается завершения выполнения всех его потоков.
@@ -109,43 +422,265 @@ public class ChatServer {
         waitForStop();
     }
 
-    // Ожидает окончания работы всех потоков сервера.
+    // Ожидает окончания работы всех потоков сервера. Остановка ограничена по времени
+    // Settings.shutdownTimeoutMillis: за это время потоки рассылки должны разослать сообщения из своих
+    // очередей, а клиенты - получить их вместе с оповещением об остановке и закрыть соединения. Что не успело,
+    // останавливается принудительно, и в лог пишется, сколько сообщений при этом пропало.
     public void waitForStop() throws InterruptedException {
         connectionsAccepting.join();
-        messagesBroadcasting.join();
 
-        connectionsServing.close();
+        if (cluster != null) {
+            cluster.join();
+        }
+
+        int undeliveredBroadcasts = drainBroadcastShards();
+        int connectionsToClose = connections.size();
+
+        awaitConnectionsClosed();
+
+        isDisconnectingAll = true;
+
+        int forciblyClosed = 0;
+        long unsentMessages = 0;
+
+        // Закрытие сокета может ждать (например, SO_LINGER), поэтому соединения закрываются параллельно.
+        try (ExecutorService closing = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (ClientConnection client : connections) {
+                forciblyClosed++;
+                unsentMessages += client.pendingMessages();
+
+                closing.execute(client::disconnectOnShutdown);
+            }
+        }
+
+        if (selectorLoops != null) {
+            for (SelectorLoop loop : selectorLoops) {
+                loop.stop();
+            }
+
+            for (SelectorLoop loop : selectorLoops) {
+                loop.join();
+            }
+        } else {
+            connectionsServing.close();
+        }
+
+        timer.stop();
+        timer.join();
+
+        stopMetrics();
+
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.info("exception on journal closing: %s", e.getMessage());
+            }
+        }
 
         isRunning = false;
 
-        logger.log("server stopped");
+        logger.info(
+                "server stopped in %d ms: %d connections closed by clients, %d closed forcibly; dropped %d queued broadcasts, "
+                        + "%d outgoing messages and %d messages received during shutdown",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stopStartNanos),
+                Math.max(0, connectionsToClose - forciblyClosed),
+                forciblyClosed,
+                undeliveredBroadcasts,
+                unsentMessages,
+                messagesRejectedOnStop.get()
+        );
+    }
+
+    // Ждёт, пока потоки рассылки разошлют сообщения, стоявшие в очередях на момент stop(), не дольше срока
+    // остановки; не успевшие останавливает принудительно. Возвращает число неразосланных сообщений.
+    private int drainBroadcastShards() throws InterruptedException {
+        int undelivered = 0;
+
+        for (BroadcastShard shard : broadcastShards) {
+            if (!shard.join(millisUntilStopDeadline())) {
+                shard.stop();
+                shard.join();
+            }
+
+            undelivered += shard.undeliveredMessages();
+        }
+
+        return undelivered;
+    }
+
+    // Оповещает клиентов об остановке и ждёт, пока они, получив всё из своих очередей, закроют соединения,
+    // но не дольше срока остановки.
+    private void awaitConnectionsClosed() throws InterruptedException {
+        for (ClientConnection client : connections) {
+            client.sendAndClose(shutdownNoticeFor(client));
+        }
+
+        synchronized (connections) {
+            for (long left = millisUntilStopDeadline(); !connections.isEmpty() && left > 0; left = millisUntilStopDeadline()) {
+                connections.wait(left);
+            }
+        }
+    }
+
+    private long millisUntilStopDeadline() {
+        return settings.shutdownTimeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stopStartNanos);
+    }
+
+    private EncodedMessage shutdownNoticeFor(ClientConnection client) {
+        return client.protocol == Protocol.BINARY ? encodedShutdownNoticeFrame : encodedShutdownNotice;
+    }
+
+    // Запускает потоки рассылки.
+    private void startBroadcastShards() {
+        int count = settings.broadcastThreads > 0 ? settings.broadcastThreads : Runtime.getRuntime().availableProcessors();
+
+        broadcastShards = new BroadcastShard[count];
+
+        for (int i = 0; i < count; i++) {
+            broadcastShards[i] = new BroadcastShard(
+                    clients,
+                    bufferPool,
+                    settings.historySize,
+                    settings.historyBytes,
+                    settings.idleHistoryBytes / count,
+                    settings.ingressQueueCapacity,
+                    settings.broadcastBatchSize,
+                    TimeUnit.MILLISECONDS.toNanos(settings.broadcastLingerMillis),
+                    journal,
+                    sequences,
+                    metrics,
+                    "broadcast-" + i
+            );
+        }
+
+        restoreHistory();
+
+        for (BroadcastShard shard : broadcastShards) {
+            shard.start();
+        }
+    }
+
+    // Подключается к остальным серверам кластера, если он настроен.
+    private void startCluster() {
+        if (settings.clusterPort <= 0) {
+            return;
+        }
+
+        try {
+            cluster = new ClusterNode(this, logger, settings.nodeId, settings.clusterPort, settings.clusterPeers);
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to open cluster port", e);
+        }
+
+        cluster.start();
+    }
+
+    // Регистрирует метрики в JMX и запускает их периодическую запись в лог.
+    private void startMetrics() {
+        if (!metrics.isEnabled()) {
+            return;
+        }
+
+        metrics.watch(clients::size, this::broadcastQueueDepth);
+
+        try {
+            metricsName = new ObjectName("ChatServer:type=Metrics,port=" + listener.getLocalPort());
+
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metricsName);
+        } catch (JMException e) {
+            metricsName = null;
+
+            logger.info("failed to register metrics in JMX: %s", e.getMessage());
+        }
+
+        if (settings.metricsLogIntervalMillis > 0) {
+            metricsLogging = new Thread(this::logMetrics, "metrics");
+            metricsLogging.setDaemon(true);
+            metricsLogging.start();
+        }
     }
 
-    // Разбирает очередь отправляемых сообщений, рассылает сообщения всем подключённым клиентам.
-    private void broadcastMessages() {
-        MessageWithSender yetAnotherMessage;
+    private void stopMetrics() throws InterruptedException {
+        if (metricsLogging != null) {
+            metricsLogging.join();
+        }
+
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e) {
+                logger.info("failed to unregister metrics from JMX: %s", e.getMessage());
+            }
+        }
+    }
 
+    private void logMetrics() {
         while (true) {
             try {
-                yetAnotherMessage = messagesToSend.take();
+                Thread.sleep(settings.metricsLogIntervalMillis);
             } catch (InterruptedException e) {
                 break;
             }
 
-            if (Thread.interrupted()) {
-                break;
-            }
+            logger.info("%s", metrics.logLine());
+        }
+    }
 
-            synchronized (clients) {
-                for (ClientConnection client : clients) {
-                    if (client.equals(yetAnotherMessage.sender)) {
-                        continue;
-                    }
+    private int broadcastQueueDepth() {
+        int depth = 0;
 
-                    client.send(yetAnotherMessage.message);
-                }
+        for (BroadcastShard shard : broadcastShards) {
+            depth += shard.queueDepth();
+        }
+
+        return depth;
+    }
+
+    private void openJournal() {
+        if (settings.journalDirectory.isEmpty()) {
+            return;
+        }
+
+        try {
+            journal = new MessageJournal(
+                    Path.of(settings.journalDirectory),
+                    settings.journalSegmentSize,
+                    settings.journalIndexInterval,
+                    settings.journalMaxSegments,
+                    logger
+            );
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to open journal", e);
+        }
+    }
+
+    // Возвращает в истории комнат последние сообщения из журнала. Вызывается до запуска потоков рассылки.
+    private void restoreHistory() {
+        if (journal == null || settings.journalRestoreMessages <= 0) {
+            return;
+        }
+
+        List<MessageJournal.Entry> entries;
+
+        try {
+            entries = journal.readSince(
+                    Math.max(0, journal.lastId() - settings.journalRestoreMessages),
+                    settings.journalRestoreMessages
+            );
+        } catch (IOException e) {
+            logger.info("exception on reading journal: %s", e.getMessage());
+
+            return;
+        }
+
+        for (MessageJournal.Entry entry : entries) {
+            if (!entry.room.isEmpty()) {
+                shardFor(entry.room).restore(entry.room, entry.id, entry.senderId, entry.message);
             }
         }
+
+        logger.info("restored %d messages from journal", entries.size());
     }
 
     // Принимает новые соединения, запускает потоки для обслуживания новых клиентов.
@@ -158,20 +693,93 @@ public class ChatServer {
                     break;
                 }
 
-                logger.log(
+                if (!admitConnection(clientSocket)) {
+                    clientSocket.close();
+
+                    continue;
+                }
+
+                logger.info(
                         "connected client with address %s",
                         clientSocket.getInetAddress().toString()
                 );
 
-                ClientConnection connection = new ClientConnection(clientSocket);
+                SocketClientConnection connection = new SocketClientConnection(
+                        clientSocket,
+                        settings.outgoingQueueCapacity,
+                        settings.overflowPolicy,
+                        settings.maxLineLength,
+                        metrics
+                );
 
+                connectionsServing.execute(connection::writeMessages);
                 connectionsServing.execute(
                         () -> serveClient(connection)
                 );
             } catch (ClosedByInterruptException e) {
                 break;
             } catch (IOException e) {
-                logger.log("connection accepting exception: %s", e.getMessage());
+                logger.info("connection accepting exception: %s", e.getMessage());
+
+                break;
+            }
+        }
+    }
+
+    // Запускает потоки ввода-вывода движка NIO.
+    private void startSelectorLoops() {
+        int count = settings.ioThreads > 0 ? settings.ioThreads : Runtime.getRuntime().availableProcessors();
+
+        selectorLoops = new SelectorLoop[count];
+
+        try {
+            for (int i = 0; i < count; i++) {
+                selectorLoops[i] = new SelectorLoop(this, "selector-loop-" + i);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to open selector", e);
+        }
+
+        for (SelectorLoop loop : selectorLoops) {
+            loop.start();
+        }
+    }
+
+    // Принимает новые соединения для движка NIO и по очереди раздаёт их потокам ввода-вывода.
+    private void acceptChannels() {
+        ServerSocketChannel listenerChannel = listener.getChannel();
+        int nextLoop = 0;
+
+        while (true) {
+            try {
+                SocketChannel clientChannel = listenerChannel.accept();
+
+                if (Thread.interrupted()) {
+                    clientChannel.close();
+
+                    break;
+                }
+
+                if (!admitConnection(clientChannel.socket())) {
+                    clientChannel.close();
+
+                    continue;
+                }
+
+                logger.info(
+                        "connected client with address %s",
+                        clientChannel.socket().getInetAddress().toString()
+                );
+
+                clientChannel.configureBlocking(false);
+
+                selectorLoops[nextLoop].register(clientChannel);
+
+                nextLoop = (nextLoop + 1) % selectorLoops.length;
+            } catch (ClosedByInterruptException e) {
+                break;
+            } catch (IOException e) {
+                logger.info("connection accepting exception: %s", e.getMessage());
 
                 break;
             }
@@ -181,67 +789,734 @@ public class ChatServer {
     // Поток обслуживания конкретного клиента. Сначала выводит приветственное сообщение,
     // потом спрашивает никнейм и циклически передаёт его сообщения остальным клиентам,
     // пока не получит сообщение "/exit".
-    private void serveClient(ClientConnection client) {
+    private void serveClient(SocketClientConnection client) {
         boolean addedToSet = false;
 
         try (client) {
-            client.send(helloMessage);
-
-            String nickname = client.receive();
+            greet(client);
 
-            synchronized (clients) {
-                clients.add(client);
+            while (client.nickname == null) {
+                String message = client.receive();
 
-                addedToSet = true;
+                if (!heartbeat(client, message) && !negotiate(client, message) && !resume(client, message)) {
+                    joinChat(client, message);
+                }
             }
 
-            logger.log(
-                    "user with nickname '%s' joined chat",
-                    nickname
-            );
+            addedToSet = true;
 
-            sendBroadcast(
-                    String.format("%s joined chat", nickname)
-            );
+            String nickname = client.nickname;
 
             while (true) {
                 String message = client.receive();
 
-                if (message.equals("/exit")) {
-                    break;
+                if (heartbeat(client, message)) {
+                    continue;
                 }
 
-                logger.log(
-                        "user with nickname '%s' sent a message: %s",
-                        nickname,
-                        message
-                );
+                long admission = admitWaiting(client);
 
-                sendBroadcast(
-                        String.format("%s: %s", nickname, message),
-                        client
-                );
-            }
+                if (admission == DISCONNECT) {
+                    break;
+                }
 
-            logger.log(
-                    "user with nickname '%s' left chat",
-                    nickname
-            );
+                if (admission == ADMITTED && !processMessage(client, nickname, message)) {
+                    break;
+                }
+            }
 
-            sendBroadcast(
-                    String.format("%s left chat", nickname)
-            );
+            leaveChat(nickname);
         } catch (IOException e) {
-            logger.log("client talking exception: %s", e.getMessage());
+            logger.info("client talking exception: %s", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
             if (addedToSet) {
-                synchronized (clients) {
-                    if (!clients.remove(client)) {
-                        logger.log("failed to remove connection from set");
-                    }
-                }
+                removeClient(client);
             }
+
+            connectionClosed(client);
         }
     }
 
+    // Для движков с потоком на клиента: ждёт, пока сообщение клиента можно будет принять (см. admit).
+    // Пока поток ждёт, он не читает из сокета, и клиент упирается в окно TCP.
+    // Возвращает ADMITTED, REJECTED или DISCONNECT.
+    private long admitWaiting(ClientConnection client) throws InterruptedException {
+        long admission = admit(client);
+
+        while (admission > 0) {
+            TimeUnit.NANOSECONDS.sleep(admission);
+
+            admission = admit(client);
+        }
+
+        return admission;
+    }
+
+    // Ниже - общие для обоих движков шаги протокола общения с клиентом.
+
+    // Учитывает новое соединение. Если соединений уже Settings.maxConnections, отправляет клиенту отказ
+    // и возвращает false - тогда соединение нужно закрыть.
+    private boolean admitConnection(Socket socket) {
+        int open = openConnections.incrementAndGet();
+        int maxConnections = settings.maxConnections;
+
+        if (maxConnections <= 0 || open <= maxConnections) {
+            metrics.connectionAccepted();
+
+            return true;
+        }
+
+        openConnections.decrementAndGet();
+
+        metrics.connectionRejected();
+
+        logger.info("connection from %s rejected: %d connections open", socket.getInetAddress().toString(), open - 1);
+
+        try {
+            socket.getOutputStream().write(SERVER_FULL_MESSAGE);
+        } catch (IOException ignored) {
+            // Отказ - любезность, соединение всё равно закрывается.
+        }
+
+        return false;
+    }
+
+    // Вызывается, когда соединение, учтённое admitConnection, закрыто.
+    void connectionClosed(ClientConnection client) {
+        openConnections.decrementAndGet();
+
+        // Остановка сервера ждёт закрытия всех соединений (см. awaitConnectionsClosed).
+        if (connections.remove(client) && isStopping && connections.isEmpty()) {
+            synchronized (connections) {
+                connections.notifyAll();
+            }
+        }
+    }
+
+    // Решает, можно ли принять очередное сообщение клиента (вызывается перед processMessage): клиент
+    // не должен превышать свой лимит сообщений, а очередь рассылки его текущей комнаты - быть заполненной.
+    // Если принять нельзя, поступает согласно Settings.backpressurePolicy:
+    // THROTTLE - возвращает, через сколько наносекунд повторить попытку с тем же сообщением,
+    // и пока чтение сообщений клиента нужно приостановить;
+    // REJECT - сообщает клиенту, что сообщение отклонено, и возвращает REJECTED;
+    // DISCONNECT - возвращает DISCONNECT, и клиента нужно отключить.
+    long admit(ClientConnection client) {
+        // Во время остановки сообщение не принимает processMessage, ждать для него нечего.
+        if (isStopping) {
+            return ADMITTED;
+        }
+
+        Settings current = settings;
+        long now = System.nanoTime();
+        TokenBucket limiter = limiter(client, current, now);
+        long delay = limiter == null ? 0 : limiter.delayNanos(now);
+
+        if (delay == 0 && shardFor(client.room).isFull()) {
+            delay = INGRESS_RETRY_NANOS;
+        }
+
+        if (delay == 0) {
+            if (limiter != null) {
+                limiter.take();
+            }
+
+            return ADMITTED;
+        }
+
+        switch (current.backpressurePolicy) {
+            case THROTTLE -> {
+                metrics.messageThrottled();
+
+                return delay;
+            }
+            case REJECT -> {
+                metrics.messageRejected();
+
+                reply(client, "message rejected: too many messages, slow down");
+
+                return REJECTED;
+            }
+            default -> {
+                metrics.messageRejected();
+
+                logger.info("user with nickname '%s' was disconnected for sending too many messages", client.nickname);
+
+                // Отключённый за флуд клиент сессию не продолжит.
+                client.sessionToken = null;
+
+                return DISCONNECT;
+            }
+        }
+    }
+
+    // Лимит частоты сообщений клиента по текущим настройкам: создаётся к первому сообщению
+    // и меняется вслед за настройками. null - без лимита.
+    private static TokenBucket limiter(ClientConnection client, Settings current, long nowNanos) {
+        if (current.clientMessageRate <= 0) {
+            client.limiter = null;
+        } else if (client.limiter == null) {
+            client.limiter = new TokenBucket(current.clientMessageRate, current.clientMessageBurst, nowNanos);
+        } else {
+            client.limiter.setRate(current.clientMessageRate, current.clientMessageBurst, nowNanos);
+        }
+
+        return client.limiter;
+    }
+
+    // Присваивает только что подключившемуся клиенту номер и отправляет ему приветственное сообщение.
+    void greet(ClientConnection client) {
+        client.id = nextClientId.incrementAndGet();
+
+        client.offer(encodedHelloMessage);
+
+        connections.add(client);
+
+        // Подключился, когда сервер уже останавливается: соединение закрывается вместе с остальными.
+        if (isStopping) {
+            client.sendAndClose(encodedShutdownNotice);
+
+            if (isDisconnectingAll) {
+                client.disconnectOnShutdown();
+            }
+        }
+
+        superviseConnection(client);
+    }
+
+    // Ставит соединение на присмотр таймера (см. checkConnection).
+    private void superviseConnection(ClientConnection client) {
+        long delay = nextCheckMillis(0);
+
+        if (delay > 0) {
+            timer.schedule(() -> checkConnection(client), delay);
+        }
+    }
+
+    // Проверка соединения таймером: клиенту, от которого ничего не приходит дольше Settings.idleTimeoutMillis,
+    // отключает, а молчащему дольше Settings.heartbeatIntervalMillis отправляет PING. Проверка не переносится
+    // при каждом сообщении клиента, а при срабатывании сама ставит следующую - на момент, когда клиент
+    // сможет оказаться молчащим слишком долго. Так на соединение приходится один таймаут, а сообщения
+    // клиента стоят только записи времени их получения.
+    private void checkConnection(ClientConnection client) {
+        if (client.isClosed()) {
+            return;
+        }
+
+        long silentMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - client.lastReceivedNanos());
+
+        if (settings.idleTimeoutMillis > 0 && silentMillis >= settings.idleTimeoutMillis) {
+            metrics.connectionIdle();
+
+            if (client.nickname != null) {
+                logger.info("user with nickname '%s' was disconnected after %d ms of silence", client.nickname, silentMillis);
+            } else {
+                logger.info("client %d was disconnected after %d ms of silence", client.id, silentMillis);
+            }
+
+            client.disconnectIdle();
+
+            return;
+        }
+
+        // PING не ждёт места в очереди: таймер общий для всех соединений (см. ClientConnection.offer).
+        if (settings.heartbeatIntervalMillis > 0 && silentMillis >= settings.heartbeatIntervalMillis) {
+            client.offer(client.protocol == Protocol.BINARY ? encodedPingFrame : encodedPing);
+        }
+
+        timer.schedule(() -> checkConnection(client), nextCheckMillis(silentMillis));
+    }
+
+    // Через сколько проверить соединение клиента, молчащего silentMillis. 0 - проверять не нужно.
+    private long nextCheckMillis(long silentMillis) {
+        long next = Long.MAX_VALUE;
+
+        if (settings.idleTimeoutMillis > 0) {
+            next = settings.idleTimeoutMillis - silentMillis;
+        }
+
+        if (settings.heartbeatIntervalMillis > 0) {
+            long untilPing = settings.heartbeatIntervalMillis - silentMillis;
+
+            // PING уже отправлен - следующий через интервал.
+            next = Math.min(next, untilPing > 0 ? untilPing : settings.heartbeatIntervalMillis);
+        }
+
+        return next == Long.MAX_VALUE ? 0 : next;
+    }
+
+    // Обрабатывает PING и PONG клиента: на PING отвечает, PONG только подтверждает, что клиент жив
+    // (время получения данных уже записано). Возвращает false, если сообщение - не они.
+    boolean heartbeat(ClientConnection client, String message) {
+        if (message.equals(Protocol.PONG)) {
+            return true;
+        }
+
+        if (message.equals(Protocol.PING)) {
+            client.offer(client.protocol == Protocol.BINARY ? encodedPongFrame : encodedPong);
+
+            return true;
+        }
+
+        return false;
+    }
+
+    // Обрабатывает запрос двоичного протокола или сжатия, пришедший вместо никнейма. Подтверждение
+    // двоичного протокола уходит ещё строкой, всё после него - кадрами. Возвращает false, если сообщение -
+    // не запрос протокола.
+    boolean negotiate(ClientConnection client, String message) {
+        if (client.protocol == Protocol.BINARY && message.equals(Protocol.DEFLATE_REQUEST)) {
+            negotiateCompression(client);
+
+            return true;
+        }
+
+        if (client.protocol != Protocol.LINES || !message.equals(Protocol.BINARY_REQUEST)) {
+            return false;
+        }
+
+        client.offer(encodedBinaryAccepted);
+
+        client.protocol = Protocol.BINARY;
+
+        logger.info("client %d switched to binary protocol", client.id);
+
+        return true;
+    }
+
+    // Отвечает на запрос сжатия: подтверждает его той же строкой и включает сжатие или сообщает,
+    // что оно выключено.
+    private void negotiateCompression(ClientConnection client) {
+        if (!settings.compressionEnabled) {
+            reply(client, "compression is disabled");
+
+            return;
+        }
+
+        reply(client, Protocol.DEFLATE_REQUEST);
+
+        client.enableCompression(settings.compressionThreshold);
+
+        logger.info("client %d switched to compressed frames", client.id);
+    }
+
+    // Добавляет клиента, приславшего никнейм, в рассылку и комнату по умолчанию и оповещает об этом остальных.
+    // Если никнейм недопустим или занят, отвечает клиенту и ждёт другой.
+    void joinChat(ClientConnection client, String nickname) {
+        if (!isValidNickname(nickname)) {
+            reply(client, String.format(
+                    "nickname must be 1 to %d characters without spaces and must not start with /, choose another",
+                    MAX_NICKNAME_LENGTH
+            ));
+
+            return;
+        }
+
+        client.nickname = nickname;
+
+        if (!clients.add(client)) {
+            client.nickname = null;
+
+            reply(client, String.format("nickname %s is taken, choose another", nickname));
+
+            return;
+        }
+
+        enterRoom(client, DEFAULT_ROOM, 0);
+
+        client.room = DEFAULT_ROOM;
+
+        logger.info(
+                "user with nickname '%s' joined chat",
+                nickname
+        );
+
+        sendBroadcast(
+                String.format("%s joined chat", nickname)
+        );
+    }
+
+    // Обрабатывает очередное сообщение клиента. Возвращает false, если клиент выходит из чата.
+    boolean processMessage(ClientConnection client, String nickname, String message) {
+        metrics.messageReceived();
+
+        if (message.equals("/exit")) {
+            // Вышедший сам клиент сессию не продолжит.
+            client.sessionToken = null;
+
+            return false;
+        }
+
+        // Рассылка уже остановлена или дописывает свои очереди.
+        if (isStopping) {
+            messagesRejectedOnStop.incrementAndGet();
+
+            reply(client, "server is shutting down, message is not sent");
+
+            return true;
+        }
+
+        if (message.equals("/session")) {
+            startSession(client);
+        } else if (message.equals("/join") || message.startsWith("/join ")) {
+            joinRoom(client, commandArgument(message));
+        } else if (message.equals("/switch") || message.startsWith("/switch ")) {
+            switchRoom(client, commandArgument(message));
+        } else if (message.equals("/leave") || message.startsWith("/leave ")) {
+            String room = commandArgument(message);
+
+            leaveRoom(client, room.isEmpty() ? client.room : room);
+        } else if (message.equals("/msg") || message.startsWith("/msg ")) {
+            sendPrivate(client, commandArgument(message));
+        } else {
+            logger.info(
+                    "user with nickname '%s' sent a message to room '%s': %s",
+                    nickname,
+                    client.room,
+                    message
+            );
+
+            boolean accepted = trySendToRoom(
+                    client.room,
+                    client,
+                    inRoom(client.room, String.format("%s: %s", nickname, message))
+            );
+
+            // Очередь рассылки успела заполниться после admit.
+            if (!accepted) {
+                metrics.messageRejected();
+
+                reply(client, "server is busy, message is not sent");
+            }
+        }
+
+        return true;
+    }
+
+    // Команда "/join <комната>": входит в комнату (если ещё не в ней) и делает её текущей.
+    private void joinRoom(ClientConnection client, String room) {
+        if (!isValidRoomName(room)) {
+            reply(client, String.format("room name must be 1 to %d characters without spaces", MAX_ROOM_NAME_LENGTH));
+
+            return;
+        }
+
+        boolean entering = !client.rooms.contains(room);
+
+        client.room = room;
+
+        // Ответ отправляется до входа в комнату, чтобы клиент получил его раньше истории комнаты.
+        reply(client, String.format("you are in room %s", room));
+
+        if (entering) {
+            enterRoom(client, room, 0);
+
+            logger.info("user with nickname '%s' joined room '%s'", client.nickname, room);
+
+            sendToRoom(room, client, inRoom(room, String.format("%s joined room", client.nickname)));
+        }
+    }
+
+    // Команда "/switch <комната>": делает текущей комнату, в которой клиент уже состоит.
+    private void switchRoom(ClientConnection client, String room) {
+        if (!client.rooms.contains(room)) {
+            reply(client, String.format("you are not in room %s, use /join", room));
+
+            return;
+        }
+
+        client.room = room;
+
+        reply(client, String.format("you are in room %s", room));
+    }
+
+    // Команда "/leave [комната]": выходит из комнаты (по умолчанию - из текущей).
+    private void leaveRoom(ClientConnection client, String room) {
+        if (room.equals(DEFAULT_ROOM)) {
+            reply(client, String.format("you cannot leave room %s", DEFAULT_ROOM));
+
+            return;
+        }
+
+        if (!client.rooms.contains(room)) {
+            reply(client, String.format("you are not in room %s", room));
+
+            return;
+        }
+
+        exitRoom(client, room);
+
+        logger.info("user with nickname '%s' left room '%s'", client.nickname, room);
+
+        sendToRoom(room, client, inRoom(room, String.format("%s left room", client.nickname)));
+
+        if (room.equals(client.room)) {
+            client.room = DEFAULT_ROOM;
+        }
+
+        reply(client, String.format("you left room %s, you are in room %s", room, client.room));
+    }
+
+    // Команда "/msg <никнейм> <текст>": отправляет текст только этому клиенту, сразу в его очередь,
+    // минуя потоки рассылки. Получатель ищется в индексе никнеймов, так что стоимость не зависит
+    // от числа клиентов. Личные сообщения не попадают ни в историю, ни в журнал, ни на другие узлы кластера.
+    private void sendPrivate(ClientConnection client, String argument) {
+        int space = argument.indexOf(' ');
+        String text = space < 0 ? "" : argument.substring(space + 1).trim();
+
+        if (text.isEmpty()) {
+            reply(client, "usage: /msg <nickname> <message>");
+
+            return;
+        }
+
+        String nickname = argument.substring(0, space);
+        ClientConnection recipient = clients.find(nickname);
+
+        if (recipient == null) {
+            reply(client, String.format("user %s is not in chat", nickname));
+
+            return;
+        }
+
+        logger.info("user with nickname '%s' sent a private message to '%s'", client.nickname, nickname);
+
+        EncodedMessage encoded = EncodedMessage.encode(
+                recipient.protocol,
+                client.id,
+                String.format("[private] %s: %s", client.nickname, text),
+                bufferPool
+        );
+
+        recipient.offer(encoded);
+
+        encoded.release();
+    }
+
+    // Команда "/session": выдаёт клиенту сессию, которую можно будет продолжить после обрыва соединения.
+    private void startSession(ClientConnection client) {
+        if (settings.sessionTimeoutMillis <= 0) {
+            reply(client, "sessions are disabled");
+
+            return;
+        }
+
+        if (client.sessionToken == null) {
+            byte[] token = new byte[16];
+
+            sessionTokens.nextBytes(token);
+
+            client.sessionToken = HexFormat.of().formatHex(token);
+        }
+
+        reply(client, String.format("/session %s", client.sessionToken));
+    }
+
+    // Обрабатывает запрос "/resume <сессия> <комната>=<номер> ...", пришедший вместо никнейма.
+    // Если сессия ещё не истекла, возвращает клиента в её комнаты и отправляет пропущенные сообщения,
+    // иначе отвечает "/session expired" и ждёт никнейм. Возвращает false, если сообщение - не запрос.
+    boolean resume(ClientConnection client, String message) {
+        if (!message.startsWith("/resume ")) {
+            return false;
+        }
+
+        String[] parts = message.split(" ");
+
+        // "/resume " без сессии.
+        if (parts.length < 2) {
+            reply(client, "/session expired");
+
+            return true;
+        }
+
+        SuspendedSession session = suspendedSessions.remove(parts[1]);
+
+        if (session == null) {
+            reply(client, "/session expired");
+
+            return true;
+        }
+
+        if (session.isExpired(System.currentTimeMillis())) {
+            endSession(session);
+
+            reply(client, "/session expired");
+
+            return true;
+        }
+
+        Map<String, Long> lastSequences = new HashMap<>();
+
+        for (int i = 2; i < parts.length; i++) {
+            int separator = parts[i].lastIndexOf('=');
+
+            try {
+                lastSequences.put(parts[i].substring(0, separator), Long.parseLong(parts[i].substring(separator + 1)));
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                // Комната без номера получит всю историю.
+            }
+        }
+
+        client.nickname = session.nickname;
+
+        // Пока клиента не было, его никнейм занял другой - сессию не продолжить.
+        if (!clients.add(client)) {
+            client.nickname = null;
+
+            endSession(session);
+
+            reply(client, "/session expired");
+
+            return true;
+        }
+
+        client.sessionToken = parts[1];
+
+        // Подтверждение уходит раньше пропущенных сообщений.
+        reply(client, "/resumed");
+
+        for (String room : session.rooms) {
+            enterRoom(client, room, lastSequences.getOrDefault(room, 0L));
+        }
+
+        client.room = session.room;
+
+        endSession(session);
+
+        logger.info("user with nickname '%s' resumed session", client.nickname);
+
+        return true;
+    }
+
+    private void enterRoom(ClientConnection client, String room, long afterSequence) {
+        client.rooms.add(room);
+
+        try {
+            shardFor(room).join(client, room, afterSequence);
+        } catch (InterruptedException e) {
+            logger.info("got exception on joining room '%s': %s", room, e.getMessage());
+        }
+    }
+
+    private void exitRoom(ClientConnection client, String room) {
+        client.rooms.remove(room);
+
+        try {
+            shardFor(room).leave(client, room);
+        } catch (InterruptedException e) {
+            logger.info("got exception on leaving room '%s': %s", room, e.getMessage());
+        }
+    }
+
+    // Выход из комнаты клиента, сессия которого сохранена: комната с историей остаётся до конца сессии.
+    private void suspendInRoom(ClientConnection client, String room) {
+        client.rooms.remove(room);
+
+        try {
+            shardFor(room).suspend(client, room);
+        } catch (InterruptedException e) {
+            logger.info("got exception on leaving room '%s': %s", room, e.getMessage());
+        }
+    }
+
+    // Сессия продолжена или истекла: её комнаты больше не держатся ради неё. Вызывается тем,
+    // кто убрал сессию из suspendedSessions, - ровно один раз.
+    private void endSession(SuspendedSession session) {
+        for (String room : session.rooms) {
+            try {
+                shardFor(room).release(room);
+            } catch (InterruptedException e) {
+                logger.info("got exception on releasing room '%s': %s", room, e.getMessage());
+            }
+        }
+    }
+
+    // Отправляет ответ сервера только этому клиенту.
+    private void reply(ClientConnection client, String message) {
+        EncodedMessage encoded = EncodedMessage.encode(client.protocol, 0, message, bufferPool);
+
+        client.offer(encoded);
+
+        encoded.release();
+    }
+
+    private static String commandArgument(String command) {
+        int space = command.indexOf(' ');
+
+        return space < 0 ? "" : command.substring(space + 1).trim();
+    }
+
+    private static boolean isValidNickname(String nickname) {
+        return !nickname.isEmpty()
+                && nickname.length() <= MAX_NICKNAME_LENGTH
+                && !nickname.startsWith("/")
+                && nickname.chars().noneMatch(Character::isWhitespace);
+    }
+
+    private static boolean isValidRoomName(String room) {
+        return !room.isEmpty() && room.length() <= MAX_ROOM_NAME_LENGTH && room.chars().noneMatch(Character::isWhitespace);
+    }
+
+    // Сообщения комнат, кроме комнаты по умолчанию, помечаются её именем.
+    private static String inRoom(String room, String message) {
+        return room.equals(DEFAULT_ROOM) ? message : String.format("[%s] %s", room, message);
+    }
+
+    // Оповещает остальных о том, что клиент вышел из чата командой "/exit".
+    void leaveChat(String nickname) {
+        logger.info(
+                "user with nickname '%s' left chat",
+                nickname
+        );
+
+        sendBroadcast(
+                String.format("%s left chat", nickname)
+        );
+    }
+
+    // Убирает клиента из рассылки и всех его комнат. Если у клиента была сессия, она сохраняется
+    // до истечения срока, чтобы её можно было продолжить.
+    void removeClient(ClientConnection client) {
+        if (!clients.remove(client)) {
+            logger.info("failed to remove connection from set");
+        }
+
+        SuspendedSession session = client.sessionToken == null
+                ? null
+                : new SuspendedSession(client, System.currentTimeMillis() + settings.sessionTimeoutMillis);
+
+        for (String room : client.rooms.toArray(new String[0])) {
+            if (session != null) {
+                suspendInRoom(client, room);
+            } else {
+                exitRoom(client, room);
+            }
+        }
+
+        // Сессия становится доступной только после выхода из комнат, чтобы release не обогнал suspend.
+        if (session != null) {
+            String token = client.sessionToken;
+
+            suspendedSessions.put(token, session);
+
+            timer.schedule(() -> {
+                if (suspendedSessions.remove(token, session)) {
+                    endSession(session);
+                }
+            }, settings.sessionTimeoutMillis);
+        }
+
+        if (client.isSlowConsumer()) {
+            logger.info("user with nickname '%s' was disconnected as a slow consumer", client.nickname);
+        }
+
+        if (client.droppedMessages() > 0) {
+            logger.info(
+                    "%d messages to user with nickname '%s' were dropped",
+                    client.droppedMessages(),
+                    client.nickname
+            );
+        }
+    }
 }
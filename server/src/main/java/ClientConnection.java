@@ -1,34 +1,305 @@
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-// Класс для общения с клиентом. Протокол этого общения очень прост.
-// Каждая строка - отдельное сообщение (в рамках консольного мессенджера нет смысла
-// писать обмен многострочными сообщениями).
-public class ClientConnection implements Closeable {
-    private final Socket socket;
-    private final PrintWriter writer;
-    private final Scanner scanner;
+// Подключение клиента, которому сервер рассылает сообщения чата.
+// Способ обмена данными зависит от движка сервера (см. Settings.Engine):
+// SocketClientConnection - блокирующий ввод-вывод в отдельном потоке,
+// ChannelClientConnection - неблокирующий канал, обслуживаемый SelectorLoop.
+//
+// У каждого подключения своя ограниченная очередь исходящих сообщений, которую разбирает
+// его собственный писатель. Поэтому рассылка только ставит сообщения в очереди и не ждёт,
+// пока медленный клиент прочитает предыдущие. Что делать при переполнении очереди,
+// определяет Settings.OverflowPolicy. Ждать места в очереди (BLOCK) могут только потоки рассылки (send):
+// ответы сервера и личные сообщения ставятся через offer, который не ждёт никогда, - их отправляют
+// потоки, обслуживающие и других клиентов, или сам поток чтения клиента, который ждал бы себя.
+//
+// Если клиент попросил сжатие (см. Protocol.DEFLATE_REQUEST), писатель сжимает длинные сообщения,
+// доставая их из очереди: состояние сжатия у каждого соединения своё, поэтому сжимать одно
+// закодированное сообщение сразу для всех получателей нельзя.
+//
+// При остановке сервера соединение закрывается мягко (sendAndClose): писатель дописывает очередь
+// вместе с прощальным сообщением и закрывает передачу, а соединение целиком закрывает клиент.
+public abstract class ClientConnection implements Closeable {
+    private static final long BLOCKED_SEND_CHECK_INTERVAL_MILLIS = 100;
 
-    public ClientConnection(Socket socket) throws IOException {
-        this.socket = socket;
+    private final BlockingQueue<EncodedMessage> outgoing;
+    private final Settings.OverflowPolicy overflowPolicy;
+    private final AtomicLong droppedMessages;
+    private final AtomicBoolean isSlowConsumer;
+    private volatile boolean isIdle;
+    private volatile boolean isDisconnectedOnShutdown;
+    private final AtomicBoolean isCloseRequested;
+    // Писатель, опустошивший очередь, закрывает передачу (см. sendAndClose).
+    private volatile boolean isClosing;
+    private volatile boolean isClosed;
+    // Когда от клиента в последний раз пришли данные (по System.nanoTime()).
+    private volatile long lastReceivedNanos;
+    // Сжатие исходящих кадров или null. Сжимает только писатель.
+    private volatile FrameCompressor compressor;
+    protected final ServerMetrics metrics;
 
-        writer = new PrintWriter(socket.getOutputStream(), true);
-        scanner = new Scanner(socket.getInputStream());
+    // Никнейм, пока клиент его не прислал - null.
+    volatile String nickname;
+    // Номер подключения, присвоенный сервером, - отправитель в кадрах двоичного протокола.
+    volatile int id;
+    // Протокол, согласованный с клиентом при подключении (см. Protocol).
+    volatile Protocol protocol;
+    // Комнаты, в которых состоит клиент, и текущая - та, куда уходят его сообщения.
+    // С ними работает только поток, читающий сообщения клиента.
+    final Set<String> rooms;
+    String room;
+    // Сессия, выданная по команде "/session", или null.
+    String sessionToken;
+    // Лимит частоты сообщений клиента (см. Settings.clientMessageRate), null - без лимита.
+    // С ним работает только поток, читающий сообщения клиента.
+    TokenBucket limiter;
+
+    protected ClientConnection(int outgoingQueueCapacity, Settings.OverflowPolicy overflowPolicy, ServerMetrics metrics) {
+        this.overflowPolicy = overflowPolicy;
+        this.metrics = metrics;
+
+        protocol = Protocol.LINES;
+        rooms = new LinkedHashSet<>();
+        outgoing = new ArrayBlockingQueue<>(outgoingQueueCapacity);
+        droppedMessages = new AtomicLong();
+        isSlowConsumer = new AtomicBoolean();
+        isCloseRequested = new AtomicBoolean();
+        lastReceivedNanos = System.nanoTime();
+    }
+
+    // Ставит сообщение рассылки в очередь на отправку клиенту. Очередь удерживает сообщение,
+    // пока писатель его не отправит, вызывающий свою ссылку сохраняет. При политике BLOCK ждёт места
+    // в очереди, поэтому вызывается только потоками рассылки (см. BroadcastShard).
+    public void send(EncodedMessage message) {
+        if (queue(message)) {
+            messageQueued();
+        }
+    }
+
+    // Ставит в очередь ответ сервера или личное сообщение, не дожидаясь места в очереди: при политике BLOCK
+    // клиент, очередь которого полна, считается не успевающим читать и отключается, как при DISCONNECT.
+    public void offer(EncodedMessage message) {
+        if (queue(message, false)) {
+            messageQueued();
+        }
+    }
+
+    // То же, что send, но не будит писателя - так рассылка складывает в очередь пачку сообщений
+    // и потом будит его один раз вызовом messageQueued(). Возвращает false, если сообщение не принято.
+    boolean queue(EncodedMessage message) {
+        return queue(message, true);
+    }
+
+    private boolean queue(EncodedMessage message, boolean mayWait) {
+        message.retain();
+
+        if (isClosed || !enqueue(message, mayWait)) {
+            message.release();
+
+            return false;
+        }
+
+        return true;
+    }
+
+    // Кладёт сообщение в очередь согласно overflowPolicy. Возвращает false, если сообщение не принято.
+    // mayWait - можно ли ждать места в очереди (политика BLOCK).
+    private boolean enqueue(EncodedMessage message, boolean mayWait) {
+        Settings.OverflowPolicy policy = overflowPolicy == Settings.OverflowPolicy.BLOCK && !mayWait
+                ? Settings.OverflowPolicy.DISCONNECT
+                : overflowPolicy;
+
+        switch (policy) {
+            case DROP_OLDEST -> {
+                while (!outgoing.offer(message)) {
+                    EncodedMessage oldest = outgoing.poll();
+
+                    if (oldest != null) {
+                        oldest.release();
+
+                        droppedMessages.incrementAndGet();
+                        metrics.messageDropped();
+                    }
+                }
+            }
+            case DISCONNECT -> {
+                if (!outgoing.offer(message)) {
+                    droppedMessages.incrementAndGet();
+                    metrics.messageDropped();
+
+                    if (isSlowConsumer.compareAndSet(false, true)) {
+                        requestDisconnect();
+                    }
+
+                    return false;
+                }
+            }
+            case BLOCK -> {
+                if (outgoing.offer(message)) {
+                    return true;
+                }
+
+                // Очередь могли заполнить сообщения, о которых писатель ещё не знает (см. queue).
+                messageQueued();
+
+                long stallStart = metrics.startTimer();
+
+                try {
+                    // Периодически проверяем, не закрыто ли соединение, иначе рассылка
+                    // навсегда зависнет на клиенте, чей писатель уже остановился.
+                    while (!outgoing.offer(message, BLOCKED_SEND_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        if (isClosed) {
+                            droppedMessages.incrementAndGet();
+                            metrics.messageDropped();
+
+                            return false;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    droppedMessages.incrementAndGet();
+                    metrics.messageDropped();
+
+                    Thread.currentThread().interrupt();
+
+                    return false;
+                } finally {
+                    metrics.sendStallFinished(stallStart);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    // Число сообщений, не доставленных клиенту из-за переполнения его очереди.
+    public long droppedMessages() {
+        return droppedMessages.get();
+    }
+
+    // Было ли соединение разорвано из-за того, что клиент не успевал читать.
+    public boolean isSlowConsumer() {
+        return isSlowConsumer.get();
+    }
+
+    // Было ли соединение разорвано из-за того, что клиент слишком долго молчал.
+    public boolean isIdle() {
+        return isIdle;
     }
 
-    public void send(String message) {
-        writer.println(message);
+    // Было ли соединение разорвано сервером, который не дождался его закрытия при остановке.
+    public boolean isDisconnectedOnShutdown() {
+        return isDisconnectedOnShutdown;
     }
 
-    public String receive() {
-        return scanner.nextLine();
+    public boolean isClosed() {
+        return isClosed;
     }
 
+    // Число сообщений, ещё не взятых писателем из очереди.
+    int pendingMessages() {
+        return outgoing.size();
+    }
+
+    long lastReceivedNanos() {
+        return lastReceivedNanos;
+    }
+
+    // Отключает клиента, от которого слишком долго ничего не приходило (см. ChatServer.superviseConnection).
+    void disconnectIdle() {
+        isIdle = true;
+
+        requestDisconnect();
+    }
+
+    // Отправляет клиенту последнее сообщение и просит писателя, когда он допишет очередь, закрыть передачу.
+    // Соединение остаётся открытым на чтение, пока его не закроет клиент. Повторный вызов ничего не делает.
+    void sendAndClose(EncodedMessage last) {
+        if (!isCloseRequested.compareAndSet(false, true)) {
+            return;
+        }
+
+        offer(last);
+
+        // Флаг ставится после сообщения, чтобы писатель не закрыл передачу раньше, чем его увидит.
+        isClosing = true;
+
+        messageQueued();
+    }
+
+    protected boolean isClosing() {
+        return isClosing;
+    }
+
+    // Разрывает соединение, которое не закрылось само за отведённое на остановку сервера время.
+    void disconnectOnShutdown() {
+        isDisconnectedOnShutdown = true;
+
+        requestDisconnect();
+    }
+
+    // Вызывается читающим потоком, когда от клиента пришли данные.
+    protected void dataReceived() {
+        lastReceivedNanos = System.nanoTime();
+    }
+
+    // Включает сжатие сообщений не короче threshold байт (см. FrameCompressor). Повторный вызов
+    // ничего не меняет: поток сжатия начинать заново нельзя, клиент продолжает распаковывать прежний.
+    void enableCompression(int threshold) {
+        if (compressor == null) {
+            compressor = new FrameCompressor(threshold);
+        }
+    }
+
+    // Отпускает сообщения, оставшиеся в очереди, чтобы их буферы вернулись в пул.
     @Override
     public void close() throws IOException {
-        socket.close();
+        isClosed = true;
+
+        FrameCompressor current = compressor;
+
+        if (current != null) {
+            current.end();
+        }
+
+        for (EncodedMessage message = outgoing.poll(); message != null; message = outgoing.poll()) {
+            message.release();
+        }
+    }
+
+    // Достаёт следующее сообщение для отправки (сжатое, если сжатие включено), null - если очередь пуста.
+    // Отправив сообщение, писатель должен его отпустить.
+    protected EncodedMessage pollOutgoing() {
+        EncodedMessage message = outgoing.poll();
+        FrameCompressor current = compressor;
+
+        if (message == null || current == null || !current.accepts(message.length())) {
+            return message;
+        }
+
+        byte[] compressed = current.compress(message.content());
+
+        // Соединение уже закрыто.
+        if (compressed == null) {
+            return message;
+        }
+
+        message.release();
+
+        return EncodedMessage.wrap(ByteBuffer.wrap(compressed));
     }
+
+    // Вызывается после постановки сообщения в очередь - писатель должен его подхватить.
+    protected abstract void messageQueued();
+
+    // Вызывается из чужого для соединения потока, когда клиента нужно отключить: он не успевает читать
+    // и политика требует отключения, он слишком долго молчит или сервер останавливается.
+    protected abstract void requestDisconnect();
 }
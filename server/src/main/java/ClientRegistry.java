@@ -0,0 +1,103 @@
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Реестр клиентов, присоединившихся к чату.
+// Присоединение и выход - операции над ConcurrentHashMap, они идут параллельно и друг с другом,
+// и с рассылкой. Рассылка перебирает снимок - обычный массив клиентов, который пересобирается,
+// только если состав реестра изменился с момента прошлого снимка, а сам перебор идёт без блокировок.
+// Клиент, вышедший во время рассылки, может получить ещё одно сообщение из старого снимка -
+// отправка в закрытое соединение просто отбрасывается.
+// Клиенты с никнеймом ещё и лежат в индексе по никнейму: он делает никнеймы уникальными
+// и позволяет найти получателя личного сообщения за O(1), не перебирая всех.
+public class ClientRegistry {
+    // Массив клиентов и версия реестра, в которой он был собран.
+    private static class Snapshot {
+        public final long version;
+        public final ClientConnection[] clients;
+
+        public Snapshot(long version, ClientConnection[] clients) {
+            this.version = version;
+            this.clients = clients;
+        }
+    }
+
+    private static final ClientConnection[] NO_CLIENTS = new ClientConnection[0];
+
+    private final Set<ClientConnection> clients;
+    private final Map<String, ClientConnection> byNickname;
+    // Увеличивается после каждого изменения состава.
+    private final AtomicLong version;
+    private volatile Snapshot snapshot;
+
+    public ClientRegistry() {
+        clients = ConcurrentHashMap.newKeySet();
+        byNickname = new ConcurrentHashMap<>();
+        version = new AtomicLong();
+        snapshot = new Snapshot(0, NO_CLIENTS);
+    }
+
+    // Добавляет клиента под его никнеймом (если он есть). Возвращает false, если клиент уже добавлен
+    // или никнейм занят другим клиентом.
+    public boolean add(ClientConnection client) {
+        String nickname = client.nickname;
+
+        if (nickname != null && byNickname.putIfAbsent(nickname, client) != null) {
+            return false;
+        }
+
+        if (!clients.add(client)) {
+            if (nickname != null) {
+                byNickname.remove(nickname, client);
+            }
+
+            return false;
+        }
+
+        version.incrementAndGet();
+
+        return true;
+    }
+
+    public boolean remove(ClientConnection client) {
+        if (!clients.remove(client)) {
+            return false;
+        }
+
+        if (client.nickname != null) {
+            byNickname.remove(client.nickname, client);
+        }
+
+        version.incrementAndGet();
+
+        return true;
+    }
+
+    // Клиент с этим никнеймом или null.
+    public ClientConnection find(String nickname) {
+        return byNickname.get(nickname);
+    }
+
+    public int size() {
+        return clients.size();
+    }
+
+    // Возвращает массив клиентов, который можно перебирать без блокировок. Массив нельзя изменять.
+    public ClientConnection[] snapshot() {
+        Snapshot current = snapshot;
+        // Версию читаем до копирования: если состав изменится во время копирования,
+        // снимок получит устаревшую версию и будет пересобран при следующем вызове.
+        long currentVersion = version.get();
+
+        if (current.version == currentVersion) {
+            return current.clients;
+        }
+
+        ClientConnection[] copy = clients.toArray(NO_CLIENTS);
+
+        snapshot = new Snapshot(currentVersion, copy);
+
+        return copy;
+    }
+}
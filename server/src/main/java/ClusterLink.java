@@ -0,0 +1,104 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Соединение с другим узлом кластера (см. ClusterNode). Читает из него поток, установивший соединение,
+// пишет - отдельный поток-писатель, разбирающий ограниченную очередь уже закодированных сообщений,
+// так что пересылка не ждёт медленного узла. Если очередь заполнена, сообщение выбрасывается.
+class ClusterLink {
+    // Имя узла на другом конце, его запуск и кто установил соединение.
+    final String peerId;
+    final long peerInstance;
+    final boolean isOutbound;
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+    private final BlockingQueue<byte[]> outgoing;
+    private volatile Thread writer;
+    private volatile boolean isClosed;
+    // Пишет только пересылающий поток под блокировкой ClusterNode.
+    private volatile long droppedMessages;
+
+    ClusterLink(Socket socket, DataInputStream input, String peerId, long peerInstance, boolean isOutbound, int queueCapacity)
+            throws IOException {
+        this.socket = socket;
+        this.input = input;
+        this.peerId = peerId;
+        this.peerInstance = peerInstance;
+        this.isOutbound = isOutbound;
+
+        output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        outgoing = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    // Запускает поток-писатель.
+    void start(String threadName) {
+        writer = new Thread(this::writeMessages, threadName);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Ставит сообщение в очередь на отправку. Возвращает false, если очередь заполнена.
+    boolean send(byte[] message) {
+        if (isClosed) {
+            return false;
+        }
+
+        if (!outgoing.offer(message)) {
+            droppedMessages++;
+
+            return false;
+        }
+
+        return true;
+    }
+
+    DataInputStream input() {
+        return input;
+    }
+
+    long droppedMessages() {
+        return droppedMessages;
+    }
+
+    void close() {
+        isClosed = true;
+
+        Thread thread = writer;
+
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+        }
+
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // Пишет сообщения из очереди, сбрасывая буфер, только когда очередь опустела.
+    private void writeMessages() {
+        try {
+            while (!isClosed) {
+                byte[] message = outgoing.take();
+
+                while (message != null) {
+                    output.write(message);
+
+                    message = outgoing.poll();
+                }
+
+                output.flush();
+            }
+        } catch (InterruptedException | IOException ignored) {
+        }
+
+        // Писать больше некуда - закрываем сокет, чтобы завершилось и чтение.
+        close();
+    }
+}
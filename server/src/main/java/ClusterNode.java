@@ -0,0 +1,386 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Узел кластера серверов чата. Несколько серверов (на разных машинах или на одной с разными портами)
+соединяются друг с другом по TCP, и сообщение, принятое одним из них, расходится по клиентам всех.
+
+Каждый узел слушает Settings.clusterPort и сам подключается ко всем адресам из Settings.clusterPeers,
+так что у всех узлов может быть один и тот же список (адрес самого узла пропускается). Узлы образуют
+полную сеть: сообщение, принятое от клиента или сформированное сервером, узел-источник пересылает
+каждому другому узлу ровно один раз (forward), а тот рассылает его только своим клиентам и дальше
+не пересылает. Соединение между двумя узлами одно и работает в обе стороны: если узлы подключились
+друг к другу одновременно, оба оставляют соединение, установленное узлом с меньшим именем.
+Упавшее соединение узел восстанавливает сам, с растущей паузой между попытками.
+
+Соединение начинается с приветствия обеих сторон: MAGIC, имя узла (Settings.nodeId) и номер его
+запуска. Дальше идут сообщения:
+
+    тип (int8) | номер (int64) | комната (UTF, пустая - всем) | длина (int32) | текст (UTF-8)
+
+Номера сообщений одного запуска узла растут и в каждое соединение пишутся по порядку, поэтому
+сообщение с номером не больше уже полученного от этого запуска - повтор, и он отбрасывается
+(например, сообщения, успевшие уйти по соединению, которое заменили другим). Доставка - не более
+одного раза: сообщения, пересланные в момент обрыва соединения, теряются.
+
+Комнаты, их истории и номера сообщений у каждого узла свои: сессию клиента можно продолжить только
+на том узле, где она была начата.
+*/
+class ClusterNode {
+    private static final String MAGIC = "chat-cluster/1";
+    private static final byte MESSAGE = 1;
+    private static final int LINK_QUEUE_CAPACITY = 10_000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    private static final long RECONNECT_INITIAL_DELAY_MILLIS = 100;
+    private static final long RECONNECT_MAX_DELAY_MILLIS = 5_000;
+
+    private final ChatServer server;
+    private final Logger logger;
+    private final String nodeId;
+    private final long instance;
+    private final ServerSocket listener;
+    private final List<InetSocketAddress> peers;
+    // Соединения с другими узлами по их именам.
+    private final Map<String, ClusterLink> links;
+    // Номер последнего доставленного сообщения каждого запуска каждого узла.
+    private final Map<String, AtomicLong> lastDelivered;
+    private final List<Thread> threads;
+    // Номер последнего пересланного сообщения, под блокировкой this.
+    private long lastId;
+    private volatile boolean isRunning;
+
+    // Открывает порт для других узлов. Пустое nodeId заменяется случайным.
+    ClusterNode(ChatServer server, Logger logger, String nodeId, int port, String[] peers) throws IOException {
+        this.server = server;
+        this.logger = logger;
+
+        SecureRandom random = new SecureRandom();
+        byte[] randomId = new byte[4];
+
+        random.nextBytes(randomId);
+
+        this.nodeId = nodeId.isEmpty() ? HexFormat.of().formatHex(randomId) : nodeId;
+        this.peers = new ArrayList<>();
+
+        for (String peer : peers) {
+            this.peers.add(parseAddress(peer));
+        }
+
+        instance = random.nextLong();
+        links = new ConcurrentHashMap<>();
+        lastDelivered = new ConcurrentHashMap<>();
+        threads = new ArrayList<>();
+        listener = new ServerSocket(port);
+    }
+
+    String nodeId() {
+        return nodeId;
+    }
+
+    // Число узлов, с которыми сейчас есть соединение.
+    int linkedNodes() {
+        return links.size();
+    }
+
+    void start() {
+        isRunning = true;
+
+        threads.add(new Thread(this::acceptLinks, "cluster-accept"));
+
+        for (InetSocketAddress peer : peers) {
+            threads.add(new Thread(() -> dial(peer), "cluster-dial-" + peer.getHostString() + ":" + peer.getPort()));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        logger.info("cluster node '%s' listening on port %d", nodeId, listener.getLocalPort());
+    }
+
+    // Закрывает порт и все соединения с другими узлами.
+    void stop() {
+        isRunning = false;
+
+        try {
+            listener.close();
+        } catch (IOException e) {
+            logger.info("exception on cluster listener closing: %s", e.getMessage());
+        }
+
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+
+        for (ClusterLink link : links.values()) {
+            link.close();
+        }
+    }
+
+    void join() throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    // Пересылает сообщение всем узлам, с которыми есть соединение. room == null - сообщение для всех
+    // клиентов чата. Сообщение кодируется один раз и ставится в очереди соединений в порядке номеров.
+    void forward(String room, String message) {
+        if (links.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            byte[] encoded = encode(++lastId, room, message);
+
+            for (ClusterLink link : links.values()) {
+                link.send(encoded);
+            }
+        }
+    }
+
+    private static byte[] encode(long id, String room, String message) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length + 64);
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(MESSAGE);
+            out.writeLong(id);
+            out.writeUTF(room == null ? "" : room);
+            out.writeInt(text.length);
+            out.write(text);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    // Принимает соединения от других узлов, каждое обслуживает отдельный поток.
+    private void acceptLinks() {
+        while (isRunning) {
+            Socket socket;
+
+            try {
+                socket = listener.accept();
+            } catch (IOException e) {
+                if (isRunning) {
+                    logger.info("cluster accepting exception: %s", e.getMessage());
+                }
+
+                break;
+            }
+
+            Thread thread = new Thread(() -> {
+                try (socket) {
+                    ClusterLink link = handshake(socket, false);
+
+                    if (link != null) {
+                        serve(link);
+                    }
+                } catch (IOException e) {
+                    logger.info("cluster link exception: %s", e.getMessage());
+                }
+            }, "cluster-link");
+
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // Поддерживает соединение с узлом по адресу из Settings.clusterPeers: подключается, пока соединение
+    // работает - обслуживает его, после обрыва - подключается снова с растущей паузой.
+    private void dial(InetSocketAddress address) {
+        long delay = RECONNECT_INITIAL_DELAY_MILLIS;
+        boolean failureLogged = false;
+
+        while (isRunning) {
+            try (Socket socket = new Socket()) {
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+
+                ClusterLink link = handshake(socket, true);
+
+                if (link == null) {
+                    logger.info("cluster peer %s is this node, not connecting to it", address);
+
+                    return;
+                }
+
+                delay = RECONNECT_INITIAL_DELAY_MILLIS;
+                failureLogged = false;
+
+                serve(link);
+
+                // Соединение с этим узлом уже есть (установленное им самим) - ждём, пока оно не оборвётся.
+                while (isRunning && links.containsKey(link.peerId)) {
+                    Thread.sleep(RECONNECT_MAX_DELAY_MILLIS);
+                }
+            } catch (IOException e) {
+                if (!failureLogged && isRunning) {
+                    logger.info("failed to connect to cluster peer %s: %s", address, e.getMessage());
+
+                    failureLogged = true;
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            delay = Math.min(delay * 2, RECONNECT_MAX_DELAY_MILLIS);
+        }
+    }
+
+    // Обменивается приветствиями. Возвращает null, если на другом конце - этот же узел.
+    private ClusterLink handshake(Socket socket, boolean isOutbound) throws IOException {
+        socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+        socket.setTcpNoDelay(true);
+
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+        out.writeUTF(MAGIC);
+        out.writeUTF(nodeId);
+        out.writeLong(instance);
+        out.flush();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        if (!MAGIC.equals(in.readUTF())) {
+            throw new ProtocolException("not a chat cluster node");
+        }
+
+        String peerId = in.readUTF();
+        long peerInstance = in.readLong();
+
+        if (peerId.equals(nodeId)) {
+            return null;
+        }
+
+        socket.setSoTimeout(0);
+
+        return new ClusterLink(socket, in, peerId, peerInstance, isOutbound, LINK_QUEUE_CAPACITY);
+    }
+
+    // Регистрирует соединение и, если оно осталось единственным с этим узлом, читает из него
+    // сообщения до обрыва.
+    private void serve(ClusterLink link) throws IOException {
+        if (!register(link)) {
+            link.close();
+
+            return;
+        }
+
+        link.start("cluster-writer-" + link.peerId);
+
+        AtomicLong delivered = lastDelivered.computeIfAbsent(link.peerId + ":" + link.peerInstance, key -> new AtomicLong());
+
+        try {
+            DataInputStream in = link.input();
+
+            while (true) {
+                byte type = in.readByte();
+
+                if (type != MESSAGE) {
+                    throw new ProtocolException(String.format("unknown cluster message type %d", type));
+                }
+
+                long id = in.readLong();
+                String room = in.readUTF();
+                int length = in.readInt();
+
+                if (length < 0 || length > Frame.MAX_LENGTH) {
+                    throw new ProtocolException(String.format("invalid cluster message length %d", length));
+                }
+
+                byte[] text = new byte[length];
+
+                in.readFully(text);
+
+                // Повтор уже доставленного сообщения.
+                if (delivered.getAndAccumulate(id, Math::max) >= id) {
+                    continue;
+                }
+
+                server.deliverFromCluster(room.isEmpty() ? null : room, new String(text, StandardCharsets.UTF_8));
+            }
+        } catch (SocketException | EOFException e) {
+            // Соединение закрыто.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            link.close();
+
+            if (links.remove(link.peerId, link)) {
+                logger.info("node '%s' left cluster", link.peerId);
+            }
+
+            if (link.droppedMessages() > 0) {
+                logger.info("%d messages to node '%s' were dropped", link.droppedMessages(), link.peerId);
+            }
+        }
+    }
+
+    // Запоминает соединение с узлом. Если с ним уже есть другое соединение, остаётся установленное
+    // узлом с меньшим именем - обе стороны выбирают одно и то же. Возвращает false, если новое
+    // соединение не нужно.
+    private boolean register(ClusterLink link) {
+        synchronized (links) {
+            ClusterLink existing = links.get(link.peerId);
+
+            if (!isRunning) {
+                return false;
+            }
+
+            if (existing != null && (isPreferred(existing) || !isPreferred(link))) {
+                return false;
+            }
+
+            links.put(link.peerId, link);
+
+            if (existing != null) {
+                existing.close();
+            } else {
+                logger.info("node '%s' joined cluster", link.peerId);
+            }
+
+            return true;
+        }
+    }
+
+    private boolean isPreferred(ClusterLink link) {
+        boolean weAreSmaller = nodeId.compareTo(link.peerId) < 0;
+
+        return link.isOutbound == weAreSmaller;
+    }
+
+    private static InetSocketAddress parseAddress(String address) {
+        int separator = address.lastIndexOf(':');
+
+        if (separator < 0) {
+            throw new IllegalArgumentException(String.format("cluster peer '%s' must be <host>:<port>", address));
+        }
+
+        return new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)));
+    }
+}
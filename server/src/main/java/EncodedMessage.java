@@ -0,0 +1,101 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+// Сообщение, уже закодированное для отправки в одном из протоколов (см. Protocol): строка UTF-8
+// с завершающим переводом строки или кадр Frame. Кодируется один раз и затем пишется в сокеты
+// всех получателей, пользующихся этим протоколом.
+//
+// Короткие сообщения лежат в прямом буфере из BufferPool, поэтому на сообщение ведётся счётчик ссылок:
+// каждая очередь исходящих, в которую оно попало, удерживает его (retain), а писатель, отправив
+// сообщение, отпускает (release). Когда ссылок не остаётся, буфер возвращается в пул.
+// Длинные сообщения лежат в обычном буфере без пула, для них retain/release ничего не делают.
+public class EncodedMessage {
+    private static final AtomicIntegerFieldUpdater<EncodedMessage> REFERENCES =
+            AtomicIntegerFieldUpdater.newUpdater(EncodedMessage.class, "references");
+
+    private final ByteBuffer buffer;
+    private final BufferPool pool;
+    private volatile int references;
+
+    private EncodedMessage(ByteBuffer buffer, BufferPool pool) {
+        this.buffer = buffer;
+        this.pool = pool;
+
+        references = 1;
+    }
+
+    // Кодирует строку для текстового протокола. Возвращённое сообщение удерживается вызывающим (одна ссылка).
+    public static EncodedMessage encode(String message, BufferPool pool) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        EncodedMessage encoded = allocate(bytes.length + 1, pool);
+
+        encoded.buffer.put(bytes).put((byte) '\n').flip();
+
+        return encoded;
+    }
+
+    // Кодирует сообщение в кадр Frame.TEXT двоичного протокола. senderId - номер подключения автора, 0 - сервер.
+    public static EncodedMessage encodeFrame(int senderId, String message, BufferPool pool) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        EncodedMessage encoded = allocate(Frame.encodedLength(bytes.length), pool);
+
+        Frame.encode(encoded.buffer, Frame.TEXT, senderId, bytes);
+        encoded.buffer.flip();
+
+        return encoded;
+    }
+
+    // Кодирует сообщение комнаты в кадр Frame.SEQUENCE с его номером и следующий за ним кадр Frame.TEXT.
+    public static EncodedMessage encodeSequencedFrame(long sequence, String room, int senderId, String message, BufferPool pool) {
+        byte[] roomBytes = room.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        EncodedMessage encoded = allocate(Frame.encodedSequenceLength(roomBytes.length) + Frame.encodedLength(bytes.length), pool);
+
+        Frame.encodeSequence(encoded.buffer, sequence, roomBytes);
+        Frame.encode(encoded.buffer, Frame.TEXT, senderId, bytes);
+        encoded.buffer.flip();
+
+        return encoded;
+    }
+
+    // Кодирует сообщение в заданном протоколе.
+    public static EncodedMessage encode(Protocol protocol, int senderId, String message, BufferPool pool) {
+        return protocol == Protocol.BINARY ? encodeFrame(senderId, message, pool) : encode(message, pool);
+    }
+
+    // Оборачивает уже закодированные байты, готовые к чтению. Такое сообщение не принадлежит пулу.
+    public static EncodedMessage wrap(ByteBuffer buffer) {
+        return new EncodedMessage(buffer, null);
+    }
+
+    private static EncodedMessage allocate(int length, BufferPool pool) {
+        if (pool != null && length <= pool.bufferSize()) {
+            return new EncodedMessage(pool.acquire(), pool);
+        }
+
+        return new EncodedMessage(ByteBuffer.allocate(length), null);
+    }
+
+    // Возвращает независимое представление байт сообщения для записи в канал.
+    // Пользоваться им можно, только пока удерживается ссылка на сообщение.
+    public ByteBuffer content() {
+        return buffer.duplicate();
+    }
+
+    public int length() {
+        return buffer.limit();
+    }
+
+    public void retain() {
+        if (pool != null) {
+            REFERENCES.incrementAndGet(this);
+        }
+    }
+
+    public void release() {
+        if (pool != null && REFERENCES.decrementAndGet(this) == 0) {
+            pool.release(buffer);
+        }
+    }
+}
@@ -1,5 +1,8 @@
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
 import java.util.Scanner;
 
 public class Main {
@@ -18,22 +21,51 @@ public class Main {
                 System.out.printf("не найден файл настроек\nне удалось записать дефолтные настройки в файл '%s'\n", SETTINGS_FILE_PATH);
             }
             return;
+        } catch (IllegalArgumentException ex) {
+            System.out.printf("ошибка в файле настроек '%s': %s\n", SETTINGS_FILE_PATH, ex.getMessage());
+            return;
         }
 
-        try (Logger logger = new Logger(s.logFilePath, true)) {
+        LoggerSettings loggerSettings = new LoggerSettings(s.logFilePath, true);
+        loggerSettings.async = s.asyncLogging;
+        loggerSettings.bufferSize = s.logBufferSize;
+        loggerSettings.overflowPolicy = s.logOverflowPolicy;
+        loggerSettings.level = s.logLevel;
+        loggerSettings.segmented = s.logSegmented;
+        loggerSettings.segmentSize = s.logSegmentSize;
+        loggerSettings.rotationIntervalMillis = s.logRotationIntervalMillis;
+        loggerSettings.compressArchives = s.logCompressArchives;
+        loggerSettings.maxArchives = s.logMaxArchives;
+
+        try (Logger logger = new Logger(loggerSettings)) {
+            // Сокет из канала нужен движку NIO, а остальным позволяет писать собирающей записью.
+            ServerSocket listener = ServerSocketChannel.open().bind(new InetSocketAddress(s.port)).socket();
             ChatServer server = new ChatServer(
-                    new ServerSocket(s.port),
+                    listener,
                     "Введите никнейм первым сообщением.",
-                    logger
+                    logger,
+                    s
             );
-            logger.log("starting server...");
+            logger.info("starting server...");
             server.start();
+            // Лимиты, размеры очередей и уровень лога можно менять в файле настроек без перезапуска.
+            SettingsWatcher watcher = null;
+            try {
+                watcher = new SettingsWatcher(Path.of(SETTINGS_FILE_PATH), server, logger);
+                watcher.start();
+            } catch (IOException ex) {
+                logger.info("failed to watch settings file '%s': %s", SETTINGS_FILE_PATH, ex.getMessage());
+            }
             Scanner sc = new Scanner(System.in);
             System.out.println("для остановки сервера нажмите 'Enter'");
             sc.nextLine();
+            if (watcher != null) {
+                watcher.stop();
+                watcher.join();
+            }
             server.stop();
             server.waitForStop();
-            logger.log("graceful shutdown");
+            logger.info("graceful shutdown");
         } catch (IOException ex) {
             System.err.printf("failed to open log file '%s'", s.logFilePath);
         }
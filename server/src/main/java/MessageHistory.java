@@ -0,0 +1,161 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+Последние сообщения комнаты для показа только что вошедшим клиентам.
+
+Хранится не больше maxMessages сообщений общим объёмом не больше maxBytes байт; при переполнении
+вытесняются самые старые. Вместе с сообщением хранится его номер в комнате (см. Frame.SEQUENCE),
+так что переподключившемуся клиенту можно отправить только пропущенное. Сообщения лежат не строками, а байтами UTF-8 подряд в одном кольцевом
+массиве, а их границы и отправители - в массивах int, так что даже длинная история - это
+несколько массивов, а не тысячи объектов для сборщика мусора. Массив байт растёт по мере заполнения
+до maxBytes, поэтому малоактивные комнаты не занимают весь бюджет сразу.
+
+Как и комната, история принадлежит потоку рассылки шарда и не синхронизирована.
+*/
+class MessageHistory {
+    private static final int INITIAL_BYTES = 1024;
+
+    private final int maxBytes;
+    private byte[] data;
+    // Начало самого старого сообщения в data и число занятых байт.
+    private int dataStart;
+    private int dataUsed;
+    // Кольцо сообщений: номера, смещения в data, длины и отправители.
+    private final long[] sequences;
+    private final int[] starts;
+    private final int[] lengths;
+    private final int[] senderIds;
+    private int first;
+    private int count;
+
+    // Оба ограничения должны быть больше нуля.
+    MessageHistory(int maxMessages, int maxBytes) {
+        this.maxBytes = maxBytes;
+
+        data = new byte[Math.min(INITIAL_BYTES, maxBytes)];
+        sequences = new long[maxMessages];
+        starts = new int[maxMessages];
+        lengths = new int[maxMessages];
+        senderIds = new int[maxMessages];
+    }
+
+    // Запоминает сообщение. Сообщение больше всего бюджета не запоминается.
+    void add(long sequence, int senderId, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+
+        if (bytes.length > maxBytes) {
+            return;
+        }
+
+        while (count == starts.length || dataUsed + bytes.length > maxBytes) {
+            removeOldest();
+        }
+
+        if (dataUsed + bytes.length > data.length) {
+            grow(dataUsed + bytes.length);
+        }
+
+        int start = (dataStart + dataUsed) % data.length;
+        int tail = Math.min(bytes.length, data.length - start);
+
+        System.arraycopy(bytes, 0, data, start, tail);
+        System.arraycopy(bytes, tail, data, 0, bytes.length - tail);
+
+        int index = (first + count) % starts.length;
+
+        sequences[index] = sequence;
+        starts[index] = start;
+        lengths[index] = bytes.length;
+        senderIds[index] = senderId;
+
+        count++;
+        dataUsed += bytes.length;
+    }
+
+    // Кодирует сообщения с номерами больше afterSequence одним сообщением в протоколе клиента - чтобы
+    // отправить их одной записью. В двоичном протоколе перед каждым идёт кадр с его номером.
+    // Возвращает null, если таких сообщений нет.
+    EncodedMessage encode(Protocol protocol, String room, long afterSequence) {
+        int skipped = 0;
+        int skippedBytes = 0;
+
+        while (skipped < count && sequences[(first + skipped) % starts.length] <= afterSequence) {
+            skippedBytes += lengths[(first + skipped) % starts.length];
+            skipped++;
+        }
+
+        if (skipped == count) {
+            return null;
+        }
+
+        byte[] roomBytes = room.getBytes(StandardCharsets.UTF_8);
+        int perMessage = protocol == Protocol.BINARY
+                ? Frame.encodedSequenceLength(roomBytes.length) + Frame.HEADER_LENGTH
+                : 1;
+        ByteBuffer out = ByteBuffer.allocate(dataUsed - skippedBytes + (count - skipped) * perMessage);
+
+        for (int i = skipped; i < count; i++) {
+            int index = (first + i) % starts.length;
+            int length = lengths[index];
+
+            if (protocol == Protocol.BINARY) {
+                Frame.encodeSequence(out, sequences[index], roomBytes);
+                Frame.encodeHeader(out, Frame.TEXT, senderIds[index], length);
+            }
+
+            copyOut(starts[index], length, out);
+
+            if (protocol != Protocol.BINARY) {
+                out.put((byte) '\n');
+            }
+        }
+
+        return EncodedMessage.wrap(out.flip());
+    }
+
+    private void copyOut(int start, int length, ByteBuffer out) {
+        int tail = Math.min(length, data.length - start);
+
+        out.put(data, start, tail).put(data, 0, length - tail);
+    }
+
+    // Объём хранимых сообщений в байтах.
+    int bytes() {
+        return dataUsed;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    private void removeOldest() {
+        dataStart = (dataStart + lengths[first]) % data.length;
+        dataUsed -= lengths[first];
+
+        first = (first + 1) % starts.length;
+        count--;
+
+        if (count == 0) {
+            dataStart = 0;
+        }
+    }
+
+    // Увеличивает массив байт и перекладывает сообщения в его начало.
+    private void grow(int needed) {
+        byte[] larger = new byte[Math.min(maxBytes, Math.max(needed, data.length * 2))];
+        int tail = Math.min(dataUsed, data.length - dataStart);
+
+        System.arraycopy(data, dataStart, larger, 0, tail);
+        System.arraycopy(data, 0, larger, tail, dataUsed - tail);
+
+        for (int i = 0; i < count; i++) {
+            int index = (first + i) % starts.length;
+
+            starts[index] = (starts[index] - dataStart + data.length) % data.length;
+        }
+
+        data = larger;
+        dataStart = 0;
+    }
+}
@@ -0,0 +1,611 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/*
+Журнал разосланных сообщений на диске: сообщения переживают перезапуск сервера.
+
+Журнал - каталог с сегментами, в которые записи только дописываются. Сегмент "<номер>.log" назван
+номером своей первой записи; когда он дорастает до segmentSize, начинается следующий, а самые старые
+сегменты сверх maxSegments удаляются. Запись сегмента:
+
+    длина (int32) | CRC32C (int32) | номер (int64) | отправитель (int32) | длина комнаты (int16) | комната | сообщение
+
+Длина считается без самого поля длины, контрольная сумма - по всему после неё, строки - в UTF-8,
+комната пустая у сообщений для всего чата. Номера сообщений идут подряд с единицы.
+
+Рядом с сегментом лежит разреженный индекс "<номер>.idx": пары (номер записи int64, позиция int64)
+примерно через каждые indexInterval байт сегмента. По нему поиск сообщений после заданного номера
+начинается с ближайшей предшествующей точки индекса, а не с начала сегмента.
+
+Потоки рассылки только кладут сообщение в очередь (append) и сразу получают его номер. Записывает
+отдельный поток: забирает всё накопившееся, пишет пачкой через FileChannel и один раз на пачку
+сбрасывает данные на диск (force) - так, пока идёт один fsync, копится следующая пачка (group commit).
+Читатели видят только сброшенные на диск записи.
+
+При открытии проверяется только хвост последнего сегмента - от последней точки индекса: оборванная
+при сбое или испорченная запись и всё после неё отрезаются. Более старые сегменты были сброшены
+на диск перед сменой и не проверяются.
+*/
+class MessageJournal implements Closeable {
+    // Запись журнала.
+    static class Entry {
+        final long id;
+        // Пустая строка - сообщение для всего чата.
+        final String room;
+        final int senderId;
+        final String message;
+
+        Entry(long id, String room, int senderId, String message) {
+            this.id = id;
+            this.room = room;
+            this.senderId = senderId;
+            this.message = message;
+        }
+    }
+
+    // Сегмент журнала. Поля size и индекс меняются под блокировкой списка сегментов.
+    private static class Segment {
+        final long firstId;
+        final Path path;
+        final Path indexPath;
+        final FileChannel channel;
+        final FileChannel indexChannel;
+        // Сброшенные на диск байты.
+        long size;
+        long[] indexIds;
+        long[] indexPositions;
+        int indexCount;
+
+        Segment(Path directory, long firstId) throws IOException {
+            this.firstId = firstId;
+
+            path = directory.resolve(String.format("%020d%s", firstId, LOG_SUFFIX));
+            indexPath = directory.resolve(String.format("%020d%s", firstId, INDEX_SUFFIX));
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            size = channel.size();
+            indexIds = new long[16];
+            indexPositions = new long[16];
+        }
+
+        void addIndexEntry(long id, long position) {
+            if (indexCount == indexIds.length) {
+                indexIds = Arrays.copyOf(indexIds, indexCount * 2);
+                indexPositions = Arrays.copyOf(indexPositions, indexCount * 2);
+            }
+
+            indexIds[indexCount] = id;
+            indexPositions[indexCount] = position;
+            indexCount++;
+        }
+
+        // Позиция последней точки индекса с номером не больше id (или начало сегмента).
+        long positionBefore(long id) {
+            int low = 0;
+            int high = indexCount - 1;
+            long position = 0;
+
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+
+                if (indexIds[middle] <= id) {
+                    position = indexPositions[middle];
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+
+            return position;
+        }
+
+        void close() throws IOException {
+            channel.close();
+            indexChannel.close();
+        }
+    }
+
+    // Читает записи сегмента через буфер, перечитывая его, когда запись в нём не помещается.
+    private static class SegmentReader {
+        private final FileChannel channel;
+        private final long end;
+        ByteBuffer buffer;
+        private long bufferStart;
+
+        SegmentReader(FileChannel channel, long end, ByteBuffer buffer) {
+            this.channel = channel;
+            this.end = end;
+            this.buffer = buffer.limit(0);
+
+            bufferStart = -1;
+        }
+
+        // Готовит буфер так, чтобы с его позиции лежали needed байт сегмента начиная с position.
+        // Возвращает false, если до конца сегмента их нет.
+        boolean ensure(long position, int needed) throws IOException {
+            if (position + needed > end) {
+                return false;
+            }
+
+            if (bufferStart < 0 || position < bufferStart || position + needed > bufferStart + buffer.limit()) {
+                if (needed > buffer.capacity()) {
+                    buffer = ByteBuffer.allocate(needed);
+                }
+
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+
+                while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+                    // Дочитываем, пока буфер не заполнится.
+                }
+
+                buffer.flip();
+
+                bufferStart = position;
+
+                if (buffer.limit() < needed) {
+                    return false;
+                }
+            }
+
+            buffer.position((int) (position - bufferStart));
+
+            return true;
+        }
+    }
+
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    // Поля записи до комнаты, включая длину.
+    private static final int HEADER_LENGTH = 22;
+    private static final int LENGTH_FIELD = 4;
+    // Записи длиннее считаются испорченными.
+    private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+    private static final int INDEX_ENTRY_LENGTH = 16;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final int indexInterval;
+    private final int maxSegments;
+    private final Logger logger;
+    // Сегменты от старых к новым, последний дописывается. Под этой же блокировкой идёт чтение.
+    private final List<Segment> segments;
+    private ByteBuffer readBuffer;
+    private final CRC32C readChecksum;
+
+    // Очередь ещё не записанных сообщений.
+    private final Object pendingLock;
+    private List<Entry> pending;
+    private long nextId;
+    private boolean closing;
+
+    // Дальше - поля потока записи.
+    private final Thread writer;
+    private Segment active;
+    private ByteBuffer writeBuffer;
+    private final CRC32C writeChecksum;
+    // Позиция в сегменте, до которой дописаны данные (в том числе ещё не сброшенные на диск).
+    private long writePosition;
+    private long lastIndexedPosition;
+    // Точки индекса, которые появятся при следующем сбросе на диск.
+    private final List<long[]> stagedIndexEntries;
+    private volatile long lastCommittedId;
+
+    // Открывает журнал в каталоге (создаёт его, если нужно), восстанавливает последний сегмент
+    // и запускает поток записи.
+    MessageJournal(Path directory, long segmentSize, int indexInterval, int maxSegments, Logger logger) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.indexInterval = indexInterval;
+        this.maxSegments = maxSegments;
+        this.logger = logger;
+
+        segments = new ArrayList<>();
+        readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        readChecksum = new CRC32C();
+        pendingLock = new Object();
+        pending = new ArrayList<>();
+        writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        writeChecksum = new CRC32C();
+        stagedIndexEntries = new ArrayList<>();
+
+        recover();
+
+        writer = new Thread(this::writeEntries, "journal");
+        writer.start();
+    }
+
+    // Ставит сообщение в очередь на запись и возвращает его номер. room - пустая строка для сообщений всему чату.
+    long append(String room, int senderId, String message) {
+        synchronized (pendingLock) {
+            long id = nextId++;
+
+            pending.add(new Entry(id, room, senderId, message));
+
+            pendingLock.notify();
+
+            return id;
+        }
+    }
+
+    // Номер последнего сброшенного на диск сообщения (0, если журнал пуст).
+    long lastId() {
+        return lastCommittedId;
+    }
+
+    // Возвращает до maxCount сброшенных на диск сообщений с номерами больше afterId, по порядку.
+    // Сообщения из уже удалённых сегментов не возвращаются.
+    List<Entry> readSince(long afterId, int maxCount) throws IOException {
+        List<Entry> result = new ArrayList<>();
+
+        synchronized (segments) {
+            int first = 0;
+
+            while (first + 1 < segments.size() && segments.get(first + 1).firstId <= afterId + 1) {
+                first++;
+            }
+
+            for (int i = first; i < segments.size() && result.size() < maxCount; i++) {
+                Segment segment = segments.get(i);
+
+                scan(segment, segment.positionBefore(afterId + 1), entry -> {
+                    if (entry.id > afterId) {
+                        result.add(entry);
+                    }
+
+                    return result.size() < maxCount;
+                });
+            }
+        }
+
+        return result;
+    }
+
+    // Записывает оставшиеся в очереди сообщения, останавливает поток записи и закрывает файлы.
+    @Override
+    public void close() throws IOException {
+        synchronized (pendingLock) {
+            closing = true;
+
+            pendingLock.notify();
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (segments) {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+
+            segments.clear();
+        }
+    }
+
+    // Открывает сегменты каталога и отрезает испорченный хвост последнего.
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+
+        List<Long> firstIds = new ArrayList<>();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(LOG_SUFFIX))
+                    .forEach(name -> firstIds.add(Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length()))));
+        }
+
+        firstIds.sort(null);
+
+        for (long firstId : firstIds) {
+            Segment segment = new Segment(directory, firstId);
+
+            loadIndex(segment);
+
+            segments.add(segment);
+        }
+
+        if (segments.isEmpty()) {
+            segments.add(new Segment(directory, 1));
+        }
+
+        active = segments.get(segments.size() - 1);
+
+        // Точка индекса - начало записи с номером indexIds, до неё лежат целые записи с меньшими номерами.
+        // Поэтому номер последней записи известен, даже если испорчена первая же запись после точки.
+        // Точки за концом данных пропускаются: индекс пишется раньше, чем сегмент сбрасывается на диск.
+        int point = active.indexCount;
+
+        while (point > 0 && active.indexPositions[point - 1] >= active.size) {
+            point--;
+        }
+
+        long[] lastId = {point > 0 ? active.indexIds[point - 1] - 1 : active.firstId - 1};
+        long start = point > 0 ? active.indexPositions[point - 1] : 0;
+        long end = scan(active, start, entry -> {
+            lastId[0] = entry.id;
+
+            return true;
+        });
+
+        if (end < active.size) {
+            logger.warn("journal segment %s: dropped %d damaged bytes at the end", active.path, active.size - end);
+
+            active.channel.truncate(end);
+            active.channel.force(false);
+            active.size = end;
+        }
+
+        int indexCount = active.indexCount;
+
+        while (active.indexCount > 0 && active.indexPositions[active.indexCount - 1] >= end) {
+            active.indexCount--;
+        }
+
+        if (active.indexCount < indexCount) {
+            active.indexChannel.truncate((long) active.indexCount * INDEX_ENTRY_LENGTH);
+        }
+
+        writePosition = active.size;
+        lastIndexedPosition = active.indexCount > 0 ? active.indexPositions[active.indexCount - 1] : -indexInterval;
+        nextId = lastId[0] + 1;
+        lastCommittedId = lastId[0];
+
+        logger.info("journal opened: %d segments, last message id %d", segments.size(), lastCommittedId);
+    }
+
+    // Читает индекс сегмента, пропуская недописанную последнюю точку.
+    private static void loadIndex(Segment segment) throws IOException {
+        int count = (int) (segment.indexChannel.size() / INDEX_ENTRY_LENGTH);
+        ByteBuffer entries = ByteBuffer.allocate(count * INDEX_ENTRY_LENGTH);
+
+        while (entries.hasRemaining() && segment.indexChannel.read(entries, entries.position()) >= 0) {
+            // Дочитываем индекс целиком.
+        }
+
+        entries.flip();
+
+        while (entries.remaining() >= INDEX_ENTRY_LENGTH) {
+            long id = entries.getLong();
+            long position = entries.getLong();
+
+            segment.addIndexEntry(id, position);
+        }
+
+        segment.indexChannel.truncate((long) segment.indexCount * INDEX_ENTRY_LENGTH);
+    }
+
+    // Перебирает целые записи сегмента начиная с position, пока visitor возвращает true.
+    // Возвращает позицию после последней целой записи с верной контрольной суммой.
+    private long scan(Segment segment, long position, Predicate<Entry> visitor) throws IOException {
+        SegmentReader reader = new SegmentReader(segment.channel, segment.size, readBuffer);
+
+        try {
+            while (reader.ensure(position, LENGTH_FIELD)) {
+                int length = reader.buffer.getInt(reader.buffer.position());
+
+                if (length < HEADER_LENGTH - LENGTH_FIELD || length > MAX_RECORD_LENGTH
+                        || !reader.ensure(position, LENGTH_FIELD + length)) {
+                    break;
+                }
+
+                Entry entry = decode(reader.buffer, length);
+
+                if (entry == null) {
+                    break;
+                }
+
+                position += LENGTH_FIELD + length;
+
+                if (!visitor.test(entry)) {
+                    break;
+                }
+            }
+        } finally {
+            readBuffer = reader.buffer;
+        }
+
+        return position;
+    }
+
+    // Разбирает запись с позиции буфера (длина уже прочитана). Возвращает null, если не сошлась контрольная сумма.
+    private Entry decode(ByteBuffer buffer, int length) {
+        int start = buffer.position() + LENGTH_FIELD;
+        int bodyStart = start + Integer.BYTES;
+        int end = start + length;
+
+        readChecksum.reset();
+        readChecksum.update(buffer.array(), buffer.arrayOffset() + bodyStart, end - bodyStart);
+
+        if ((int) readChecksum.getValue() != buffer.getInt(start)) {
+            return null;
+        }
+
+        long id = buffer.getLong(bodyStart);
+        int senderId = buffer.getInt(bodyStart + 8);
+        int roomLength = Short.toUnsignedInt(buffer.getShort(bodyStart + 12));
+        int roomStart = bodyStart + 14;
+
+        if (roomStart + roomLength > end) {
+            return null;
+        }
+
+        byte[] bytes = buffer.array();
+        int offset = buffer.arrayOffset();
+
+        return new Entry(
+                id,
+                new String(bytes, offset + roomStart, roomLength, StandardCharsets.UTF_8),
+                senderId,
+                new String(bytes, offset + roomStart + roomLength, end - roomStart - roomLength, StandardCharsets.UTF_8)
+        );
+    }
+
+    // Поток записи: забирает из очереди всё накопившееся и записывает одной пачкой.
+    private void writeEntries() {
+        List<Entry> batch = new ArrayList<>();
+
+        while (true) {
+            synchronized (pendingLock) {
+                while (pending.isEmpty() && !closing) {
+                    try {
+                        pendingLock.wait();
+                    } catch (InterruptedException e) {
+                        closing = true;
+                    }
+                }
+
+                if (pending.isEmpty()) {
+                    break;
+                }
+
+                List<Entry> taken = pending;
+
+                pending = batch;
+                batch = taken;
+            }
+
+            try {
+                write(batch);
+            } catch (IOException e) {
+                logger.error("failed to write %d messages to journal: %s", batch.size(), e.getMessage());
+
+                // Недописанное будет перезаписано следующими пачками.
+                writeBuffer.clear();
+                stagedIndexEntries.clear();
+                writePosition = active.size;
+            }
+
+            batch.clear();
+        }
+    }
+
+    private void write(List<Entry> batch) throws IOException {
+        for (Entry entry : batch) {
+            byte[] room = entry.room.getBytes(StandardCharsets.UTF_8);
+            byte[] message = entry.message.getBytes(StandardCharsets.UTF_8);
+            int length = HEADER_LENGTH + room.length + message.length;
+            long position = writePosition + writeBuffer.position();
+
+            if (position > 0 && position + length > segmentSize) {
+                flush();
+                rotate(entry.id);
+
+                position = 0;
+            }
+
+            if (position - lastIndexedPosition >= indexInterval) {
+                stagedIndexEntries.add(new long[]{entry.id, position});
+
+                lastIndexedPosition = position;
+            }
+
+            if (writeBuffer.remaining() < length) {
+                writeOut();
+
+                if (writeBuffer.capacity() < length) {
+                    writeBuffer = ByteBuffer.allocateDirect(length);
+                }
+            }
+
+            int start = writeBuffer.position();
+
+            writeBuffer.putInt(length - LENGTH_FIELD)
+                    .putInt(0)
+                    .putLong(entry.id)
+                    .putInt(entry.senderId)
+                    .putShort((short) room.length)
+                    .put(room)
+                    .put(message);
+
+            writeChecksum.reset();
+            writeChecksum.update(writeBuffer.duplicate().position(start + LENGTH_FIELD + Integer.BYTES).limit(writeBuffer.position()));
+            writeBuffer.putInt(start + LENGTH_FIELD, (int) writeChecksum.getValue());
+        }
+
+        flush();
+
+        lastCommittedId = batch.get(batch.size() - 1).id;
+    }
+
+    // Дописывает буфер в сегмент, не сбрасывая на диск.
+    private void writeOut() throws IOException {
+        writeBuffer.flip();
+
+        while (writeBuffer.hasRemaining()) {
+            writePosition += active.channel.write(writeBuffer, writePosition);
+        }
+
+        writeBuffer.clear();
+    }
+
+    // Дописывает буфер и новые точки индекса, сбрасывает сегмент на диск и открывает записанное читателям.
+    private void flush() throws IOException {
+        writeOut();
+
+        if (!stagedIndexEntries.isEmpty()) {
+            ByteBuffer entries = ByteBuffer.allocate(stagedIndexEntries.size() * INDEX_ENTRY_LENGTH);
+
+            for (long[] entry : stagedIndexEntries) {
+                entries.putLong(entry[0]).putLong(entry[1]);
+            }
+
+            entries.flip();
+
+            long indexPosition = (long) active.indexCount * INDEX_ENTRY_LENGTH;
+
+            while (entries.hasRemaining()) {
+                indexPosition += active.indexChannel.write(entries, indexPosition);
+            }
+        }
+
+        // Индекс на диск не сбрасывается: потерянные при сбое точки только замедлят поиск.
+        active.channel.force(false);
+
+        synchronized (segments) {
+            for (long[] entry : stagedIndexEntries) {
+                active.addIndexEntry(entry[0], entry[1]);
+            }
+
+            active.size = writePosition;
+        }
+
+        stagedIndexEntries.clear();
+    }
+
+    // Начинает новый сегмент с записи firstId и удаляет лишние старые сегменты.
+    private void rotate(long firstId) throws IOException {
+        Segment next = new Segment(directory, firstId);
+
+        synchronized (segments) {
+            segments.add(next);
+
+            while (segments.size() > maxSegments) {
+                Segment oldest = segments.remove(0);
+
+                oldest.close();
+
+                Files.deleteIfExists(oldest.path);
+                Files.deleteIfExists(oldest.indexPath);
+            }
+        }
+
+        active = next;
+        writePosition = 0;
+        lastIndexedPosition = -indexInterval;
+    }
+}
@@ -0,0 +1,33 @@
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Комната чата: сообщения, отправленные в комнату, получают только её участники,
+// а вошедшему в комнату сразу отправляется её история.
+// Комнатой владеет поток рассылки её шарда (см. BroadcastShard), только он и работает с ней,
+// поэтому синхронизация не нужна.
+class Room {
+    final String name;
+    final Set<ClientConnection> members;
+    // Последние сообщения комнаты, null - если история не хранится.
+    final MessageHistory history;
+    // Вышедшие участники, сессии которых ещё не закончились: пока они есть, комната не удаляется.
+    int suspendedMembers;
+    // Объём истории, учтённый в бюджете комнат без участников (см. BroadcastShard.idleHistoryBytes).
+    int idleBytes;
+
+    Room(String name, int historySize, int historyBytes) {
+        this.name = name;
+
+        members = new LinkedHashSet<>();
+        history = historySize > 0 && historyBytes > 0 ? new MessageHistory(historySize, historyBytes) : null;
+    }
+
+    // В комнате нет ни участников, ни вышедших участников с незакончившимися сессиями.
+    boolean isIdle() {
+        return members.isEmpty() && suspendedMembers == 0;
+    }
+
+    boolean hasHistory() {
+        return history != null && !history.isEmpty();
+    }
+}
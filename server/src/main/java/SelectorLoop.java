@@ -0,0 +1,323 @@
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.net.ProtocolException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+Поток ввода-вывода движка NIO.
+
+Каждый поток владеет своим селектором и обслуживает свою часть соединений: читает из них строки
+и передаёт их серверу, дописывает исходящие данные. Поток принятия соединений и поток рассылки
+с каналами напрямую не работают - они ставят задачи в очереди (новый канал, канал с данными на запись)
+и будят селектор.
+
+Если сообщение клиента сейчас принять нельзя (ChatServer.admit), поток не ждёт, а перестаёт читать
+канал этого клиента до назначенного времени - клиент тем временем упирается в окно TCP.
+*/
+class SelectorLoop {
+    private final ChatServer server;
+    private final Selector selector;
+    private final Queue<SocketChannel> channelsToRegister;
+    private final Queue<ChannelClientConnection> connectionsToFlush;
+    // Соединения с приостановленным чтением - в порядке времени возобновления.
+    private final PriorityQueue<ChannelClientConnection> paused;
+    private final Thread thread;
+    private volatile boolean isRunning;
+
+    SelectorLoop(ChatServer server, String threadName) throws IOException {
+        this.server = server;
+
+        selector = Selector.open();
+        channelsToRegister = new ConcurrentLinkedQueue<>();
+        connectionsToFlush = new ConcurrentLinkedQueue<>();
+        paused = new PriorityQueue<>(Comparator.comparingLong(ChannelClientConnection::resumeAtNanos));
+        thread = new Thread(this::run, threadName);
+    }
+
+    void start() {
+        isRunning = true;
+
+        thread.start();
+    }
+
+    // Просит поток остановиться. Все обслуживаемые им соединения будут закрыты.
+    void stop() {
+        isRunning = false;
+
+        selector.wakeup();
+    }
+
+    void join() throws InterruptedException {
+        thread.join();
+    }
+
+    // Передаёт потоку новое (уже неблокирующее) соединение.
+    void register(SocketChannel channel) {
+        channelsToRegister.add(channel);
+
+        selector.wakeup();
+    }
+
+    // Просит поток дописать исходящие данные соединения.
+    void requestFlush(ChannelClientConnection client) {
+        connectionsToFlush.add(client);
+
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    private void run() {
+        try {
+            while (isRunning) {
+                selector.select(selectTimeoutMillis());
+
+                registerNewChannels();
+                resumePaused();
+
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+
+                    ChannelClientConnection client = (ChannelClientConnection) key.attachment();
+
+                    if (key.isValid() && key.isWritable()) {
+                        flush(client);
+                    }
+
+                    if (key.isValid() && key.isReadable()) {
+                        read(client);
+                    }
+                }
+
+                // В том числе ответы, поставленные в очередь этим же потоком при разборе сообщений.
+                flushRequested();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            server.logger().info("selector loop exception: %s", e.getMessage());
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void registerNewChannels() {
+        for (SocketChannel channel = channelsToRegister.poll(); channel != null; channel = channelsToRegister.poll()) {
+            ChannelClientConnection client = new ChannelClientConnection(
+                    channel,
+                    this,
+                    server.settings().outgoingQueueCapacity,
+                    server.settings().overflowPolicy,
+                    server.settings().maxLineLength,
+                    server.metrics()
+            );
+
+            try {
+                client.setKey(channel.register(selector, SelectionKey.OP_READ, client));
+            } catch (IOException e) {
+                server.logger().info("failed to register connection: %s", e.getMessage());
+
+                closeQuietly(client);
+
+                server.connectionClosed(client);
+
+                continue;
+            }
+
+            server.greet(client);
+        }
+    }
+
+    private void flushRequested() {
+        for (ChannelClientConnection client = connectionsToFlush.poll(); client != null; client = connectionsToFlush.poll()) {
+            if (client.channel().isOpen()) {
+                flush(client);
+            }
+        }
+    }
+
+    private void flush(ChannelClientConnection client) {
+        if (client.isSlowConsumer() || client.isIdle() || client.isDisconnectedOnShutdown()) {
+            disconnect(client);
+
+            return;
+        }
+
+        try {
+            client.flush();
+        } catch (IOException e) {
+            server.logger().info("client talking exception: %s", e.getMessage());
+
+            disconnect(client);
+        } catch (RuntimeException e) {
+            failed(client, e);
+        }
+    }
+
+    // Сколько ждать в select: до возобновления чтения ближайшего приостановленного соединения (0 - без предела).
+    private long selectTimeoutMillis() {
+        ChannelClientConnection next = paused.peek();
+
+        if (next == null) {
+            return 0;
+        }
+
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.resumeAtNanos() - System.nanoTime() + 999_999));
+    }
+
+    // Возобновляет чтение соединений, время которых пришло, и обрабатывает отложенные сообщения -
+    // и то, что не удалось принять, и уже прочитанные из канала после него.
+    private void resumePaused() {
+        long now = System.nanoTime();
+
+        while (!paused.isEmpty() && paused.peek().resumeAtNanos() <= now) {
+            ChannelClientConnection client = paused.poll();
+
+            try {
+                process(client, client.resumeReading());
+            } catch (IOException e) {
+                server.logger().info("client talking exception: %s", e.getMessage());
+
+                disconnect(client);
+            } catch (RuntimeException e) {
+                failed(client, e);
+            }
+        }
+    }
+
+    // Читает доступные сообщения и обрабатывает их.
+    private void read(ChannelClientConnection client) {
+        boolean isOpen;
+
+        try {
+            isOpen = client.readAvailable();
+
+            if (!process(client, null)) {
+                return;
+            }
+        } catch (IOException e) {
+            server.logger().info("client talking exception: %s", e.getMessage());
+
+            isOpen = false;
+        } catch (RuntimeException e) {
+            failed(client, e);
+
+            return;
+        }
+
+        if (!isOpen) {
+            disconnect(client);
+        }
+    }
+
+    // Обрабатывает сообщения клиента так же, как ChatServer.serveClient: первое сообщение - никнейм
+    // (или запрос двоичного протокола, или продолжение сессии), далее - сообщения до "/exit".
+    // first - сообщение, отложенное при приостановке чтения, или null. Возвращает false, если клиент отключён
+    // или его чтение снова приостановлено.
+    private boolean process(ChannelClientConnection client, String first) throws ProtocolException {
+        for (String message = first != null ? first : client.nextMessage(); message != null; message = client.nextMessage()) {
+            if (server.heartbeat(client, message)) {
+                continue;
+            }
+
+            if (client.nickname == null) {
+                if (!server.negotiate(client, message) && !server.resume(client, message)) {
+                    server.joinChat(client, message);
+                }
+
+                continue;
+            }
+
+            long admission = server.admit(client);
+
+            if (admission > 0) {
+                client.pauseReading(message, System.nanoTime() + admission);
+
+                paused.add(client);
+
+                return false;
+            }
+
+            if (admission == ChatServer.DISCONNECT) {
+                server.leaveChat(client.nickname);
+
+                disconnect(client);
+
+                return false;
+            }
+
+            if (admission == ChatServer.ADMITTED && !server.processMessage(client, client.nickname, message)) {
+                server.leaveChat(client.nickname);
+
+                disconnect(client);
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Ошибка в обработке одного клиента не должна останавливать поток: остальные соединения
+    // селектора продолжают обслуживаться, а этот клиент отключается.
+    private void failed(ChannelClientConnection client, RuntimeException e) {
+        server.logger().info("unexpected exception while serving client: %s", e);
+
+        disconnect(client);
+    }
+
+    // Убирает клиента из рассылки и закрывает соединение.
+    private void disconnect(ChannelClientConnection client) {
+        if (client.isClosed()) {
+            return;
+        }
+
+        paused.remove(client);
+
+        if (client.nickname != null) {
+            server.removeClient(client);
+
+            client.nickname = null;
+        }
+
+        closeQuietly(client);
+
+        server.connectionClosed(client);
+    }
+
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                disconnect((ChannelClientConnection) key.attachment());
+            }
+
+            selector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            server.logger().info("exception on selector closing: %s", e.getMessage());
+        }
+
+        for (SocketChannel channel = channelsToRegister.poll(); channel != null; channel = channelsToRegister.poll()) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void closeQuietly(ChannelClientConnection client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            server.logger().info("exception on connection closing: %s", e.getMessage());
+        }
+    }
+}
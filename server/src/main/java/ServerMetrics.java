@@ -0,0 +1,287 @@
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/*
+Метрики сервера: принятые соединения и соединения, которым отказано (Settings.maxConnections)
+или которые закрыты из-за молчания клиента (Settings.idleTimeoutMillis),
+полученные и отправленные клиентам сообщения и байты, придержанные и отклонённые сообщения клиентов
+(Settings.backpressurePolicy), время рассылки одного сообщения потоком рассылки, сообщения, выброшенные
+из переполненных очередей клиентов, и задержки рассылки на заполненной очереди клиента (политика BLOCK).
+
+Метрики пишут горячие места сервера из многих потоков сразу, поэтому счётчики - LongAdder
+(у каждого потока своя ячейка, без борьбы за одну строку кэша), а времена - гистограммы без блокировок
+(см. LatencyHistogram). Число клиентов и глубина очередей рассылки не считаются отдельно, а берутся
+у сервера в момент чтения (см. watch).
+
+Метрики видны через JMX (ServerMetricsMBean) и раз в Settings.metricsLogIntervalMillis пишутся в лог
+(см. ChatServer) - с числом событий в секунду за прошедший интервал. Гистограммы при этом
+сбрасываются, так что перцентили относятся к последнему интервалу.
+
+Выключенные метрики (DISABLED или Settings.metricsEnabled = false) ничего не записывают и даже
+не читают часы.
+*/
+public class ServerMetrics implements ServerMetricsMBean {
+    public static final ServerMetrics DISABLED = new ServerMetrics(false);
+
+    private final boolean enabled;
+    private final LongAdder acceptedConnections;
+    private final LongAdder rejectedConnections;
+    private final LongAdder idleConnections;
+    private final LongAdder throttledMessages;
+    private final LongAdder rejectedMessages;
+    private final LongAdder messagesReceived;
+    private final LongAdder messagesSent;
+    private final LongAdder bytesSent;
+    private final LongAdder broadcasts;
+    private final LongAdder droppedMessages;
+    private final LongAdder sendStalls;
+    private final LatencyHistogram broadcastNanos;
+    private final LatencyHistogram sendStallNanos;
+    private volatile IntSupplier connectedClients;
+    private volatile IntSupplier broadcastQueueDepth;
+
+    // Значения счётчиков при прошлой записи в лог - для числа событий в секунду.
+    private long lastLogNanos;
+    private long lastReceived;
+    private long lastSent;
+    private long lastBytesSent;
+    private long lastBroadcasts;
+
+    public ServerMetrics(boolean enabled) {
+        this.enabled = enabled;
+
+        acceptedConnections = new LongAdder();
+        rejectedConnections = new LongAdder();
+        idleConnections = new LongAdder();
+        throttledMessages = new LongAdder();
+        rejectedMessages = new LongAdder();
+        messagesReceived = new LongAdder();
+        messagesSent = new LongAdder();
+        bytesSent = new LongAdder();
+        broadcasts = new LongAdder();
+        droppedMessages = new LongAdder();
+        sendStalls = new LongAdder();
+        broadcastNanos = new LatencyHistogram();
+        sendStallNanos = new LatencyHistogram();
+        connectedClients = () -> 0;
+        broadcastQueueDepth = () -> 0;
+        lastLogNanos = System.nanoTime();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Откуда брать число клиентов чата и суммарную длину очередей потоков рассылки.
+    void watch(IntSupplier connectedClients, IntSupplier broadcastQueueDepth) {
+        this.connectedClients = connectedClients;
+        this.broadcastQueueDepth = broadcastQueueDepth;
+    }
+
+    void connectionAccepted() {
+        if (enabled) {
+            acceptedConnections.increment();
+        }
+    }
+
+    void connectionRejected() {
+        if (enabled) {
+            rejectedConnections.increment();
+        }
+    }
+
+    void connectionIdle() {
+        if (enabled) {
+            idleConnections.increment();
+        }
+    }
+
+    // Чтение сообщений клиента приостановлено, потому что сообщение нельзя принять сейчас.
+    void messageThrottled() {
+        if (enabled) {
+            throttledMessages.increment();
+        }
+    }
+
+    // Сообщение клиента отклонено (или клиент за него отключён).
+    void messageRejected() {
+        if (enabled) {
+            rejectedMessages.increment();
+        }
+    }
+
+    void messageReceived() {
+        if (enabled) {
+            messagesReceived.increment();
+        }
+    }
+
+    // Писатель клиента отправил count сообщений общим размером bytes.
+    void messagesSent(int count, long bytes) {
+        if (enabled) {
+            messagesSent.add(count);
+            bytesSent.add(bytes);
+        }
+    }
+
+    void messageDropped() {
+        if (enabled) {
+            droppedMessages.increment();
+        }
+    }
+
+    // Время начала замеряемого участка для broadcastFinished и sendStallFinished; 0, если метрики выключены.
+    long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void broadcastFinished(long startNanos) {
+        if (enabled) {
+            broadcasts.increment();
+            broadcastNanos.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    void sendStallFinished(long startNanos) {
+        if (enabled) {
+            sendStalls.increment();
+            sendStallNanos.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    // Строка для лога: счётчики, события в секунду с прошлого вызова и перцентили за это же время.
+    // Вызывается из одного потока.
+    String logLine() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - lastLogNanos) / 1e9;
+        long received = messagesReceived.sum();
+        long sent = messagesSent.sum();
+        long bytes = bytesSent.sum();
+        long broadcastCount = broadcasts.sum();
+
+        String line = String.format(
+                "metrics: clients %d, accepted %d, rejected %d, idle %d, received %.0f/s, sent %.0f/s (%.0f bytes/s), broadcasts %.0f/s,"
+                        + " broadcast queue %d, broadcast p50 %d us, p99 %d us, max %d us,"
+                        + " throttled %d, rejected messages %d, dropped %d, send stalls %d (p99 %d us, max %d us)",
+                getConnectedClients(),
+                getAcceptedConnections(),
+                getRejectedConnections(),
+                getIdleConnections(),
+                (received - lastReceived) / seconds,
+                (sent - lastSent) / seconds,
+                (bytes - lastBytesSent) / seconds,
+                (broadcastCount - lastBroadcasts) / seconds,
+                getBroadcastQueueDepth(),
+                getBroadcastP50Micros(),
+                getBroadcastP99Micros(),
+                getBroadcastMaxMicros(),
+                getThrottledMessages(),
+                getRejectedMessages(),
+                getDroppedMessages(),
+                getSendStalls(),
+                getSendStallP99Micros(),
+                getSendStallMaxMicros()
+        );
+
+        lastLogNanos = now;
+        lastReceived = received;
+        lastSent = sent;
+        lastBytesSent = bytes;
+        lastBroadcasts = broadcastCount;
+
+        broadcastNanos.reset();
+        sendStallNanos.reset();
+
+        return line;
+    }
+
+    @Override
+    public int getConnectedClients() {
+        return connectedClients.getAsInt();
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return acceptedConnections.sum();
+    }
+
+    @Override
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    @Override
+    public long getIdleConnections() {
+        return idleConnections.sum();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getBroadcasts() {
+        return broadcasts.sum();
+    }
+
+    @Override
+    public int getBroadcastQueueDepth() {
+        return broadcastQueueDepth.getAsInt();
+    }
+
+    @Override
+    public long getBroadcastP50Micros() {
+        return broadcastNanos.percentile(50) / 1000;
+    }
+
+    @Override
+    public long getBroadcastP99Micros() {
+        return broadcastNanos.percentile(99) / 1000;
+    }
+
+    @Override
+    public long getBroadcastMaxMicros() {
+        return broadcastNanos.max() / 1000;
+    }
+
+    @Override
+    public long getThrottledMessages() {
+        return throttledMessages.sum();
+    }
+
+    @Override
+    public long getRejectedMessages() {
+        return rejectedMessages.sum();
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    @Override
+    public long getSendStalls() {
+        return sendStalls.sum();
+    }
+
+    @Override
+    public long getSendStallP99Micros() {
+        return sendStallNanos.percentile(99) / 1000;
+    }
+
+    @Override
+    public long getSendStallMaxMicros() {
+        return sendStallNanos.max() / 1000;
+    }
+}
@@ -0,0 +1,39 @@
+// Метрики сервера, доступные через JMX (см. ServerMetrics). Счётчики - с запуска сервера,
+// перцентили - за время после последней записи метрик в лог.
+public interface ServerMetricsMBean {
+    int getConnectedClients();
+
+    long getAcceptedConnections();
+
+    long getRejectedConnections();
+
+    long getIdleConnections();
+
+    long getMessagesReceived();
+
+    long getMessagesSent();
+
+    long getBytesSent();
+
+    long getBroadcasts();
+
+    int getBroadcastQueueDepth();
+
+    long getBroadcastP50Micros();
+
+    long getBroadcastP99Micros();
+
+    long getBroadcastMaxMicros();
+
+    long getThrottledMessages();
+
+    long getRejectedMessages();
+
+    long getDroppedMessages();
+
+    long getSendStalls();
+
+    long getSendStallP99Micros();
+
+    long getSendStallMaxMicros();
+}
@@ -1,48 +1,279 @@
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
 
 public class Settings {
+    // Способ обслуживания клиентских соединений.
+    public enum Engine {
+        // Отдельный поток с блокирующим вводом-выводом на каждого клиента.
+        THREADS,
+        // То же, что THREADS, но клиентов обслуживают виртуальные потоки.
+        VIRTUAL_THREADS,
+        // Неблокирующие каналы, обслуживаемые небольшим набором потоков с селекторами.
+        NIO
+    }
+
+    // Что делать с сообщением для клиента, очередь исходящих которого заполнена.
+    public enum OverflowPolicy {
+        // Выбросить самое старое сообщение из очереди.
+        DROP_OLDEST,
+        // Отключить клиента, который не успевает читать.
+        DISCONNECT,
+        // Ждать, пока в очереди освободится место (задерживает рассылку для всех). Ждёт только рассылка:
+        // ответ сервера или личное сообщение клиенту с полной очередью отключает его, как DISCONNECT.
+        BLOCK
+    }
+
+    // Что делать с сообщением клиента, которое сервер сейчас не может принять: клиент превысил
+    // свой лимит сообщений или очередь рассылки его комнаты заполнена.
+    public enum BackpressurePolicy {
+        // Перестать читать из сокета клиента, пока сообщение нельзя будет принять.
+        THROTTLE,
+        // Отклонить сообщение и сообщить об этом клиенту.
+        REJECT,
+        // Отключить клиента.
+        DISCONNECT
+    }
+
     public static final int DEFAULT_PORT = 4444;
     public static final String DEFAULT_LOG_FILE_PATH = "log.txt";
+    public static final Engine DEFAULT_ENGINE = Engine.THREADS;
+    // 0 - по числу доступных ядер.
+    public static final int DEFAULT_IO_THREADS = 0;
+    // 0 - по числу доступных ядер.
+    public static final int DEFAULT_BROADCAST_THREADS = 0;
+    public static final int DEFAULT_HISTORY_SIZE = 100;
+    public static final int DEFAULT_HISTORY_BYTES = 64 * 1024;
+    public static final int DEFAULT_IDLE_HISTORY_BYTES = 16 * 1024 * 1024;
+    // Пустая строка - журнал выключен.
+    public static final String DEFAULT_JOURNAL_DIRECTORY = "";
+    public static final long DEFAULT_JOURNAL_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_JOURNAL_INDEX_INTERVAL = 4096;
+    public static final int DEFAULT_JOURNAL_MAX_SEGMENTS = 16;
+    public static final int DEFAULT_JOURNAL_RESTORE_MESSAGES = 10000;
+    public static final long DEFAULT_SESSION_TIMEOUT_MILLIS = 60_000;
+    public static final long DEFAULT_HEARTBEAT_INTERVAL_MILLIS = 30_000;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 90_000;
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT_MILLIS = 5_000;
+    // 0 - сервер работает один, без кластера.
+    public static final int DEFAULT_CLUSTER_PORT = 0;
+    public static final String[] DEFAULT_CLUSTER_PEERS = {};
+    // Пустая строка - случайное имя при каждом запуске.
+    public static final String DEFAULT_NODE_ID = "";
+    public static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+    public static final int DEFAULT_INGRESS_QUEUE_CAPACITY = 10_000;
+    public static final int DEFAULT_BROADCAST_BATCH_SIZE = 64;
+    public static final long DEFAULT_BROADCAST_LINGER_MILLIS = 0;
+    public static final double DEFAULT_CLIENT_MESSAGE_RATE = 50;
+    public static final int DEFAULT_CLIENT_MESSAGE_BURST = 100;
+    public static final BackpressurePolicy DEFAULT_BACKPRESSURE_POLICY = BackpressurePolicy.THROTTLE;
+    public static final boolean DEFAULT_METRICS_ENABLED = true;
+    public static final long DEFAULT_METRICS_LOG_INTERVAL_MILLIS = 60_000;
+    public static final int DEFAULT_OUTGOING_QUEUE_CAPACITY = 1024;
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.DROP_OLDEST;
+    public static final int DEFAULT_MAX_LINE_LENGTH = LineDecoder.DEFAULT_MAX_LINE_LENGTH;
+    public static final boolean DEFAULT_COMPRESSION_ENABLED = true;
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 64;
+    public static final boolean DEFAULT_ASYNC_LOGGING = true;
+    public static final int DEFAULT_LOG_BUFFER_SIZE = LoggerSettings.DEFAULT_BUFFER_SIZE;
+    public static final LoggerSettings.OverflowPolicy DEFAULT_LOG_OVERFLOW_POLICY = LoggerSettings.OverflowPolicy.BLOCK;
+    public static final Level DEFAULT_LOG_LEVEL = LoggerSettings.DEFAULT_LEVEL;
+    public static final boolean DEFAULT_LOG_SEGMENTED = false;
+    public static final long DEFAULT_LOG_SEGMENT_SIZE = LoggerSettings.DEFAULT_SEGMENT_SIZE;
+    public static final long DEFAULT_LOG_ROTATION_INTERVAL_MILLIS = LoggerSettings.DEFAULT_ROTATION_INTERVAL_MILLIS;
+    public static final boolean DEFAULT_LOG_COMPRESS_ARCHIVES = LoggerSettings.DEFAULT_COMPRESS_ARCHIVES;
+    public static final int DEFAULT_LOG_MAX_ARCHIVES = LoggerSettings.DEFAULT_MAX_ARCHIVES;
 
     public int port;
     public String logFilePath;
+    public Engine engine;
+    // Число потоков ввода-вывода движка NIO.
+    public int ioThreads;
+    // Число потоков рассылки, между которыми распределяются комнаты.
+    public int broadcastThreads;
+    // Сколько последних сообщений каждой комнаты (и не больше скольких байт) хранить,
+    // чтобы показать их вошедшему в комнату клиенту. 0 - история не хранится.
+    public int historySize;
+    public int historyBytes;
+    // Сколько байт истории всего хранить для комнат, в которых никого нет (кроме general, история которой
+    // хранится всегда): при превышении вытесняются истории комнат, опустевших раньше. Делится поровну
+    // между потоками рассылки. 0 - история опустевшей комнаты пропадает вместе с ней.
+    public int idleHistoryBytes;
+    // Каталог журнала разосланных сообщений (см. MessageJournal): размер сегмента, через сколько байт
+    // ставить точки индекса, сколько сегментов хранить и сколько последних сообщений возвращать
+    // в истории комнат при запуске.
+    public String journalDirectory;
+    public long journalSegmentSize;
+    public int journalIndexInterval;
+    public int journalMaxSegments;
+    public int journalRestoreMessages;
+    // Сколько хранить сессию клиента с оборвавшимся соединением (см. SuspendedSession). 0 - сессий нет.
+    public long sessionTimeoutMillis;
+    // Через сколько молчания клиента присылать ему PING (см. Protocol.PING) и после скольких закрывать
+    // соединение. 0 - не присылать и не закрывать.
+    public long heartbeatIntervalMillis;
+    public long idleTimeoutMillis;
+    // Сколько при остановке сервера ждать рассылки сообщений из очередей и закрытия соединений клиентами
+    // (см. ChatServer.waitForStop); оставшиеся соединения затем закрываются принудительно. 0 - не ждать.
+    public long shutdownTimeoutMillis;
+    // Порт для соединений с другими серверами кластера, их адреса (<хост>:<порт>) и имя этого сервера
+    // в кластере (см. ClusterNode).
+    public int clusterPort;
+    public String[] clusterPeers;
+    public String nodeId;
+    // Сколько соединений сервер держит одновременно; остальным отказывает сразу после подключения. 0 - без предела.
+    public int maxConnections;
+    // Сколько сообщений клиентов может ждать в очереди одного потока рассылки.
+    public int ingressQueueCapacity;
+    // Сколько событий поток рассылки разбирает за раз и сколько ждёт, пока пачка наберётся (см. BroadcastShard).
+    public int broadcastBatchSize;
+    public long broadcastLingerMillis;
+    // Сколько сообщений в секунду может присылать один клиент и сколько подряд (см. TokenBucket). 0 - без предела.
+    public double clientMessageRate;
+    public int clientMessageBurst;
+    public BackpressurePolicy backpressurePolicy;
+    // Собирать метрики сервера (см. ServerMetrics) и как часто писать их в лог. 0 - не писать.
+    public boolean metricsEnabled;
+    public long metricsLogIntervalMillis;
+    // Максимальное число сообщений в очереди исходящих одного клиента.
+    public int outgoingQueueCapacity;
+    public OverflowPolicy overflowPolicy;
+    // Максимальная длина строки текстового протокола в байтах. Клиент, приславший строку длиннее, отключается.
+    public int maxLineLength;
+    // Сжимать ли сообщения клиентам, попросившим сжатие (см. FrameCompressor), и начиная с какой длины
+    // закодированного сообщения в байтах.
+    public boolean compressionEnabled;
+    public int compressionThreshold;
+    // Писать лог в фоновом потоке (см. Logger).
+    public boolean asyncLogging;
+    // Ёмкость буфера событий асинхронного лога и что делать при его заполнении.
+    public int logBufferSize;
+    public LoggerSettings.OverflowPolicy logOverflowPolicy;
+    // Записи ниже этого уровня в лог не попадают.
+    public Level logLevel;
+    // Писать лог сегментами, сменяя их по размеру и времени
+    // и храня не больше logMaxArchives (сжатых, если logCompressArchives) архивов.
+    public boolean logSegmented;
+    public long logSegmentSize;
+    public long logRotationIntervalMillis;
+    public boolean logCompressArchives;
+    public int logMaxArchives;
 
     public Settings() {
         port = DEFAULT_PORT;
         logFilePath = DEFAULT_LOG_FILE_PATH;
+        engine = DEFAULT_ENGINE;
+        ioThreads = DEFAULT_IO_THREADS;
+        broadcastThreads = DEFAULT_BROADCAST_THREADS;
+        historySize = DEFAULT_HISTORY_SIZE;
+        historyBytes = DEFAULT_HISTORY_BYTES;
+        idleHistoryBytes = DEFAULT_IDLE_HISTORY_BYTES;
+        journalDirectory = DEFAULT_JOURNAL_DIRECTORY;
+        journalSegmentSize = DEFAULT_JOURNAL_SEGMENT_SIZE;
+        journalIndexInterval = DEFAULT_JOURNAL_INDEX_INTERVAL;
+        journalMaxSegments = DEFAULT_JOURNAL_MAX_SEGMENTS;
+        journalRestoreMessages = DEFAULT_JOURNAL_RESTORE_MESSAGES;
+        sessionTimeoutMillis = DEFAULT_SESSION_TIMEOUT_MILLIS;
+        heartbeatIntervalMillis = DEFAULT_HEARTBEAT_INTERVAL_MILLIS;
+        idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+        shutdownTimeoutMillis = DEFAULT_SHUTDOWN_TIMEOUT_MILLIS;
+        clusterPort = DEFAULT_CLUSTER_PORT;
+        clusterPeers = DEFAULT_CLUSTER_PEERS.clone();
+        nodeId = DEFAULT_NODE_ID;
+        maxConnections = DEFAULT_MAX_CONNECTIONS;
+        ingressQueueCapacity = DEFAULT_INGRESS_QUEUE_CAPACITY;
+        broadcastBatchSize = DEFAULT_BROADCAST_BATCH_SIZE;
+        broadcastLingerMillis = DEFAULT_BROADCAST_LINGER_MILLIS;
+        clientMessageRate = DEFAULT_CLIENT_MESSAGE_RATE;
+        clientMessageBurst = DEFAULT_CLIENT_MESSAGE_BURST;
+        backpressurePolicy = DEFAULT_BACKPRESSURE_POLICY;
+        metricsEnabled = DEFAULT_METRICS_ENABLED;
+        metricsLogIntervalMillis = DEFAULT_METRICS_LOG_INTERVAL_MILLIS;
+        outgoingQueueCapacity = DEFAULT_OUTGOING_QUEUE_CAPACITY;
+        overflowPolicy = DEFAULT_OVERFLOW_POLICY;
+        maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+        compressionEnabled = DEFAULT_COMPRESSION_ENABLED;
+        compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+        asyncLogging = DEFAULT_ASYNC_LOGGING;
+        logBufferSize = DEFAULT_LOG_BUFFER_SIZE;
+        logOverflowPolicy = DEFAULT_LOG_OVERFLOW_POLICY;
+        logLevel = DEFAULT_LOG_LEVEL;
+        logSegmented = DEFAULT_LOG_SEGMENTED;
+        logSegmentSize = DEFAULT_LOG_SEGMENT_SIZE;
+        logRotationIntervalMillis = DEFAULT_LOG_ROTATION_INTERVAL_MILLIS;
+        logCompressArchives = DEFAULT_LOG_COMPRESS_ARCHIVES;
+        logMaxArchives = DEFAULT_LOG_MAX_ARCHIVES;
     }
 
-    public static Settings readForm(String path) throws IOException {
-        Gson gson = new Gson();
-        String fileContent;
-
-        try (FileReader input = new FileReader(path)) {
-            StringBuilder builder = new StringBuilder();
-
-            for (int ch = input.read(); ch != -1; ch = input.read()) {
-                builder.append((char) ch);
-            }
+    // Изменённые значения этих полей сервер применяет на ходу (см. ChatServer.reconfigure), остальных -
+    // только после перезапуска.
+    static final Set<String> RELOADABLE = Set.of(
+            "maxConnections",
+            "ingressQueueCapacity",
+            "clientMessageRate",
+            "clientMessageBurst",
+            "backpressurePolicy",
+            "outgoingQueueCapacity",
+            "overflowPolicy",
+            "logLevel"
+    );
 
-            fileContent = builder.toString();
-        }
+    // Поля в порядке записи в файл.
+    static final SettingsBinder<Settings> BINDER = new SettingsBinder<>(Settings::new)
+            .intField("port", s -> s.port, (s, v) -> s.port = v)
+            .stringField("logFilePath", s -> s.logFilePath, (s, v) -> s.logFilePath = v)
+            .enumField("engine", Engine.values(), s -> s.engine, (s, v) -> s.engine = v)
+            .intField("ioThreads", s -> s.ioThreads, (s, v) -> s.ioThreads = v)
+            .intField("broadcastThreads", s -> s.broadcastThreads, (s, v) -> s.broadcastThreads = v)
+            .intField("historySize", s -> s.historySize, (s, v) -> s.historySize = v)
+            .intField("historyBytes", s -> s.historyBytes, (s, v) -> s.historyBytes = v)
+            .intField("idleHistoryBytes", s -> s.idleHistoryBytes, (s, v) -> s.idleHistoryBytes = v)
+            .stringField("journalDirectory", s -> s.journalDirectory, (s, v) -> s.journalDirectory = v)
+            .longField("journalSegmentSize", s -> s.journalSegmentSize, (s, v) -> s.journalSegmentSize = v)
+            .intField("journalIndexInterval", s -> s.journalIndexInterval, (s, v) -> s.journalIndexInterval = v)
+            .intField("journalMaxSegments", s -> s.journalMaxSegments, (s, v) -> s.journalMaxSegments = v)
+            .intField("journalRestoreMessages", s -> s.journalRestoreMessages, (s, v) -> s.journalRestoreMessages = v)
+            .longField("sessionTimeoutMillis", s -> s.sessionTimeoutMillis, (s, v) -> s.sessionTimeoutMillis = v)
+            .longField("heartbeatIntervalMillis", s -> s.heartbeatIntervalMillis, (s, v) -> s.heartbeatIntervalMillis = v)
+            .longField("idleTimeoutMillis", s -> s.idleTimeoutMillis, (s, v) -> s.idleTimeoutMillis = v)
+            .longField("shutdownTimeoutMillis", s -> s.shutdownTimeoutMillis, (s, v) -> s.shutdownTimeoutMillis = v)
+            .intField("clusterPort", s -> s.clusterPort, (s, v) -> s.clusterPort = v)
+            .stringArrayField("clusterPeers", s -> s.clusterPeers, (s, v) -> s.clusterPeers = v)
+            .stringField("nodeId", s -> s.nodeId, (s, v) -> s.nodeId = v)
+            .intField("maxConnections", s -> s.maxConnections, (s, v) -> s.maxConnections = v)
+            .intField("ingressQueueCapacity", s -> s.ingressQueueCapacity, (s, v) -> s.ingressQueueCapacity = v)
+            .intField("broadcastBatchSize", s -> s.broadcastBatchSize, (s, v) -> s.broadcastBatchSize = v)
+            .longField("broadcastLingerMillis", s -> s.broadcastLingerMillis, (s, v) -> s.broadcastLingerMillis = v)
+            .doubleField("clientMessageRate", s -> s.clientMessageRate, (s, v) -> s.clientMessageRate = v)
+            .intField("clientMessageBurst", s -> s.clientMessageBurst, (s, v) -> s.clientMessageBurst = v)
+            .enumField("backpressurePolicy", BackpressurePolicy.values(), s -> s.backpressurePolicy, (s, v) -> s.backpressurePolicy = v)
+            .booleanField("metricsEnabled", s -> s.metricsEnabled, (s, v) -> s.metricsEnabled = v)
+            .longField("metricsLogIntervalMillis", s -> s.metricsLogIntervalMillis, (s, v) -> s.metricsLogIntervalMillis = v)
+            .intField("outgoingQueueCapacity", s -> s.outgoingQueueCapacity, (s, v) -> s.outgoingQueueCapacity = v)
+            .enumField("overflowPolicy", OverflowPolicy.values(), s -> s.overflowPolicy, (s, v) -> s.overflowPolicy = v)
+            .intField("maxLineLength", s -> s.maxLineLength, (s, v) -> s.maxLineLength = v)
+            .booleanField("compressionEnabled", s -> s.compressionEnabled, (s, v) -> s.compressionEnabled = v)
+            .intField("compressionThreshold", s -> s.compressionThreshold, (s, v) -> s.compressionThreshold = v)
+            .booleanField("asyncLogging", s -> s.asyncLogging, (s, v) -> s.asyncLogging = v)
+            .intField("logBufferSize", s -> s.logBufferSize, (s, v) -> s.logBufferSize = v)
+            .enumField("logOverflowPolicy", LoggerSettings.OverflowPolicy.values(), s -> s.logOverflowPolicy, (s, v) -> s.logOverflowPolicy = v)
+            .enumField("logLevel", Level.values(), s -> s.logLevel, (s, v) -> s.logLevel = v)
+            .booleanField("logSegmented", s -> s.logSegmented, (s, v) -> s.logSegmented = v)
+            .longField("logSegmentSize", s -> s.logSegmentSize, (s, v) -> s.logSegmentSize = v)
+            .longField("logRotationIntervalMillis", s -> s.logRotationIntervalMillis, (s, v) -> s.logRotationIntervalMillis = v)
+            .booleanField("logCompressArchives", s -> s.logCompressArchives, (s, v) -> s.logCompressArchives = v)
+            .intField("logMaxArchives", s -> s.logMaxArchives, (s, v) -> s.logMaxArchives = v);
 
-        return gson.fromJson(fileContent, Settings.class);
+    // Читает настройки из файла (поля, которых в нём нет, - по умолчанию). Ошибка в файле - IllegalArgumentException.
+    public static Settings readForm(String path) throws IOException {
+        return BINDER.read(Path.of(path));
     }
 
     public static void writeTo(Settings s, String path) throws IOException {
-        Gson gson = new GsonBuilder()
-                .setPrettyPrinting()
-                .create();
-
-        String fileContent = gson.toJson(s);
+        BINDER.write(s, Path.of(path));
+    }
 
-        try (FileWriter output = new FileWriter(path)) {
-            output.write(fileContent);
-        }
+    public Settings copy() {
+        return BINDER.copy(this);
     }
 }
@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/*
+Следит за файлом настроек и применяет его изменения к работающему серверу (см. ChatServer.reconfigure).
+
+WatchService следит только за каталогами, поэтому события остальных файлов каталога пропускаются.
+Редакторы часто пишут файл в несколько приёмов или заменяют его новым, поэтому, получив событие, поток
+ждёт, пока файл SETTLE_MILLIS не будет меняться, и только потом читает его - один раз. Файл с ошибкой
+не применяется: сервер работает с прежними настройками, пока файл не исправят.
+*/
+class SettingsWatcher {
+    private static final long SETTLE_MILLIS = 200;
+
+    private final Path file;
+    private final ChatServer server;
+    private final Logger logger;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    SettingsWatcher(Path file, ChatServer server, Logger logger) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.server = server;
+        this.logger = logger;
+
+        watchService = this.file.getFileSystem().newWatchService();
+
+        this.file.getParent().register(
+                watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY
+        );
+
+        thread = new Thread(this::run, "settings-watcher");
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.info("exception on settings watcher closing: %s", e.getMessage());
+        }
+    }
+
+    void join() throws InterruptedException {
+        thread.join();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                if (!isFileChanged(watchService.take())) {
+                    continue;
+                }
+
+                settle();
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Остановлен.
+        }
+    }
+
+    // Ждёт, пока файл настроек SETTLE_MILLIS не будет меняться. События других файлов каталога
+    // (например, лога, который пишется постоянно) ожидание не продлевают.
+    private void settle() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SETTLE_MILLIS);
+
+        for (long left = deadline - System.nanoTime(); left > 0; left = deadline - System.nanoTime()) {
+            WatchKey key = watchService.poll(left, TimeUnit.NANOSECONDS);
+
+            if (key == null) {
+                return;
+            }
+
+            if (isFileChanged(key)) {
+                deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SETTLE_MILLIS);
+            }
+        }
+    }
+
+    // Разбирает события каталога и возвращает true, если среди них есть изменение файла настроек.
+    private boolean isFileChanged(WatchKey key) {
+        boolean isChanged = false;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // OVERFLOW - часть событий потеряна, файл тоже мог измениться.
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                isChanged = true;
+            }
+        }
+
+        key.reset();
+
+        return isChanged;
+    }
+
+    private void reload() {
+        Settings updated;
+
+        try {
+            updated = Settings.readForm(file.toString());
+        } catch (IOException | IllegalArgumentException e) {
+            logger.info("failed to reload settings from '%s': %s", file, e.getMessage());
+
+            return;
+        }
+
+        server.reconfigure(updated);
+    }
+}
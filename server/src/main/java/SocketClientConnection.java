@@ -0,0 +1,189 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.LockSupport;
+
+// Подключение клиента для движков THREADS и VIRTUAL_THREADS. Сообщения читаются строками
+// или кадрами - в зависимости от протокола, согласованного с клиентом (см. Protocol).
+// Читает из сокета поток ChatServer.serveClient, пишет - отдельный поток writeMessages.
+// Если сокет получен из ServerSocketChannel, накопившиеся сообщения пишутся одной
+// собирающей записью прямо из их буферов, иначе - по одному через поток вывода сокета.
+// Поток записи спит, пока его не разбудит messageQueued(), - рассылка будит его один раз на пачку сообщений.
+public class SocketClientConnection extends ClientConnection {
+    private static final int MAX_GATHERED_MESSAGES = 64;
+
+    private final Socket socket;
+    private final WritableByteChannel output;
+    private final InputStream input;
+    private final MessageDecoder incoming;
+    private volatile Thread writerThread;
+
+    public SocketClientConnection(
+            Socket socket,
+            int outgoingQueueCapacity,
+            Settings.OverflowPolicy overflowPolicy,
+            int maxLineLength,
+            ServerMetrics metrics
+    ) throws IOException {
+        super(outgoingQueueCapacity, overflowPolicy, metrics);
+
+        this.socket = socket;
+
+        output = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(socket.getOutputStream());
+        input = socket.getInputStream();
+        incoming = new MessageDecoder(maxLineLength);
+    }
+
+    // Читает следующее сообщение клиента. Если клиент закрыл соединение, бросает EOFException.
+    public String receive() throws IOException {
+        String message = incoming.next(protocol);
+
+        while (message == null) {
+            if (!incoming.readFrom(input)) {
+                throw new EOFException("connection closed by client");
+            }
+
+            dataReceived();
+
+            message = incoming.next(protocol);
+        }
+
+        return message;
+    }
+
+    // Поток записи: разбирает очередь исходящих сообщений и пишет их в сокет,
+    // пока соединение не будет закрыто или пока не допишет очередь после sendAndClose.
+    public void writeMessages() {
+        writerThread = Thread.currentThread();
+
+        EncodedMessage[] messages = new EncodedMessage[MAX_GATHERED_MESSAGES];
+        ByteBuffer[] buffers = new ByteBuffer[MAX_GATHERED_MESSAGES];
+
+        try {
+            while (!isClosed()) {
+                // Флаг читается до очереди: если он уже стоит, в очереди и последнее сообщение.
+                boolean closing = isClosing();
+                EncodedMessage first = pollOutgoing();
+
+                if (first == null) {
+                    if (closing) {
+                        // Чтение продолжается, пока клиент не закроет соединение.
+                        writerFinished();
+
+                        socket.shutdownOutput();
+
+                        return;
+                    }
+
+                    LockSupport.park(this);
+                    continue;
+                }
+
+                int count = 0;
+
+                messages[count++] = first;
+
+                while (count < MAX_GATHERED_MESSAGES) {
+                    EncodedMessage next = pollOutgoing();
+
+                    if (next == null) {
+                        break;
+                    }
+
+                    messages[count++] = next;
+                }
+
+                try {
+                    long bytes = 0;
+
+                    for (int i = 0; i < count; i++) {
+                        buffers[i] = messages[i].content();
+                        bytes += buffers[i].remaining();
+                    }
+
+                    write(buffers, count);
+
+                    metrics.messagesSent(count, bytes);
+                } finally {
+                    for (int i = 0; i < count; i++) {
+                        messages[i].release();
+
+                        messages[i] = null;
+                        buffers[i] = null;
+                    }
+                }
+            }
+        } catch (IOException ignored) {
+        }
+
+        writerFinished();
+
+        // Писать больше некуда - закрываем сокет, чтобы завершилось и чтение.
+        closeQuietly();
+    }
+
+    // Поток записи взят из общего пула и после выхода из writeMessages обслуживает другие соединения:
+    // close() не должен прервать его позже, иначе прерывание закроет канал чужого клиента.
+    private synchronized void writerFinished() {
+        writerThread = null;
+
+        Thread.interrupted();
+    }
+
+    private void write(ByteBuffer[] buffers, int count) throws IOException {
+        if (output instanceof GatheringByteChannel gathering) {
+            while (buffers[count - 1].hasRemaining()) {
+                gathering.write(buffers, 0, count);
+            }
+
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            while (buffers[i].hasRemaining()) {
+                output.write(buffers[i]);
+            }
+        }
+    }
+
+    @Override
+    protected void messageQueued() {
+        Thread writer = writerThread;
+
+        if (writer != null) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    @Override
+    protected void requestDisconnect() {
+        closeQuietly();
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+
+        synchronized (this) {
+            Thread writer = writerThread;
+
+            if (writer != null && writer != Thread.currentThread()) {
+                writer.interrupt();
+            }
+        }
+
+        socket.close();
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,24 @@
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Сессия клиента, соединение которого оборвалось (а не закрыто командой "/exit"). До истечения срока
+// клиент может переподключиться и продолжить её командой "/resume": он вернётся в свои комнаты
+// под тем же никнеймом, получит пропущенные сообщения, а остальные не увидят ни выхода, ни входа.
+class SuspendedSession {
+    final String nickname;
+    final Set<String> rooms;
+    final String room;
+    final long expiresAtMillis;
+
+    SuspendedSession(ClientConnection client, long expiresAtMillis) {
+        this.expiresAtMillis = expiresAtMillis;
+
+        nickname = client.nickname;
+        rooms = new LinkedHashSet<>(client.rooms);
+        room = client.room;
+    }
+
+    boolean isExpired(long nowMillis) {
+        return nowMillis >= expiresAtMillis;
+    }
+}
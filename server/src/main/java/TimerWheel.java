@@ -0,0 +1,152 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+Общий таймер сервера на хэшированном колесе: время разбито на тики по tickMillis, колесо - кольцо
+из size ячеек, и таймаут, истекающий на тике n, лежит в ячейке n % size. Поток таймера раз в тик
+обходит одну ячейку и выполняет таймауты, чей тик пришёл, а остальные (они истекут на следующих
+оборотах колеса) оставляет на месте. Поэтому постановка таймаута стоит O(1), а работа за тик
+пропорциональна одной ячейке, а не всем таймаутам, - таймер выдерживает десятки тысяч соединений
+без потока или запланированной задачи на каждое.
+
+Таймауты ставятся из любых потоков через очередь без блокировок, по ячейкам их раскладывает
+сам поток таймера. Точность - один тик: таймаут никогда не срабатывает раньше срока, но может
+опоздать на тик. Задачи выполняются в потоке таймера и должны быть короткими.
+*/
+class TimerWheel {
+    private final long tickNanos;
+    private final long tickMillis;
+    private final int mask;
+    private final List<List<Timeout>> buckets;
+    // Поставленные, но ещё не разложенные по ячейкам таймауты.
+    private final Queue<Timeout> scheduled;
+    private final Thread thread;
+    // Номер следующего обрабатываемого тика.
+    private volatile long tick;
+    private volatile boolean isRunning;
+
+    static class Timeout {
+        private final Runnable task;
+        private final long deadlineTick;
+        private volatile boolean isCancelled;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        // Отменённый таймаут не сработает и будет убран из колеса при ближайшем обходе его ячейки.
+        void cancel() {
+            isCancelled = true;
+        }
+    }
+
+    // size округляется вверх до степени двойки.
+    TimerWheel(long tickMillis, int size, String threadName) {
+        this.tickMillis = Math.max(1, tickMillis);
+
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(this.tickMillis);
+
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+
+        mask = capacity - 1;
+        buckets = new ArrayList<>(capacity);
+
+        for (int i = 0; i < capacity; i++) {
+            buckets.add(new ArrayList<>());
+        }
+
+        scheduled = new ConcurrentLinkedQueue<>();
+        thread = new Thread(this::run, threadName);
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        isRunning = true;
+
+        thread.start();
+    }
+
+    void stop() {
+        isRunning = false;
+
+        LockSupport.unpark(thread);
+    }
+
+    void join() throws InterruptedException {
+        thread.join();
+    }
+
+    // Выполнит task в потоке таймера не раньше чем через delayMillis.
+    Timeout schedule(Runnable task, long delayMillis) {
+        long ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        Timeout timeout = new Timeout(task, tick + ticks);
+
+        scheduled.add(timeout);
+
+        return timeout;
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+
+        while (isRunning) {
+            // Тик n обрабатывается по окончании n-го интервала, так что таймауты не срабатывают раньше срока.
+            long deadline = start + (tick + 1) * tickNanos;
+
+            for (long now = System.nanoTime(); isRunning && now < deadline; now = System.nanoTime()) {
+                LockSupport.parkNanos(this, deadline - now);
+            }
+
+            if (isRunning) {
+                tick();
+            }
+        }
+    }
+
+    // Обрабатывает очередной тик: раскладывает новые таймауты по ячейкам и выполняет истёкшие
+    // таймауты текущей ячейки. Вызывается только потоком таймера (и тестами вместо него).
+    void tick() {
+        long current = tick;
+
+        for (Timeout timeout = scheduled.poll(); timeout != null; timeout = scheduled.poll()) {
+            if (!timeout.isCancelled) {
+                buckets.get((int) (Math.max(timeout.deadlineTick, current) & mask)).add(timeout);
+            }
+        }
+
+        List<Timeout> bucket = buckets.get((int) (current & mask));
+        int kept = 0;
+
+        for (int i = 0; i < bucket.size(); i++) {
+            Timeout timeout = bucket.get(i);
+
+            if (timeout.isCancelled) {
+                continue;
+            }
+
+            if (timeout.deadlineTick > current) {
+                bucket.set(kept++, timeout);
+
+                continue;
+            }
+
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                // Упавшая задача не должна останавливать таймер для остальных.
+                Thread.UncaughtExceptionHandler handler = Thread.currentThread().getUncaughtExceptionHandler();
+
+                handler.uncaughtException(Thread.currentThread(), e);
+            }
+        }
+
+        bucket.subList(kept, bucket.size()).clear();
+
+        tick = current + 1;
+    }
+}
@@ -0,0 +1,53 @@
+// Ограничитель частоты сообщений одного клиента ("ведро с жетонами"): жетоны прибывают равномерно,
+// ratePerSecond в секунду, и копятся не больше burst штук. Каждое сообщение тратит жетон, так что клиент
+// может прислать burst сообщений подряд, а дальше - не чаще ratePerSecond.
+//
+// Не потокобезопасен: им пользуется только поток, читающий сообщения клиента.
+class TokenBucket {
+    private double tokensPerNano;
+    private double burst;
+    private double tokens;
+    private long refilledAtNanos;
+
+    TokenBucket(double ratePerSecond, int burst, long nowNanos) {
+        this.burst = Math.max(1, burst);
+
+        tokensPerNano = ratePerSecond / 1e9;
+        tokens = this.burst;
+        refilledAtNanos = nowNanos;
+    }
+
+    // Меняет частоту и размер ведра (настройки сервера изменились на ходу). Жетоны, накопленные
+    // по прежней частоте, сохраняются, но не больше нового burst.
+    void setRate(double ratePerSecond, int burst, long nowNanos) {
+        double newTokensPerNano = ratePerSecond / 1e9;
+        double newBurst = Math.max(1, burst);
+
+        if (newTokensPerNano == tokensPerNano && newBurst == this.burst) {
+            return;
+        }
+
+        refill(nowNanos);
+
+        tokensPerNano = newTokensPerNano;
+        this.burst = newBurst;
+        tokens = Math.min(tokens, newBurst);
+    }
+
+    // Через сколько наносекунд появится жетон: 0 - он есть уже сейчас.
+    long delayNanos(long nowNanos) {
+        refill(nowNanos);
+
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    // Тратит жетон; вызывается, только если delayNanos вернул 0.
+    void take() {
+        tokens -= 1;
+    }
+
+    private void refill(long nowNanos) {
+        tokens = Math.min(burst, tokens + (nowNanos - refilledAtNanos) * tokensPerNano);
+        refilledAtNanos = nowNanos;
+    }
+}
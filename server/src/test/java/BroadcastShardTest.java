@@ -0,0 +1,234 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Поток рассылки: сообщение комнаты получают только её участники, кроме отправителя; пачка сообщений
+// будит писателя получателя один раз; буферы сообщений возвращаются в пул после отправки
+// и при закрытии соединения, не успевшего их отправить; история комнаты переживает уход всех участников,
+// пока помещается в бюджет комнат без участников.
+public class BroadcastShardTest {
+    private static final int QUEUE_CAPACITY = 64;
+    private static final int MESSAGES = 10;
+
+    // Пул, который считает выданные и ещё не возвращённые буферы.
+    private static class CountingPool extends BufferPool {
+        final AtomicInteger outstanding = new AtomicInteger();
+
+        CountingPool() {
+            super(256, 16);
+        }
+
+        @Override
+        public ByteBuffer acquire() {
+            outstanding.incrementAndGet();
+
+            return super.acquire();
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {
+            outstanding.decrementAndGet();
+
+            super.release(buffer);
+        }
+    }
+
+    private final CountingPool pool = new CountingPool();
+    private BroadcastShard shard;
+    private int idleHistoryBytes = Settings.DEFAULT_IDLE_HISTORY_BYTES;
+    private int probes;
+
+    @AfterEach
+    public void stop() throws InterruptedException {
+        if (shard != null) {
+            shard.stop();
+            shard.join();
+        }
+    }
+
+    @Test
+    public void deliversOnlyToRoomMembers() throws Exception {
+        start(QUEUE_CAPACITY, 0);
+
+        TestConnection a = connection();
+        TestConnection b = connection();
+        TestConnection c = connection();
+
+        shard.join(a, "dev", 0);
+        shard.join(b, "dev", 0);
+        shard.join(c, "other", 0);
+
+        shard.send("dev", a, "[dev] a: hi");
+
+        Assertions.assertEquals("[dev] a: hi", b.take());
+
+        shard.leave(b, "dev");
+        shard.send("dev", a, "[dev] a: bye");
+        shard.send("dev", null, "[dev] server: bye");
+
+        Assertions.assertEquals("[dev] server: bye", a.take());
+
+        awaitProcessed();
+
+        Assertions.assertNull(a.next());
+        Assertions.assertNull(b.next());
+        Assertions.assertNull(c.next());
+    }
+
+    @Test
+    public void wakesWritersOncePerBatch() throws Exception {
+        // Без пачек каждое сообщение будит писателя.
+        Assertions.assertEquals(MESSAGES, wakeupsFor(1, 0));
+
+        // Пачка, собранная за время ожидания, будит его один раз.
+        Assertions.assertTrue(wakeupsFor(QUEUE_CAPACITY, TimeUnit.MILLISECONDS.toNanos(200)) < MESSAGES);
+    }
+
+    @Test
+    public void releasesBuffersAfterDeliveryAndOnClose() throws Exception {
+        start(QUEUE_CAPACITY, 0);
+
+        TestConnection reading = connection();
+        TestConnection closing = connection();
+
+        shard.join(reading, "dev", 0);
+        shard.join(closing, "dev", 0);
+
+        for (int i = 0; i < MESSAGES; i++) {
+            shard.send("dev", null, "[dev] m" + i);
+        }
+
+        for (int i = 0; i < MESSAGES; i++) {
+            Assertions.assertEquals("[dev] m" + i, reading.take());
+        }
+
+        awaitProcessed();
+
+        // Сообщения ещё ждут в очереди closing - их буферы удерживаются.
+        Assertions.assertTrue(pool.outstanding.get() > 0);
+
+        shard.leave(closing, "dev");
+        closing.close();
+
+        awaitProcessed();
+
+        Assertions.assertEquals(0, pool.outstanding.get());
+    }
+
+    @Test
+    public void keepsHistoryAfterRoomEmpties() throws Exception {
+        start(QUEUE_CAPACITY, 0);
+
+        TestConnection a = connection();
+
+        shard.join(a, "dev", 0);
+        shard.send("dev", a, "[dev] a: hi");
+        shard.leave(a, "dev");
+
+        // Сообщение в комнату, где уже никого нет, тоже остаётся в истории.
+        shard.send("dev", null, "[dev] server: bye");
+
+        TestConnection b = connection();
+
+        shard.join(b, "dev", 0);
+
+        Assertions.assertEquals("[dev] a: hi\n[dev] server: bye", b.take());
+    }
+
+    @Test
+    public void evictsOldestIdleHistoryOverBudget() throws Exception {
+        // Бюджет вмещает историю одной опустевшей комнаты, но не двух.
+        idleHistoryBytes = "[r1] m".length() + 1;
+
+        start(QUEUE_CAPACITY, 0);
+
+        for (String room : new String[]{"r1", "r2", ChatServer.DEFAULT_ROOM}) {
+            TestConnection member = connection();
+
+            shard.join(member, room, 0);
+            shard.send(room, member, "[" + room + "] m");
+            shard.leave(member, room);
+        }
+
+        TestConnection c = connection();
+
+        // История r1 вытеснена историей r2, история general в бюджете не учитывается и хранится всегда.
+        shard.join(c, "r1", 0);
+        shard.send("r1", null, "[r1] after");
+
+        Assertions.assertEquals("[r1] after", c.take());
+
+        shard.join(c, "r2", 0);
+
+        Assertions.assertEquals("[r2] m", c.take());
+
+        shard.join(c, ChatServer.DEFAULT_ROOM, 0);
+
+        Assertions.assertEquals("[general] m", c.take());
+    }
+
+    private int wakeupsFor(int batchSize, long lingerNanos) throws Exception {
+        stop();
+        start(batchSize, lingerNanos);
+
+        TestConnection member = connection();
+
+        shard.join(member, "dev", 0);
+
+        awaitProcessed();
+
+        member.wakeups.set(0);
+
+        for (int i = 0; i < MESSAGES; i++) {
+            shard.send("dev", null, "[dev] m" + i);
+        }
+
+        for (int i = 0; i < MESSAGES; i++) {
+            Assertions.assertEquals("[dev] m" + i, member.take());
+        }
+
+        return member.wakeups.get();
+    }
+
+    private void start(int batchSize, long lingerNanos) {
+        shard = new BroadcastShard(
+                new ClientRegistry(),
+                pool,
+                Settings.DEFAULT_HISTORY_SIZE,
+                Settings.DEFAULT_HISTORY_BYTES,
+                idleHistoryBytes,
+                QUEUE_CAPACITY,
+                batchSize,
+                lingerNanos,
+                null,
+                new AtomicLong(),
+                ServerMetrics.DISABLED,
+                "broadcast-test"
+        );
+
+        shard.start();
+    }
+
+    private TestConnection connection() {
+        return new TestConnection(QUEUE_CAPACITY, Settings.OverflowPolicy.DROP_OLDEST);
+    }
+
+    // События шарда обрабатываются по порядку: когда пришло сообщение в отдельную новую комнату,
+    // всё поставленное в очередь раньше уже разослано.
+    private void awaitProcessed() throws InterruptedException {
+        TestConnection probe = connection();
+        String room = "probe" + probes++;
+
+        shard.join(probe, room, 0);
+        shard.send(room, null, room);
+
+        Assertions.assertEquals(room, probe.take());
+
+        shard.leave(probe, room);
+    }
+}
@@ -0,0 +1,178 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+
+// PING и PONG при Settings.OverflowPolicy.BLOCK: клиент, который не читает, не должен останавливать
+// ни таймер (вытеснение молчащих клиентов), ни поток, обслуживающий остальные соединения.
+public class ChatServerHeartbeatTest {
+    private final String LOG_FILE_PATH = "./src/test/resources/heartbeat_test_log.txt";
+    private final int OUTGOING_QUEUE_CAPACITY = 4;
+    private final int RECEIVE_BUFFER_SIZE = 4096;
+    private final int PINGS_PER_WRITE = 1000;
+    private final int MESSAGE_LENGTH = 32_000;
+    private final int MESSAGES = 400;
+    private final int DISCONNECT_TIMEOUT_MILLIS = 10_000;
+
+    @Test
+    public void pongDoesNotBlockOtherClients() throws Exception {
+        try (Logger l = new Logger(LOG_FILE_PATH, false)) {
+            for (Settings.Engine engine : Settings.Engine.values()) {
+                floodPings(engine, l);
+            }
+        } finally {
+            Assertions.assertTrue(new File(LOG_FILE_PATH).delete());
+        }
+    }
+
+    @Test
+    public void pingDoesNotStopIdleEviction() throws Exception {
+        try (Logger l = new Logger(LOG_FILE_PATH, false)) {
+            for (Settings.Engine engine : Settings.Engine.values()) {
+                evictIdle(engine, l);
+            }
+        } finally {
+            Assertions.assertTrue(new File(LOG_FILE_PATH).delete());
+        }
+    }
+
+    // Клиент шлёт "/ping", но не читает ответы. Когда его очередь заполнится, сервер отключает его,
+    // а не ждёт места: при одном потоке ввода-вывода NIO ожидание оставило бы без приветствия всех остальных.
+    private void floodPings(Settings.Engine engine, Logger l) throws Exception {
+        Settings s = settings(engine);
+        ServerSocket listener = listen();
+        ChatServer server = new ChatServer(listener, "hello", l, s);
+        int port = listener.getLocalPort();
+
+        server.start();
+
+        try (Socket flooding = connect(port)) {
+            OutputStream output = flooding.getOutputStream();
+            byte[] pings = (Protocol.PING + "\n").repeat(PINGS_PER_WRITE).getBytes(StandardCharsets.UTF_8);
+            Thread writer = new Thread(() -> {
+                try {
+                    output.write("flooding\n".getBytes(StandardCharsets.UTF_8));
+
+                    while (true) {
+                        output.write(pings);
+                    }
+                } catch (IOException e) {
+                    // Сервер закрыл соединение.
+                }
+            });
+
+            writer.setDaemon(true);
+            writer.start();
+
+            // Пишущий поток завершится, когда сервер сбросит соединение.
+            writer.join(DISCONNECT_TIMEOUT_MILLIS);
+
+            Assertions.assertFalse(writer.isAlive(), engine + ": flooding client was not disconnected");
+
+            try (TestClient other = new TestClient(port, "other")) {
+                other.expect("other joined chat");
+            }
+        } finally {
+            server.stop();
+            server.waitForStop();
+        }
+    }
+
+    // Клиент, который не читает, забивает свою очередь рассылкой, и рассылка при BLOCK ждёт его.
+    // PING ему не должен подвешивать таймер: иначе молчащий клиент idle так и не будет отключён.
+    private void evictIdle(Settings.Engine engine, Logger l) throws Exception {
+        Settings s = settings(engine);
+        s.heartbeatIntervalMillis = 200;
+        s.idleTimeoutMillis = 1000;
+        s.clientMessageRate = 0;
+
+        ServerSocket listener = listen();
+        ChatServer server = new ChatServer(listener, "hello", l, s);
+        int port = listener.getLocalPort();
+
+        server.start();
+
+        try (Socket silent = connect(port);
+             TestClient talking = new TestClient(port, "talking");
+             TestClient idle = new TestClient(port, "idle")) {
+            silent.getOutputStream().write("silent\n".getBytes(StandardCharsets.UTF_8));
+
+            String message = "m".repeat(MESSAGE_LENGTH);
+
+            for (int i = 0; i < MESSAGES; i++) {
+                talking.say(message);
+            }
+
+            // idle не отвечает на PING и получает строки рассылки до тех пор, пока сервер его не отключит.
+            try {
+                while (idle.readLine() != null) {
+                    // Ждём конца потока.
+                }
+            } catch (SocketException e) {
+                // Соединение сброшено сервером.
+            }
+
+            awaitClosed(silent, engine);
+        } catch (SocketTimeoutException e) {
+            Assertions.fail(engine + ": idle client was not disconnected");
+        } finally {
+            server.stop();
+            server.waitForStop();
+        }
+    }
+
+    private Settings settings(Settings.Engine engine) {
+        Settings s = new Settings();
+        s.engine = engine;
+        s.ioThreads = 1;
+        s.overflowPolicy = Settings.OverflowPolicy.BLOCK;
+        s.outgoingQueueCapacity = OUTGOING_QUEUE_CAPACITY;
+
+        return s;
+    }
+
+    private ServerSocket listen() throws IOException {
+        return ServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                .socket();
+    }
+
+    // Подключается с маленьким буфером приёма, чтобы очередь клиента на сервере заполнялась быстро.
+    private Socket connect(int port) throws IOException {
+        Socket socket = new Socket();
+
+        socket.setReceiveBufferSize(RECEIVE_BUFFER_SIZE);
+        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+
+        return socket;
+    }
+
+    // Дочитывает всё, что сервер успел отправить, и ждёт закрытия соединения.
+    private void awaitClosed(Socket socket, Settings.Engine engine) throws IOException {
+        InputStream input = socket.getInputStream();
+        byte[] buffer = new byte[64 * 1024];
+
+        socket.setSoTimeout(DISCONNECT_TIMEOUT_MILLIS);
+
+        try {
+            while (input.read(buffer) >= 0) {
+                // Ждём конца потока.
+            }
+        } catch (SocketTimeoutException e) {
+            Assertions.fail(engine + ": slow client was not disconnected");
+        } catch (IOException e) {
+            // Соединение сброшено сервером.
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Нагрузочный тест: подключает к серверу много клиентов, которые висят на вводе никнейма,
+// и сравнивает число потоков ОС и занятую память для пула потоков и виртуальных потоков.
+// Память - это куча после сборки мусора (в ней живут стеки виртуальных потоков) и резидентная
+// память процесса (в ней стеки обычных потоков); последняя доступна только на Linux.
+// Клиенты подключаются из отдельного процесса (Clients): так их сокеты не расходуют лимит открытых файлов
+// процесса сервера и не попадают в его измерения.
+// Запуск: gradle :server:test --tests ChatServerLoadTest -DloadTest=true [-DloadTest.clients=10000]
+// (нужен лимит открытых файлов процесса больше числа клиентов).
+@EnabledIfSystemProperty(named = "loadTest", matches = "true")
+public class ChatServerLoadTest {
+    private final String LOG_FILE_PATH = "./src/test/resources/load_test_log.txt";
+    private final int CLIENTS_COUNT = Integer.getInteger("loadTest.clients", 10_000);
+
+    private static class Measurement {
+        public int threads;
+        public long heapBytes;
+        public long residentBytes;
+    }
+
+    @Test
+    public void compareThreadsAndVirtualThreads() throws Exception {
+        try (Logger l = new Logger(LOG_FILE_PATH, false)) {
+            // Виртуальные потоки меряем первыми: потоки пула после остановки сервера
+            // завершаются не мгновенно и исказили бы следующее измерение.
+            Measurement virtualThreads = measure(Settings.Engine.VIRTUAL_THREADS, l);
+            Measurement threads = measure(Settings.Engine.THREADS, l);
+
+            System.out.printf("%d idle clients%n", CLIENTS_COUNT);
+            print("THREADS", threads);
+            print("VIRTUAL_THREADS", virtualThreads);
+
+            Assertions.assertTrue(threads.threads >= CLIENTS_COUNT);
+            Assertions.assertTrue(virtualThreads.threads < CLIENTS_COUNT / 10);
+        } finally {
+            File f = new File(LOG_FILE_PATH);
+
+            Assertions.assertTrue(f.delete());
+        }
+    }
+
+    private Measurement measure(Settings.Engine engine, Logger l) throws Exception {
+        Settings s = new Settings();
+        s.engine = engine;
+        s.maxConnections = Math.max(s.maxConnections, CLIENTS_COUNT);
+
+        ServerSocket listener = new ServerSocket(0, CLIENTS_COUNT);
+        int port = listener.getLocalPort();
+        ChatServer server = new ChatServer(listener, "hello", l, s);
+
+        Measurement result = new Measurement();
+
+        server.start();
+
+        Process clients = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp",
+                System.getProperty("java.class.path"),
+                Clients.class.getName(),
+                Integer.toString(port),
+                Integer.toString(CLIENTS_COUNT)
+        ).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+        try {
+            // Процесс клиентов сообщает, что все клиенты подключены и получили приветствие,
+            // то есть сервер принял все соединения и запустил их обслуживание.
+            BufferedReader output = new BufferedReader(new InputStreamReader(clients.getInputStream(), StandardCharsets.UTF_8));
+
+            Assertions.assertEquals(Clients.READY, output.readLine());
+
+            System.gc();
+
+            result.threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            result.heapBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            result.residentBytes = residentBytes();
+        } finally {
+            server.stop();
+
+            // Закрытый ввод - сигнал процессу клиентов закрыть соединения и завершиться.
+            clients.getOutputStream().close();
+            clients.waitFor();
+
+            server.waitForStop();
+        }
+
+        return result;
+    }
+
+    // Процесс клиентов: подключает count клиентов к порту, дожидается от каждого приветствия сервера,
+    // пишет READY и держит соединения, пока не закроется его ввод.
+    public static class Clients {
+        static final String READY = "ready";
+
+        public static void main(String[] args) throws IOException {
+            int port = Integer.parseInt(args[0]);
+            int count = Integer.parseInt(args[1]);
+            List<Socket> sockets = new ArrayList<>(count);
+
+            try {
+                for (int i = 0; i < count; i++) {
+                    sockets.add(new Socket(InetAddress.getLoopbackAddress(), port));
+                }
+
+                for (Socket socket : sockets) {
+                    socket.getInputStream().read();
+                }
+
+                System.out.println(READY);
+                System.out.flush();
+
+                while (System.in.read() != -1) {
+                    // Ждём закрытия ввода.
+                }
+            } finally {
+                for (Socket socket : sockets) {
+                    closeQuietly(socket);
+                }
+            }
+        }
+    }
+
+    private static void print(String engine, Measurement m) {
+        System.out.printf(
+                "%-16s %6d threads, %7d KiB heap, %7d KiB resident%n",
+                engine + ":",
+                m.threads,
+                m.heapBytes / 1024,
+                m.residentBytes / 1024
+        );
+    }
+
+    // Резидентная память процесса из /proc/self/status, -1 - если её не удалось узнать.
+    private static long residentBytes() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+
+        return -1;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
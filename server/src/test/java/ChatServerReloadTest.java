@@ -0,0 +1,65 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.function.Consumer;
+
+// Настройки, изменённые на ходу (см. ChatServer.reconfigure): допустимые значения применяются,
+// а файл с недопустимым значением не меняет ничего - сервер продолжает принимать соединения.
+public class ChatServerReloadTest {
+    private final String LOG_FILE_PATH = "./src/test/resources/reload_test_log.txt";
+
+    @Test
+    public void rejectsInvalidValuesAndKeepsSettings() throws Exception {
+        try (Logger l = new Logger(LOG_FILE_PATH, false)) {
+            ServerSocket listener = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            ChatServer server = new ChatServer(listener, "hello", l, new Settings());
+            int port = listener.getLocalPort();
+
+            server.start();
+
+            try {
+                Settings updated = new Settings();
+                updated.outgoingQueueCapacity = 16;
+                updated.clientMessageBurst = 10;
+
+                server.reconfigure(updated);
+
+                Assertions.assertEquals(16, server.settings().outgoingQueueCapacity);
+                Assertions.assertEquals(10, server.settings().clientMessageBurst);
+
+                reject(server, s -> s.outgoingQueueCapacity = 0);
+                reject(server, s -> s.ingressQueueCapacity = 0);
+                reject(server, s -> s.clientMessageBurst = 0);
+                reject(server, s -> s.maxConnections = -1);
+
+                Assertions.assertEquals(16, server.settings().outgoingQueueCapacity);
+                Assertions.assertEquals(10, server.settings().clientMessageBurst);
+
+                // Новое соединение получает очередь по прежним настройкам.
+                try (TestClient a = new TestClient(port, "a")) {
+                    a.expect("a joined chat");
+                }
+            } finally {
+                server.stop();
+                server.waitForStop();
+            }
+        } finally {
+            Assertions.assertTrue(new File(LOG_FILE_PATH).delete());
+        }
+    }
+
+    // Вместе с недопустимым значением меняется и допустимое - не должно примениться ни то, ни другое.
+    private void reject(ChatServer server, Consumer<Settings> change) {
+        Settings updated = server.settings().copy();
+        updated.logLevel = Level.DEBUG;
+
+        change.accept(updated);
+
+        server.reconfigure(updated);
+
+        Assertions.assertNotEquals(Level.DEBUG, server.settings().logLevel);
+    }
+}
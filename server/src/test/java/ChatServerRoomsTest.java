@@ -0,0 +1,136 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+
+// Комнаты: "/join", "/switch", "/leave", префикс "[комната]" у сообщений и комната general, из которой
+// выйти нельзя. Комнаты распределены по нескольким потокам рассылки, и порядок сообщений каждой комнаты
+// сохраняется, даже когда клиенты пишут в разные комнаты вперемешку.
+public class ChatServerRoomsTest {
+    private final String LOG_FILE_PATH = "./src/test/resources/rooms_test_log.txt";
+    private final int BROADCAST_THREADS = 4;
+    private final String[] ROOMS = {"ops", "qa", "random", "music", "books"};
+    private final int MESSAGES_PER_ROOM = 50;
+
+    @Test
+    public void roomsRoundTrip() throws Exception {
+        try (Logger l = new Logger(LOG_FILE_PATH, false)) {
+            for (Settings.Engine engine : Settings.Engine.values()) {
+                rooms(engine, l);
+            }
+        } finally {
+            Assertions.assertTrue(new File(LOG_FILE_PATH).delete());
+        }
+    }
+
+    private void rooms(Settings.Engine engine, Logger l) throws Exception {
+        Settings s = new Settings();
+        s.engine = engine;
+        s.broadcastThreads = BROADCAST_THREADS;
+        s.clientMessageRate = 0;
+
+        ServerSocket listener = ServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                .socket();
+        ChatServer server = new ChatServer(listener, "hello", l, s);
+        int port = listener.getLocalPort();
+
+        server.start();
+
+        try (TestClient a = new TestClient(port, "a")) {
+            a.expect("a joined chat");
+
+            try (TestClient b = new TestClient(port, "b")) {
+                a.expect("b joined chat");
+                b.expect("b joined chat");
+
+                chat(engine, a, b);
+            }
+        } finally {
+            server.stop();
+            server.waitForStop();
+        }
+    }
+
+    private void chat(Settings.Engine engine, TestClient a, TestClient b) throws IOException {
+        a.say("/join dev");
+        a.expect("you are in room dev");
+
+        // Вошедший получает историю комнаты.
+        b.say("/join dev");
+        b.expect("you are in room dev");
+        b.expect("[dev] a joined room");
+        a.expect("[dev] b joined room");
+
+        b.say("hi");
+        a.expect("[dev] b: hi");
+
+        // Сообщения текущей комнаты general приходят без префикса.
+        a.say("/switch general");
+        a.expect("you are in room general");
+        a.say("hello");
+        b.expect("a: hello");
+
+        b.say("/switch nowhere");
+        b.expect("you are not in room nowhere, use /join");
+
+        b.say("/leave general");
+        b.expect("you cannot leave room general");
+
+        b.say("/leave dev");
+        b.expect("you left room dev, you are in room general");
+        a.expect("[dev] b left room");
+
+        b.say("/leave dev");
+        b.expect("you are not in room dev");
+
+        // Каждый пишет во все комнаты по очереди: комнаты обслуживают разные потоки рассылки,
+        // но сообщения одной комнаты приходят в том порядке, в каком отправлены.
+        for (String room : ROOMS) {
+            a.say("/join " + room);
+            a.expect("you are in room " + room);
+
+            b.say("/join " + room);
+            b.expect("you are in room " + room);
+            b.expect("[" + room + "] a joined room");
+            a.expect("[" + room + "] b joined room");
+        }
+
+        for (int i = 0; i < MESSAGES_PER_ROOM; i++) {
+            for (String room : ROOMS) {
+                b.say("/switch " + room);
+                b.say(room + " " + i);
+            }
+        }
+
+        int[] received = new int[ROOMS.length];
+
+        for (int i = 0; i < ROOMS.length * MESSAGES_PER_ROOM; i++) {
+            String line = a.readLine();
+
+            Assertions.assertNotNull(line, engine.toString());
+
+            int room = indexOfRoom(line);
+            String expected = String.format("[%s] b: %s %d", ROOMS[room], ROOMS[room], received[room]++);
+
+            Assertions.assertEquals(expected, line, engine.toString());
+        }
+    }
+
+    private int indexOfRoom(String line) {
+        for (int i = 0; i < ROOMS.length; i++) {
+            if (line.startsWith("[" + ROOMS[i] + "] ")) {
+                return i;
+            }
+        }
+
+        Assertions.fail("unexpected message: " + line);
+
+        return -1;
+    }
+}
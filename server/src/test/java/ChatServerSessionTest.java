@@ -0,0 +1,111 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+
+// Продолжение сессии: клиент, соединение которого оборвалось, возвращается командой "/resume"
+// и получает сообщения, разосланные в его комнату, пока в ней никого не было.
+public class ChatServerSessionTest {
+    private final String LOG_FILE_PATH = "./src/test/resources/session_test_log.txt";
+    private final int RESUME_ATTEMPTS = 50;
+
+    @Test
+    public void resumesWithMessagesSentToEmptyRoom() throws Exception {
+        try (Logger l = new Logger(LOG_FILE_PATH, false)) {
+            for (Settings.Engine engine : Settings.Engine.values()) {
+                resume(engine, l);
+            }
+        } finally {
+            Assertions.assertTrue(new File(LOG_FILE_PATH).delete());
+        }
+    }
+
+    private void resume(Settings.Engine engine, Logger l) throws Exception {
+        Settings s = new Settings();
+        s.engine = engine;
+
+        ServerSocket listener = ServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                .socket();
+        ChatServer server = new ChatServer(listener, "hello", l, s);
+        int port = listener.getLocalPort();
+
+        server.start();
+
+        try (TestClient b = new TestClient(port)) {
+            String token;
+
+            b.say("b");
+            b.expect("b joined chat");
+
+            try (TestClient a = new TestClient(port)) {
+                a.say("a");
+                a.expect("a joined chat");
+                b.expect("a joined chat");
+
+                a.say("/session");
+
+                String session = a.readLine();
+
+                Assertions.assertTrue(session.startsWith("/session "), engine + ": " + session);
+
+                token = session.substring("/session ".length());
+
+                a.say("/join dev");
+                a.expect("you are in room dev");
+
+                b.say("/join dev");
+                b.expect("you are in room dev");
+                b.expect("[dev] a joined room");
+                a.expect("[dev] b joined room");
+            }
+
+            // Соединение a оборвалось. Последний участник уходит из комнаты, а сообщение с другого узла
+            // кластера приходит уже в пустую комнату - её история должна дождаться a.
+            b.say("d1");
+            b.say("/leave dev");
+            b.expect("you left room dev, you are in room general");
+
+            server.deliverFromCluster("dev", "[dev] remote: d2");
+
+            try (TestClient a = new TestClient(port)) {
+                // Запрос без сессии не обрывает обслуживание соединения.
+                a.say("/resume ");
+                a.expect("/session expired");
+
+                // Сессия сохраняется, когда сервер обработает обрыв соединения, - до этого она неизвестна.
+                a.say("/resume " + token);
+
+                String reply = a.readLine();
+
+                for (int i = 1; i < RESUME_ATTEMPTS && reply.equals("/session expired"); i++) {
+                    Thread.sleep(20);
+
+                    a.say("/resume " + token);
+
+                    reply = a.readLine();
+                }
+
+                Assertions.assertEquals("/resumed", reply, engine.toString());
+
+                boolean isLocalReceived = false;
+
+                for (String line = a.readLine(); !line.equals("[dev] remote: d2"); line = a.readLine()) {
+                    isLocalReceived |= line.equals("[dev] b: d1");
+                }
+
+                Assertions.assertTrue(isLocalReceived, engine.toString());
+
+                a.say("/switch dev");
+                a.expect("you are in room dev");
+            }
+        } finally {
+            server.stop();
+            server.waitForStop();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Остановка сервера: разосланное до stop() доходит до клиентов, а соединение, которое клиент не закрывает,
+// сервер закрывает сам по истечении Settings.shutdownTimeoutMillis.
+public class ChatServerShutdownTest {
+    private final String LOG_FILE_PATH = "./src/test/resources/shutdown_test_log.txt";
+    private final int MESSAGES_COUNT = 1000;
+    private final long SHUTDOWN_TIMEOUT_MILLIS = 1000;
+
+    @Test
+    public void drainsQueuedMessagesBeforeClosing() throws Exception {
+        try {
+            try (Logger l = new Logger(LOG_FILE_PATH, false)) {
+                for (Settings.Engine engine : Settings.Engine.values()) {
+                    shutdown(engine, l);
+                }
+            }
+
+            // Конец потока у silent - это ещё не закрытие: сервер закрывает запись сразу после уведомления.
+            // Что соединение закрыл именно сервер, видно по итогу остановки в логе.
+            long forciblyClosed = Files.readAllLines(Path.of(LOG_FILE_PATH)).stream()
+                    .filter(line -> line.contains("1 connections closed by clients, 1 closed forcibly"))
+                    .count();
+
+            Assertions.assertEquals(Settings.Engine.values().length, forciblyClosed);
+        } finally {
+            Assertions.assertTrue(new File(LOG_FILE_PATH).delete());
+        }
+    }
+
+    private void shutdown(Settings.Engine engine, Logger l) throws Exception {
+        Settings s = new Settings();
+        s.engine = engine;
+        s.shutdownTimeoutMillis = SHUTDOWN_TIMEOUT_MILLIS;
+
+        ServerSocket listener = ServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                .socket();
+        ChatServer server = new ChatServer(listener, "hello", l, s);
+        int port = listener.getLocalPort();
+
+        server.start();
+
+        try (TestClient silent = new TestClient(port, "silent")) {
+            silent.expect("silent joined chat");
+
+            // reading закрывается посреди теста, как только дочитает, поэтому не в try-with-resources.
+            TestClient reading = new TestClient(port, "reading");
+            Thread stopping = new Thread(() -> {
+                try {
+                    server.waitForStop();
+                } catch (InterruptedException ignored) {
+                }
+            });
+            long start;
+
+            try {
+                reading.expect("reading joined chat");
+                silent.expect("reading joined chat");
+
+                for (int i = 0; i < MESSAGES_COUNT; i++) {
+                    server.sendBroadcast("message " + i);
+                }
+
+                start = System.nanoTime();
+
+                server.stop();
+
+                stopping.start();
+
+                expectDrained(reading, engine);
+            } finally {
+                reading.close();
+            }
+
+            stopping.join();
+
+            // silent соединение не закрыл - сервер не стал ждать его дольше срока.
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            Assertions.assertTrue(elapsedMillis < SHUTDOWN_TIMEOUT_MILLIS * 3, engine + ": " + elapsedMillis + " ms");
+            Assertions.assertFalse(server.isRunning(), engine.toString());
+
+            // Всё разосланное ждёт silent в сокете, за ним - уведомление и конец потока.
+            expectDrained(silent, engine);
+        }
+    }
+
+    // Клиент получает все сообщения, разосланные до stop(), уведомление об остановке и конец потока.
+    private void expectDrained(TestClient client, Settings.Engine engine) throws IOException {
+        for (int i = 0; i < MESSAGES_COUNT; i++) {
+            Assertions.assertEquals("message " + i, client.readLine(), engine.toString());
+        }
+
+        Assertions.assertEquals("server is shutting down", client.readLine(), engine.toString());
+        Assertions.assertNull(client.readLine(), engine.toString());
+    }
+}
@@ -0,0 +1,89 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+// Очередь исходящих при переполнении - для каждой Settings.OverflowPolicy. Рассылка (send) при BLOCK
+// ждёт места в очереди, ответы сервера (offer) не ждут никогда.
+public class ClientConnectionTest {
+    private static final int CAPACITY = 2;
+
+    private final BufferPool pool = new BufferPool(64, 16);
+
+    @Test
+    public void dropOldestKeepsNewestMessages() {
+        TestConnection connection = new TestConnection(CAPACITY, Settings.OverflowPolicy.DROP_OLDEST);
+
+        send(connection, "m1");
+        send(connection, "m2");
+        send(connection, "m3");
+        offer(connection, "m4");
+
+        Assertions.assertEquals(2, connection.droppedMessages());
+        Assertions.assertEquals("m3", connection.next());
+        Assertions.assertEquals("m4", connection.next());
+        Assertions.assertFalse(connection.isDisconnectRequested);
+    }
+
+    @Test
+    public void disconnectDropsMessageAndDisconnects() {
+        TestConnection connection = new TestConnection(CAPACITY, Settings.OverflowPolicy.DISCONNECT);
+
+        send(connection, "m1");
+        send(connection, "m2");
+        send(connection, "m3");
+
+        Assertions.assertEquals(1, connection.droppedMessages());
+        Assertions.assertTrue(connection.isSlowConsumer());
+        Assertions.assertTrue(connection.isDisconnectRequested);
+        Assertions.assertEquals("m1", connection.next());
+    }
+
+    @Test
+    public void blockWaitsOnlyForBroadcasts() throws Exception {
+        TestConnection connection = new TestConnection(CAPACITY, Settings.OverflowPolicy.BLOCK);
+
+        send(connection, "m1");
+        send(connection, "m2");
+
+        Thread broadcaster = new Thread(() -> send(connection, "m3"));
+
+        broadcaster.start();
+
+        // Рассылка ждёт, пока писатель не освободит место.
+        for (int i = 0; i < 100 && broadcaster.getState() != Thread.State.TIMED_WAITING; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+
+        Assertions.assertTrue(broadcaster.isAlive());
+        Assertions.assertEquals("m1", connection.next());
+
+        broadcaster.join(5000);
+
+        Assertions.assertFalse(broadcaster.isAlive());
+        Assertions.assertFalse(connection.isDisconnectRequested);
+
+        // Ответ сервера в полную очередь не ждёт: клиент, который не читает, отключается.
+        offer(connection, "reply");
+
+        Assertions.assertTrue(connection.isSlowConsumer());
+        Assertions.assertTrue(connection.isDisconnectRequested);
+        Assertions.assertEquals("m2", connection.next());
+        Assertions.assertEquals("m3", connection.next());
+        Assertions.assertNull(connection.next());
+    }
+
+    private void send(ClientConnection connection, String text) {
+        EncodedMessage message = EncodedMessage.encode(text, pool);
+
+        connection.send(message);
+        message.release();
+    }
+
+    private void offer(ClientConnection connection, String text) {
+        EncodedMessage message = EncodedMessage.encode(text, pool);
+
+        connection.offer(message);
+        message.release();
+    }
+}
@@ -0,0 +1,43 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ClientRegistryTest {
+    private static ClientConnection client(String nickname) {
+        ClientConnection client = new ClientConnection(1, Settings.OverflowPolicy.DROP_OLDEST, ServerMetrics.DISABLED) {
+            @Override
+            protected void messageQueued() {
+            }
+
+            @Override
+            protected void requestDisconnect() {
+            }
+        };
+
+        client.nickname = nickname;
+
+        return client;
+    }
+
+    @Test
+    public void nicknamesAreUnique() {
+        ClientRegistry registry = new ClientRegistry();
+        ClientConnection first = client("alice");
+        ClientConnection second = client("alice");
+
+        Assertions.assertTrue(registry.add(first));
+        Assertions.assertFalse(registry.add(second));
+        Assertions.assertEquals(1, registry.size());
+        Assertions.assertSame(first, registry.find("alice"));
+
+        // Удаление клиента, так и не добавленного под никнеймом, не освобождает чужой никнейм.
+        Assertions.assertFalse(registry.remove(second));
+        Assertions.assertSame(first, registry.find("alice"));
+
+        Assertions.assertTrue(registry.remove(first));
+        Assertions.assertNull(registry.find("alice"));
+
+        Assertions.assertTrue(registry.add(second));
+        Assertions.assertSame(second, registry.find("alice"));
+        Assertions.assertArrayEquals(new ClientConnection[]{second}, registry.snapshot());
+    }
+}
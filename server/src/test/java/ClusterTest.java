@@ -0,0 +1,94 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+
+// Два сервера кластера на localhost: сообщения клиентов одного доходят до клиентов другого.
+public class ClusterTest {
+    private final String LOG_FILE_PATH = "./src/test/resources/cluster_test_log.txt";
+
+    @Test
+    public void forwardsMessagesBetweenNodes() throws Exception {
+        int[] clusterPorts = {freePort(), freePort()};
+        // У обоих узлов один и тот же список, свой адрес каждый пропускает.
+        String[] peers = {"127.0.0.1:" + clusterPorts[0], "127.0.0.1:" + clusterPorts[1]};
+
+        try (Logger l = new Logger(LOG_FILE_PATH, false)) {
+            ServerSocket firstListener = new ServerSocket(0);
+            ServerSocket secondListener = new ServerSocket(0);
+            ChatServer first = start(l, firstListener, "first", clusterPorts[0], peers);
+            ChatServer second = start(l, secondListener, "second", clusterPorts[1], peers);
+
+            try {
+                awaitLinked(first, 1);
+                awaitLinked(second, 1);
+
+                try (TestClient a = new TestClient(firstListener.getLocalPort(), "a")) {
+                    a.expect("a joined chat");
+
+                    TestClient b = new TestClient(secondListener.getLocalPort(), "b");
+
+                    // Оповещение о входе a могло дойти до второго узла уже после входа b.
+                    b.expect("b joined chat", "a joined chat");
+                    a.expect("b joined chat");
+
+                    a.say("hi");
+                    b.expect("a: hi");
+
+                    a.say("/join dev");
+                    a.expect("you are in room dev");
+                    // Ответ на /join уходит раньше входа в комнату, ответ на следующую команду - уже после.
+                    a.say("/switch dev");
+                    a.expect("you are in room dev");
+                    b.say("/join dev");
+                    b.expect("you are in room dev");
+                    a.expect("[dev] b joined room");
+
+                    b.say("in dev");
+                    a.expect("[dev] b: in dev");
+
+                    b.close();
+                }
+
+                second.stop();
+                second.waitForStop();
+
+                awaitLinked(first, 0);
+            } finally {
+                first.stop();
+                first.waitForStop();
+            }
+        } finally {
+            Assertions.assertTrue(new File(LOG_FILE_PATH).delete());
+        }
+    }
+
+    private static ChatServer start(Logger l, ServerSocket listener, String nodeId, int clusterPort, String[] peers) {
+        Settings s = new Settings();
+        s.nodeId = nodeId;
+        s.clusterPort = clusterPort;
+        s.clusterPeers = peers;
+
+        ChatServer server = new ChatServer(listener, "hello", l, s);
+
+        server.start();
+
+        return server;
+    }
+
+    private static void awaitLinked(ChatServer server, int nodes) throws InterruptedException {
+        for (int i = 0; i < 500 && server.clusterNodesCount() != nodes; i++) {
+            Thread.sleep(10);
+        }
+
+        Assertions.assertEquals(nodes, server.clusterNodesCount());
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class MessageHistoryTest {
+    @Test
+    public void keepsLastMessages() {
+        MessageHistory history = new MessageHistory(3, 1024);
+
+        for (int i = 1; i <= 5; i++) {
+            history.add(i, i, "message " + i);
+        }
+
+        Assertions.assertEquals("message 3\nmessage 4\nmessage 5\n", lines(history));
+    }
+
+    @Test
+    public void keepsWithinByteBudget() {
+        MessageHistory history = new MessageHistory(100, 10);
+
+        history.add(1, 1, "aaaa");
+        history.add(2, 2, "bbbb");
+        // Не помещается вместе с "aaaa" - она вытесняется, а содержимое переходит через конец массива.
+        history.add(3, 3, "cccc");
+
+        Assertions.assertEquals("bbbb\ncccc\n", lines(history));
+
+        history.add(4, 4, "too long for the budget");
+
+        Assertions.assertEquals("bbbb\ncccc\n", lines(history));
+    }
+
+    @Test
+    public void growsAfterWrapping() {
+        MessageHistory history = new MessageHistory(2, 4096);
+
+        // Начальный массив заполняется и переходит через конец, а потом растёт.
+        for (int i = 0; i < 100; i++) {
+            history.add(i, i, "x".repeat(300) + i);
+        }
+
+        Assertions.assertEquals("x".repeat(300) + 98 + "\n" + "x".repeat(300) + 99 + "\n", lines(history));
+    }
+
+    @Test
+    public void encodesSequencedFramesAfterGivenSequence() throws Exception {
+        MessageHistory history = new MessageHistory(10, 1024);
+
+        history.add(5, 3, "old");
+        history.add(8, 7, "привет");
+        history.add(9, 0, "server");
+
+        ByteBuffer encoded = history.encode(Protocol.BINARY, "dev", 5).content();
+        Frame frame = new Frame();
+
+        Assertions.assertTrue(frame.decode(encoded));
+        Assertions.assertEquals(Frame.SEQUENCE, frame.type);
+        Assertions.assertEquals(8, frame.sequence);
+        Assertions.assertEquals("dev", frame.payload);
+
+        Assertions.assertTrue(frame.decode(encoded));
+        Assertions.assertEquals(Frame.TEXT, frame.type);
+        Assertions.assertEquals(7, frame.senderId);
+        Assertions.assertEquals("привет", frame.payload);
+
+        Assertions.assertTrue(frame.decode(encoded));
+        Assertions.assertEquals(9, frame.sequence);
+
+        Assertions.assertTrue(frame.decode(encoded));
+        Assertions.assertEquals(0, frame.senderId);
+        Assertions.assertEquals("server", frame.payload);
+
+        Assertions.assertFalse(encoded.hasRemaining());
+
+        Assertions.assertNull(history.encode(Protocol.BINARY, "dev", 9));
+    }
+
+    private static String lines(MessageHistory history) {
+        ByteBuffer encoded = history.encode(Protocol.LINES, "general", 0).content();
+
+        return StandardCharsets.UTF_8.decode(encoded).toString();
+    }
+}
@@ -0,0 +1,142 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class MessageJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void readsSinceIdAcrossSegmentsAfterReopening() throws Exception {
+        try (Logger logger = new Logger(directory.resolve("log.txt").toString(), false)) {
+            Path journalDirectory = directory.resolve("journal");
+
+            try (MessageJournal journal = new MessageJournal(journalDirectory, 4096, 256, 100, logger)) {
+                for (int i = 1; i <= 1000; i++) {
+                    Assertions.assertEquals(i, journal.append(i % 2 == 0 ? "general" : "", i, "message " + i));
+                }
+            }
+
+            Assertions.assertTrue(segmentCount(journalDirectory) > 1);
+
+            try (MessageJournal journal = new MessageJournal(journalDirectory, 4096, 256, 100, logger)) {
+                Assertions.assertEquals(1000, journal.lastId());
+
+                List<MessageJournal.Entry> entries = journal.readSince(500, 3);
+
+                Assertions.assertEquals(3, entries.size());
+                Assertions.assertEquals(501, entries.get(0).id);
+                Assertions.assertEquals("", entries.get(0).room);
+                Assertions.assertEquals(502, entries.get(1).senderId);
+                Assertions.assertEquals("general", entries.get(1).room);
+                Assertions.assertEquals("message 503", entries.get(2).message);
+
+                Assertions.assertEquals(1000, journal.readSince(0, Integer.MAX_VALUE).size());
+                Assertions.assertTrue(journal.readSince(1000, 10).isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void dropsDamagedTailAndContinues() throws Exception {
+        try (Logger logger = new Logger(directory.resolve("log.txt").toString(), false)) {
+            Path journalDirectory = directory.resolve("journal");
+
+            try (MessageJournal journal = new MessageJournal(journalDirectory, 1 << 20, 256, 10, logger)) {
+                for (int i = 1; i <= 10; i++) {
+                    journal.append("general", 1, "message " + i);
+                }
+            }
+
+            // Оборванная запись в конце сегмента, как после сбоя посреди записи.
+            try (FileChannel segment = FileChannel.open(lastSegment(journalDirectory), StandardOpenOption.APPEND)) {
+                segment.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 100, 1, 2, 3}));
+            }
+
+            try (MessageJournal journal = new MessageJournal(journalDirectory, 1 << 20, 256, 10, logger)) {
+                Assertions.assertEquals(10, journal.lastId());
+                Assertions.assertEquals(11, journal.append("general", 1, "after recovery"));
+            }
+
+            try (MessageJournal journal = new MessageJournal(journalDirectory, 1 << 20, 256, 10, logger)) {
+                List<MessageJournal.Entry> entries = journal.readSince(9, 10);
+
+                Assertions.assertEquals(2, entries.size());
+                Assertions.assertEquals("after recovery", entries.get(1).message);
+            }
+        }
+    }
+
+    @Test
+    public void keepsIdsWhenDamagedRecordStartsAtIndexPoint() throws Exception {
+        try (Logger logger = new Logger(directory.resolve("log.txt").toString(), false)) {
+            Path journalDirectory = directory.resolve("journal");
+
+            // Точка индекса у каждой записи - оборванной оказывается запись, с которой начинается проверка хвоста.
+            try (MessageJournal journal = new MessageJournal(journalDirectory, 1 << 20, 1, 10, logger)) {
+                for (int i = 1; i <= 5; i++) {
+                    journal.append("general", 1, "message " + i);
+                }
+            }
+
+            try (FileChannel segment = FileChannel.open(lastSegment(journalDirectory), StandardOpenOption.WRITE)) {
+                segment.truncate(segment.size() - 3);
+            }
+
+            try (MessageJournal journal = new MessageJournal(journalDirectory, 1 << 20, 1, 10, logger)) {
+                Assertions.assertEquals(4, journal.lastId());
+                Assertions.assertEquals(5, journal.append("general", 1, "after recovery"));
+            }
+
+            try (MessageJournal journal = new MessageJournal(journalDirectory, 1 << 20, 1, 10, logger)) {
+                List<MessageJournal.Entry> entries = journal.readSince(0, 10);
+
+                Assertions.assertEquals(5, entries.size());
+                Assertions.assertEquals("message 4", entries.get(3).message);
+                Assertions.assertEquals("after recovery", entries.get(4).message);
+            }
+        }
+    }
+
+    @Test
+    public void keepsAtMostMaxSegments() throws Exception {
+        try (Logger logger = new Logger(directory.resolve("log.txt").toString(), false)) {
+            Path journalDirectory = directory.resolve("journal");
+
+            try (MessageJournal journal = new MessageJournal(journalDirectory, 1024, 256, 3, logger)) {
+                for (int i = 1; i <= 1000; i++) {
+                    journal.append("general", 1, "message " + i);
+                }
+            }
+
+            Assertions.assertEquals(3, segmentCount(journalDirectory));
+
+            try (MessageJournal journal = new MessageJournal(journalDirectory, 1024, 256, 3, logger)) {
+                List<MessageJournal.Entry> entries = journal.readSince(0, Integer.MAX_VALUE);
+
+                Assertions.assertTrue(entries.size() < 1000);
+                Assertions.assertEquals(1000, entries.get(entries.size() - 1).id);
+            }
+        }
+    }
+
+    private static long segmentCount(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".log")).count();
+        }
+    }
+
+    private static Path lastSegment(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".log")).sorted().reduce((a, b) -> b).orElseThrow();
+        }
+    }
+}
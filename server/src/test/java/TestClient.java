@@ -0,0 +1,60 @@
+import org.junit.jupiter.api.Assertions;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+// Клиент текстового протокола для тестов сервера: подключается к localhost, проверяет приветствие
+// "hello" и обменивается строками. Чтение ограничено по времени, чтобы зависший сервер не подвешивал тест.
+class TestClient implements AutoCloseable {
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+
+    private final Socket socket;
+    private final BufferedReader input;
+    private final OutputStream output;
+
+    TestClient(int port) throws IOException {
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        output = socket.getOutputStream();
+
+        Assertions.assertEquals("hello", input.readLine());
+    }
+
+    // Подключается и сразу присылает никнейм.
+    TestClient(int port, String nickname) throws IOException {
+        this(port);
+
+        say(nickname);
+    }
+
+    void say(String message) throws IOException {
+        output.write((message + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    void expect(String message) throws IOException {
+        Assertions.assertEquals(message, input.readLine());
+    }
+
+    // Как expect, но пропускает сообщение skipped, которое могло прийти раньше.
+    void expect(String message, String skipped) throws IOException {
+        String line = input.readLine();
+
+        Assertions.assertEquals(message, skipped.equals(line) ? input.readLine() : line);
+    }
+
+    // Следующая строка или null, если сервер закрыл соединение.
+    String readLine() throws IOException {
+        return input.readLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
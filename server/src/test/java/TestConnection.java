@@ -0,0 +1,55 @@
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Соединение без сокета для тестов очереди исходящих и потоков рассылки: сообщения лежат в очереди,
+// пока тест не достанет их, как писатель, а пробуждения писателя и запросы отключения только считаются.
+class TestConnection extends ClientConnection {
+    private static final long TAKE_TIMEOUT_MILLIS = 5000;
+
+    final AtomicInteger wakeups = new AtomicInteger();
+    volatile boolean isDisconnectRequested;
+
+    TestConnection(int outgoingQueueCapacity, Settings.OverflowPolicy overflowPolicy) {
+        super(outgoingQueueCapacity, overflowPolicy, ServerMetrics.DISABLED);
+    }
+
+    // Достаёт следующее сообщение и возвращает его текст или null, если очередь пуста.
+    String next() {
+        EncodedMessage message = pollOutgoing();
+
+        if (message == null) {
+            return null;
+        }
+
+        byte[] bytes = new byte[message.length()];
+
+        message.content().get(bytes);
+        message.release();
+
+        return new String(bytes, StandardCharsets.UTF_8).trim();
+    }
+
+    // Как next, но ждёт сообщения, которое ещё рассылается другим потоком.
+    String take() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TAKE_TIMEOUT_MILLIS);
+
+        for (String message = next(); ; message = next()) {
+            if (message != null || System.nanoTime() > deadline) {
+                return message;
+            }
+
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    @Override
+    protected void messageQueued() {
+        wakeups.incrementAndGet();
+    }
+
+    @Override
+    protected void requestDisconnect() {
+        isDisconnectRequested = true;
+    }
+}
@@ -0,0 +1,98 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TimerWheelTest {
+    @Test
+    public void firesOnDeadlineTickAndNotEarlier() {
+        TimerWheel wheel = new TimerWheel(10, 8, "timer");
+        List<String> fired = new ArrayList<>();
+
+        wheel.schedule(() -> fired.add("a"), 25);
+        wheel.schedule(() -> fired.add("b"), 10);
+
+        // 10 мс - один тик, 25 мс округляются вверх до трёх.
+        wheel.tick();
+        Assertions.assertEquals(List.of(), fired);
+
+        wheel.tick();
+        Assertions.assertEquals(List.of("b"), fired);
+
+        wheel.tick();
+        Assertions.assertEquals(List.of("b"), fired);
+
+        wheel.tick();
+        Assertions.assertEquals(List.of("b", "a"), fired);
+    }
+
+    @Test
+    public void keepsTimeoutsForLaterRevolutions() {
+        TimerWheel wheel = new TimerWheel(1, 4, "timer");
+        List<Integer> fired = new ArrayList<>();
+
+        // Обе задачи попадают в одну ячейку, но вторая - на третьем обороте колеса.
+        wheel.schedule(() -> fired.add(1), 1);
+        wheel.schedule(() -> fired.add(9), 9);
+
+        for (int tick = 0; tick <= 9; tick++) {
+            wheel.tick();
+
+            Assertions.assertEquals(tick < 1 ? 0 : tick < 9 ? 1 : 2, fired.size(), "after tick " + tick);
+        }
+
+        Assertions.assertEquals(List.of(1, 9), fired);
+    }
+
+    @Test
+    public void cancelledAndFailedTasksDoNotStopOthers() {
+        TimerWheel wheel = new TimerWheel(1, 4, "timer");
+        List<String> fired = new ArrayList<>();
+        Thread.UncaughtExceptionHandler handler = Thread.currentThread().getUncaughtExceptionHandler();
+
+        Thread.currentThread().setUncaughtExceptionHandler((thread, e) -> fired.add("failed"));
+
+        try {
+            wheel.schedule(() -> fired.add("cancelled"), 1).cancel();
+            wheel.schedule(() -> {
+                throw new IllegalStateException("task failed");
+            }, 1);
+            wheel.schedule(() -> fired.add("ok"), 1);
+
+            wheel.tick();
+            wheel.tick();
+        } finally {
+            Thread.currentThread().setUncaughtExceptionHandler(handler);
+        }
+
+        Assertions.assertEquals(List.of("failed", "ok"), fired);
+    }
+
+    @Test
+    public void runsTasksScheduledFromOtherTasks() throws Exception {
+        TimerWheel wheel = new TimerWheel(5, 16, "timer");
+        List<Long> fired = new ArrayList<>();
+        long start = System.nanoTime();
+
+        wheel.start();
+
+        synchronized (fired) {
+            wheel.schedule(() -> wheel.schedule(() -> {
+                synchronized (fired) {
+                    fired.add(System.nanoTime() - start);
+                    fired.notifyAll();
+                }
+            }, 20), 20);
+
+            while (fired.isEmpty()) {
+                fired.wait(5000);
+            }
+        }
+
+        wheel.stop();
+        wheel.join();
+
+        Assertions.assertTrue(fired.get(0) >= 40_000_000L, "fired after " + fired.get(0) + " ns");
+    }
+}
@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TokenBucketTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void allowsBurstThenRate() {
+        TokenBucket bucket = new TokenBucket(10, 3, 0);
+
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(0, bucket.delayNanos(0));
+
+            bucket.take();
+        }
+
+        // Следующий жетон появится через 1/10 секунды.
+        Assertions.assertEquals(SECOND / 10, bucket.delayNanos(0));
+        Assertions.assertEquals(SECOND / 20, bucket.delayNanos(SECOND / 20));
+        Assertions.assertEquals(0, bucket.delayNanos(SECOND / 10));
+    }
+
+    @Test
+    public void doesNotAccumulateMoreThanBurst() {
+        TokenBucket bucket = new TokenBucket(10, 2, 0);
+        long now = 100 * SECOND;
+
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertEquals(0, bucket.delayNanos(now));
+
+            bucket.take();
+        }
+
+        Assertions.assertTrue(bucket.delayNanos(now) > 0);
+    }
+
+    @Test
+    public void keepsTokensWhenRateChanges() {
+        TokenBucket bucket = new TokenBucket(10, 5, 0);
+
+        bucket.take();
+        bucket.take();
+
+        // Из трёх оставшихся жетонов в меньшее ведро помещаются два, дальше - по новой частоте.
+        bucket.setRate(1, 2, 0);
+
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertEquals(0, bucket.delayNanos(0));
+
+            bucket.take();
+        }
+
+        Assertions.assertEquals(SECOND, bucket.delayNanos(0));
+    }
+}